@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tools.RegressionHarness;
+import tools.SyntheticDataset;
+
+/**
+ * This class reports the time of the preliminary treatment of whole searches on a SyntheticDataset, for the versions 1, 3 (tiles) and 4 (prefix tree), with the vector kernel and with fixedPointMasses.
+ * Each search is a separate process with one thread (see RegressionHarness.search) and the time of the stage is read in its metrics file (exportMetrics). The median of the repetitions is reported.
+ * These times include the JIT warm-up of each process : they compare the options of the preliminary treatment on a search, the kernels alone are measured by the ShiftScanBenchmark.
+ * Usage : java [--add-modules jdk.incubator.vector] -cp target/SpecPeptidOMS-1.0.0-benchmarks.jar benchmarks.PreliminaryTreatmentTimes &lt;work directory&gt; [&lt;number of repetitions&gt;]
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class PreliminaryTreatmentTimes {
+
+	private static final int NUMBER_OF_PROTEINS = 1000;
+	private static final int NUMBER_OF_SPECTRA = 300;
+	private static final String[][] SEARCHES = {
+			{"versionPreliminaryTreatment= 1", "vectorKernel= false"},
+			{"versionPreliminaryTreatment= 1", "vectorKernel= true"},
+			{"versionPreliminaryTreatment= 1", "vectorKernel= false", "fixedPointMasses= true"},
+			{"versionPreliminaryTreatment= 3", "vectorKernel= false", "nbSpectraPerTile= 8"},
+			{"versionPreliminaryTreatment= 4", "vectorKernel= false"}};
+	private static final Pattern PRELIMINARY_TREATMENT_PATTERN = Pattern.compile("\"preliminary_treatment\": \\{\"count\": \\d+, \"total_seconds\": ([0-9.E-]+)");
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length < 1)
+		{
+			System.out.println("Usage : java [--add-modules jdk.incubator.vector] -cp <class path> benchmarks.PreliminaryTreatmentTimes <work directory> [<number of repetitions>]");
+			System.exit(2);
+		}
+		File directory = new File(args[0]).getAbsoluteFile();
+		int repetitions = args.length > 1 ? Integer.valueOf(args[1]) : 5;
+		SyntheticDataset.write(directory, NUMBER_OF_PROTEINS, NUMBER_OF_SPECTRA, SyntheticDataset.DEFAULT_SEED);
+
+		System.out.println("preliminary treatment of " + NUMBER_OF_SPECTRA + " spectra on " + NUMBER_OF_PROTEINS + " proteins, 1 thread (seconds, median of " + repetitions + ")");
+		for (int search_number = 0; search_number < SEARCHES.length; ++search_number)
+		{
+			String[] parameters = Arrays.copyOf(SEARCHES[search_number], SEARCHES[search_number].length + 2);
+			parameters[parameters.length - 2] = "nbThreads= 1";
+			parameters[parameters.length - 1] = "exportMetrics= true";
+			double[] times = new double[repetitions];
+			for (int repetition = 0; repetition < repetitions; ++repetition)
+			{
+				File results = RegressionHarness.search(directory, "search_" + search_number, new String[0], parameters);
+				String metrics = new String(Files.readAllBytes(new File(results.getPath() + ".metrics.json").toPath()), StandardCharsets.UTF_8);
+				Matcher matcher = PRELIMINARY_TREATMENT_PATTERN.matcher(metrics);
+				if (!matcher.find())
+				{
+					throw new IOException("The time of the preliminary treatment is not found in the metrics of the search " + search_number + ".");
+				}
+				times[repetition] = Double.valueOf(matcher.group(1));
+			}
+			System.out.println(String.join(", ", SEARCHES[search_number]) + "\t" + String.format(Locale.ROOT, "%.3f", PreliminaryTreatmentTimes.median(times)));
+		}
+	}
+
+	private static double median(double[] values)
+	{
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted.length % 2 == 1 ? sorted[sorted.length / 2] : (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+	}
+}
@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import algorithms.ShiftMaxKernel;
+import constantes.Parameters;
+
+/**
+ * This JMH benchmark measures the scan of the best shift position of the preliminary treatment (ShiftMaxKernel.scan), with the scalar loop and with the Vector API, on rows of 8 to 512 columns.
+ * The key cells of the columns are random, as the first column of each scan. Each invocation performs NUMBER_OF_STARTS scans, and the time reported is the time of one scan.
+ * The Vector API kernel must return the same columns as the scalar loop, the trial stops otherwise. It is only available with a build with the Maven profiles "jmh" and "vector" :
+ * mvn -P jmh,vector package, then java -jar target/SpecPeptidOMS-1.0.0-benchmarks.jar ShiftScanBenchmark (add "-p vector=false" for a build without the profile "vector").
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ShiftScanBenchmark {
+
+	private static final int NUMBER_OF_COLUMNS = 4096;
+	private static final int NUMBER_OF_STARTS = 1024;
+	private static final int NOT_FOUND = -4; // the default notFoundMain
+	private static final long SEED = 7;
+
+	@Param({"8", "16", "32", "64", "128", "256", "512"})
+	public int width;
+
+	@Param({"false", "true"})
+	public boolean vector;
+
+	private int[] interest_rows;
+	private int[] interest_scores;
+	private int[] starts;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		Random random = new Random(SEED);
+		this.interest_rows = new int[NUMBER_OF_COLUMNS];
+		this.interest_scores = new int[NUMBER_OF_COLUMNS];
+		for (int j = 0; j < NUMBER_OF_COLUMNS; ++j)
+		{
+			this.interest_rows[j] = random.nextInt(200);
+			this.interest_scores[j] = random.nextInt(100) - 20;
+		}
+		this.starts = new int[NUMBER_OF_STARTS];
+		for (int i = 0; i < NUMBER_OF_STARTS; ++i)
+		{
+			this.starts[i] = random.nextInt(NUMBER_OF_COLUMNS - 512);
+		}
+
+		// no parameters file is loaded : the results file is only given so the parameters can be initialized without a spectra file
+		Parameters.override("resultsFile= shift_scan.csv\nvectorKernel= false");
+		ShiftMaxKernel.reset();
+		long scalar_checksum = this.scan();
+		Parameters.override("resultsFile= shift_scan.csv\nvectorKernel= " + this.vector);
+		ShiftMaxKernel.reset();
+		if (this.vector && !ShiftMaxKernel.isVectorized())
+		{
+			throw new IllegalStateException("The vector kernel is not available : it needs a build with the Maven profile vector.");
+		}
+		if (this.scan() != scalar_checksum)
+		{
+			throw new IllegalStateException("The vector kernel doesn't return the columns of the scalar loop on rows of " + this.width + " columns.");
+		}
+	}
+
+	/**
+	 * Perform NUMBER_OF_STARTS scans of 'width' columns
+	 * @return the sum of the columns found, which is used to check the kernels and is consumed by JMH
+	 */
+	@Benchmark
+	@OperationsPerInvocation(NUMBER_OF_STARTS)
+	public long scan()
+	{
+		long checksum = 0;
+		for (int i = 0; i < NUMBER_OF_STARTS; ++i)
+		{
+			checksum += ShiftMaxKernel.scan(this.interest_rows, this.interest_scores, this.starts[i], this.starts[i] + this.width - 1, 200 + (i & 63), NOT_FOUND, -1000);
+		}
+		return checksum;
+	}
+}
@@ -0,0 +1,175 @@
+package algorithms;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+import constantes.Parameters;
+
+/**
+ * This class manages the checkpoint file written next to the results file (same name followed by ".checkpoint"), so an interrupted search can be resumed.
+ * The checkpoint file begins with the fingerprints of the parameters and of the spectra and proteins files. Then, each time the results file is flushed,
+ * a line "id;length" is added, where 'id' is the intern identifier of the last spectrum written and 'length' the length of the results file at this moment.
+ * As the results are written in the order of the spectra, all the spectra whose identifier is lower or equal to 'id' are completed.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class Checkpoint {
+
+	private final String path;
+	private final String results_path;
+	private final String[] fingerprints;
+	private PrintWriter output;
+
+	/**
+	 * The fingerprints of the current parameters and input files are computed here.
+	 * @param results_path: the path of the results file
+	 */
+	public Checkpoint(String results_path) throws IOException
+	{
+		this.results_path = results_path;
+		this.path = results_path + ".checkpoint";
+		this.fingerprints = new String[3];
+		CRC32 crc = new CRC32();
+		crc.update(Parameters.fingerprint().getBytes());
+		this.fingerprints[0] = "parameters=" + Long.toHexString(crc.getValue());
+		this.fingerprints[1] = "spectra=" + Checkpoint.fileFingerprint(Parameters.SPECTRA_FOLDER_PATH() + "/" + Parameters.SPECTRA_FILE());
+		this.fingerprints[2] = "proteins=" + Checkpoint.fileFingerprint(Parameters.PROTEINS_FOLDER_PATH() + "/" + Parameters.PROTEINS_FILE());
+	}
+
+	/**
+	 * Create the checkpoint file of a new search. The header of the results file must already be written.
+	 */
+	public void start() throws IOException
+	{
+		try
+		{
+			this.output = new PrintWriter(new FileWriter(this.path, false));
+		}
+		catch (IOException e)
+		{
+			throw new IOException("The program stopped due to an IOException during the creation of the checkpoint file.");
+		}
+		for (String fingerprint : this.fingerprints)
+		{
+			this.output.write(fingerprint + "\n");
+		}
+		this.record(-1);
+	}
+
+	/**
+	 * Prepare the resumption of an interrupted search : the fingerprints are checked, the rows written after the last line of the checkpoint file are removed from the results file.
+	 * @return the intern identifier of the first spectrum that is not completed
+	 */
+	public int resume() throws IOException
+	{
+		int last_spectrum_id = -2;
+		long results_length = -1;
+		BufferedReader input;
+		try
+		{
+			input = new BufferedReader(new FileReader(this.path));
+		}
+		catch (IOException e)
+		{
+			throw new IOException("The checkpoint file \"" + this.path + "\" doesn't exists, the search can't be resumed.");
+		}
+		try
+		{
+			String line;
+			for (String fingerprint : this.fingerprints)
+			{
+				line = input.readLine();
+				if (!fingerprint.equals(line))
+				{
+					throw new IOException("The " + fingerprint.split("=")[0] + " changed since the interrupted search, it can't be resumed.");
+				}
+			}
+			while ((line = input.readLine()) != null)
+			{
+				String[] values = line.split(";");
+				/*
+				 * The last line may be incomplete if the program stopped while writing it
+				 */
+				if (values.length == 2 && values[0].matches("-?\\d+") && values[1].matches("\\d+"))
+				{
+					last_spectrum_id = Integer.valueOf(values[0]);
+					results_length = Long.valueOf(values[1]);
+				}
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+		if (last_spectrum_id == -2 || new File(this.results_path).length() < results_length)
+		{
+			throw new IOException("The results file \"" + this.results_path + "\" doesn't correspond to its checkpoint file, the search can't be resumed.");
+		}
+		RandomAccessFile results = new RandomAccessFile(this.results_path, "rw");
+		try
+		{
+			results.setLength(results_length);
+		}
+		finally
+		{
+			results.close();
+		}
+		this.output = new PrintWriter(new FileWriter(this.path, true));
+		return last_spectrum_id + 1;
+	}
+
+	/**
+	 * Add a line to the checkpoint file, the results file must be flushed before.
+	 * @param last_spectrum_id: the intern identifier of the last spectrum written in the results file
+	 */
+	public void record(int last_spectrum_id) throws IOException
+	{
+		this.output.write(last_spectrum_id + ";" + new File(this.results_path).length() + "\n");
+		this.output.flush();
+		if (this.output.checkError())
+		{
+			throw new IOException("The program stopped due to an IOException during the writing of the checkpoint file.");
+		}
+	}
+
+	public void close()
+	{
+		if (this.output != null)
+		{
+			this.output.close();
+		}
+	}
+
+	/*
+	 * Return the length and the CRC32 of the content of a file, in hexadecimal
+	 */
+	private static String fileFingerprint(String file_path) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1 << 16];
+		int length;
+		long total_length = 0;
+		InputStream input = new BufferedInputStream(new FileInputStream(file_path));
+		try
+		{
+			while ((length = input.read(buffer)) != -1)
+			{
+				crc.update(buffer, 0, length);
+				total_length += length;
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+		return Long.toHexString(total_length) + "-" + Long.toHexString(crc.getValue());
+	}
+}
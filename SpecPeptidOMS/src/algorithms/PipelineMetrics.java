@@ -0,0 +1,454 @@
+package algorithms;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import constantes.Parameters;
+
+/**
+ * This class measures the time spent in each stage of the alignment pipeline (parameter exportMetrics).
+ * For each stage, the number of calls, the total and the maximum durations and a histogram of the durations are kept. The counters can be updated by all the threads at the same time.
+ * The metrics are exported next to the results file, as JSON ("<results file>.metrics.json") and in the Prometheus text format ("<results file>.metrics.prom"),
+ * each time the results file is flushed and at the end of the search.
+ * With the filter on the sequence tags (parameter minTagCount), the part of the proteome skipped by the preliminary treatment of each spectrum is also exported, as a histogram.
+ * The number of proteins skipped because their upper bound of score can't reach the heap of the locations (see SpecGlobThread.isWithinReach) is exported with the number of proteins checked.
+ * With the parameter finalTreatmentBand, the number of final treatments computed on a band and the number of them computed again on the full matrix are exported.
+ * With the parameter finalTreatmentCacheSize, the number of final treatments looked up in the cache of the threads and the number of them found are exported.
+ * When exportMetrics is false, nothing is measured : start() returns 0 and record() returns immediately.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class PipelineMetrics {
+
+	private static boolean EXPORT_METRICS = Parameters.EXPORT_METRICS();
+
+	/**
+	 * The measured stages. The preliminary treatment is measured per spectrum, or per tile with VERSION_PRELIMINARY_TREATMENT() = 3.
+	 */
+	public enum Stage
+	{
+		SPECTRA_LOADING("spectra_loading"),
+		PROTEINS_LOADING("proteins_loading"),
+		SPECTRUM_TRANSFORMATION("spectrum_transformation"),
+		PRELIMINARY_TREATMENT("preliminary_treatment"),
+		FINAL_TREATMENT("final_treatment"),
+		PEAKS_CLEANING("peaks_cleaning"),
+		NON_ALIGNED_MASS("non_aligned_mass"),
+		RESULTS_WRITING("results_writing");
+
+		private final String label;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total_nanos = new LongAdder();
+		private final AtomicLong max_nanos = new AtomicLong();
+		private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1]; // the last bucket counts the durations greater than all the bounds
+
+		private Stage(String label)
+		{
+			this.label = label;
+			for (int bucket_number = 0; bucket_number < this.buckets.length; ++bucket_number)
+			{
+				this.buckets[bucket_number] = new LongAdder();
+			}
+		}
+
+		private void reset()
+		{
+			this.count.reset();
+			this.total_nanos.reset();
+			this.max_nanos.set(0);
+			for (LongAdder bucket : this.buckets)
+			{
+				bucket.reset();
+			}
+		}
+	}
+
+	// the upper bounds of the buckets of the histograms, in seconds
+	private static final double[] BUCKET_BOUNDS = {0.00001, 0.00005, 0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 60};
+
+	// the upper bounds of the buckets of the histogram of the part of the proteome skipped by each spectrum
+	private static final double[] SKIPPED_BOUNDS = {0.0, 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.9, 0.95, 0.99, 1.0};
+	
+	private static final LongAdder filtered_spectra = new LongAdder();
+	private static final LongAdder skipped_proteins = new LongAdder();
+	private static final LongAdder filtered_proteins = new LongAdder();
+	private static final LongAdder[] skipped_buckets = new LongAdder[SKIPPED_BOUNDS.length];
+	static
+	{
+		for (int bucket_number = 0; bucket_number < skipped_buckets.length; ++bucket_number)
+		{
+			skipped_buckets[bucket_number] = new LongAdder();
+		}
+	}
+	
+	private static final LongAdder bound_checked_proteins = new LongAdder();
+	private static final LongAdder bound_skipped_proteins = new LongAdder();
+	
+	private static final LongAdder banded_treatments = new LongAdder();
+	private static final LongAdder band_fallbacks = new LongAdder();
+	
+	private static final LongAdder cache_lookups = new LongAdder();
+	private static final LongAdder cache_hits = new LongAdder();
+	
+	private static final LongAdder non_aligned_mass_interpretations = new LongAdder();
+	private static final LongAdder non_aligned_mass_candidates = new LongAdder();
+	private static final LongAdder parallel_interpretations = new LongAdder();
+	private static final LongAdder non_aligned_mass_tasks = new LongAdder();
+	
+	private static final LongAdder aligned_spectra = new LongAdder();
+	private static volatile int written_spectra = 0;
+	private static long start_time = System.nanoTime();
+
+	/**
+	 * Begin the measure of a stage.
+	 * @return the current time in nanoseconds, to be given to record (0 if the metrics are not exported)
+	 */
+	public static long start()
+	{
+		return EXPORT_METRICS ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * End the measure of a stage begun by start().
+	 * @param stage: the measured stage
+	 * @param start: the value returned by start()
+	 */
+	public static void record(Stage stage, long start)
+	{
+		if (!EXPORT_METRICS)
+		{
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		stage.count.increment();
+		stage.total_nanos.add(nanos);
+		stage.max_nanos.accumulateAndGet(nanos, Math::max);
+		int bucket_number = 0;
+		while (bucket_number < BUCKET_BOUNDS.length && nanos > BUCKET_BOUNDS[bucket_number] * 1e9)
+		{
+			++bucket_number;
+		}
+		stage.buckets[bucket_number].increment();
+	}
+
+	/**
+	 * Count a spectrum whose alignments are finished (before the writing of its results)
+	 */
+	public static void spectrumAligned()
+	{
+		if (EXPORT_METRICS)
+		{
+			PipelineMetrics.aligned_spectra.increment();
+		}
+	}
+
+	/**
+	 * Count the proteins on which a spectrum is aligned by the preliminary treatment, when they are selected by their sequence tags
+	 * @param selected: the number of proteins on which the spectrum is aligned
+	 * @param total: the number of proteins
+	 */
+	public static void proteinsSelected(int selected, int total)
+	{
+		if (!EXPORT_METRICS)
+		{
+			return;
+		}
+		PipelineMetrics.filtered_spectra.increment();
+		PipelineMetrics.skipped_proteins.add(total - selected);
+		PipelineMetrics.filtered_proteins.add(total);
+		double skipped = total > 0 ? (total - selected) / (double)total : 0.0;
+		int bucket_number = 0;
+		while (bucket_number < SKIPPED_BOUNDS.length - 1 && skipped > SKIPPED_BOUNDS[bucket_number])
+		{
+			++bucket_number;
+		}
+		PipelineMetrics.skipped_buckets[bucket_number].increment();
+	}
+	
+	/**
+	 * Count the proteins whose upper bound of score has been compared with the heap of the locations by the preliminary treatment
+	 * @param checked: the number of proteins checked
+	 * @param skipped: the number of them skipped because they can't give a location good enough
+	 */
+	public static void proteinsBounded(int checked, int skipped)
+	{
+		if (EXPORT_METRICS)
+		{
+			PipelineMetrics.bound_checked_proteins.add(checked);
+			PipelineMetrics.bound_skipped_proteins.add(skipped);
+		}
+	}
+	
+	/**
+	 * Count a final treatment computed on a band around the path of a previous alignment (see SpecGlobThread.finalTreatment)
+	 * @param fallback: true if the band was saturated and the full matrix has been computed
+	 */
+	public static void finalTreatmentBanded(boolean fallback)
+	{
+		if (EXPORT_METRICS)
+		{
+			PipelineMetrics.banded_treatments.increment();
+			if (fallback)
+			{
+				PipelineMetrics.band_fallbacks.increment();
+			}
+		}
+	}
+	
+	/**
+	 * Count a final treatment looked up in the cache of its thread (see FinalTreatmentCache)
+	 * @param hit: true if its result was in the cache
+	 */
+	public static void finalTreatmentCached(boolean hit)
+	{
+		if (EXPORT_METRICS)
+		{
+			PipelineMetrics.cache_lookups.increment();
+			if (hit)
+			{
+				PipelineMetrics.cache_hits.increment();
+			}
+		}
+	}
+	
+	/**
+	 * Count the evaluation of the candidate non-aligned masses of an interpretation (see SpecGlobThread.alignNonAlignedMasses)
+	 * @param candidates: the number of candidate non-aligned masses
+	 * @param tasks: the number of mass tasks that helped the SpecGlobThread (0 if it evaluated all the candidates)
+	 */
+	public static void nonAlignedMassesEvaluated(int candidates, int tasks)
+	{
+		if (EXPORT_METRICS)
+		{
+			PipelineMetrics.non_aligned_mass_interpretations.increment();
+			PipelineMetrics.non_aligned_mass_candidates.add(candidates);
+			if (tasks > 0)
+			{
+				PipelineMetrics.parallel_interpretations.increment();
+				PipelineMetrics.non_aligned_mass_tasks.add(tasks);
+			}
+		}
+	}
+	
+	/**
+	 * Export the metrics in the files "<results_path>.metrics.json" and "<results_path>.metrics.prom". The files are replaced at once, so they can be read at any time.
+	 * @param results_path: the path of the results file
+	 * @param written_spectra: the number of spectra written in the results file
+	 */
+	public static void export(String results_path, int written_spectra) throws IOException
+	{
+		if (!EXPORT_METRICS)
+		{
+			return;
+		}
+		PipelineMetrics.written_spectra = written_spectra;
+		double elapsed = (System.nanoTime() - PipelineMetrics.start_time) / 1e9;
+		PipelineMetrics.write(results_path + ".metrics.json", PipelineMetrics.toJSON(elapsed));
+		PipelineMetrics.write(results_path + ".metrics.prom", PipelineMetrics.toPrometheus(elapsed));
+	}
+
+	private static String toJSON(double elapsed)
+	{
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append(String.format(Locale.ROOT, "  \"elapsed_seconds\": %.3f,\n", elapsed));
+		json.append("  \"aligned_spectra\": ").append(PipelineMetrics.aligned_spectra.sum()).append(",\n");
+		json.append("  \"written_spectra\": ").append(PipelineMetrics.written_spectra).append(",\n");
+		json.append(String.format(Locale.ROOT, "  \"spectra_per_second\": %.3f,\n", elapsed > 0 ? PipelineMetrics.aligned_spectra.sum() / elapsed : 0.0));
+		json.append("  \"preliminary_kernel\": \"").append(PipelineMetrics.kernelName()).append("\",\n");
+		json.append("  \"stages\": {\n");
+		Stage[] stages = Stage.values();
+		for (int stage_number = 0; stage_number < stages.length; ++stage_number)
+		{
+			Stage stage = stages[stage_number];
+			long count = stage.count.sum();
+			double total = stage.total_nanos.sum() / 1e9;
+			json.append("    \"").append(stage.label).append("\": {");
+			json.append("\"count\": ").append(count);
+			json.append(String.format(Locale.ROOT, ", \"total_seconds\": %.6f, \"mean_seconds\": %.9f, \"max_seconds\": %.6f", total, count > 0 ? total / count : 0.0, stage.max_nanos.get() / 1e9));
+			json.append(", \"histogram\": [");
+			for (int bucket_number = 0; bucket_number < stage.buckets.length; ++bucket_number)
+			{
+				json.append(bucket_number == 0 ? "" : ", ");
+				json.append("{\"le\": ").append(bucket_number < BUCKET_BOUNDS.length ? String.valueOf(BUCKET_BOUNDS[bucket_number]) : "\"+Inf\"");
+				json.append(", \"count\": ").append(stage.buckets[bucket_number].sum()).append("}");
+			}
+			json.append("]}").append(stage_number < stages.length - 1 ? ",\n" : "\n");
+		}
+		json.append("  },\n");
+		long filtered_proteins = PipelineMetrics.filtered_proteins.sum();
+		json.append("  \"tag_filter\": {\"filtered_spectra\": ").append(PipelineMetrics.filtered_spectra.sum());
+		json.append(", \"skipped_proteins\": ").append(PipelineMetrics.skipped_proteins.sum());
+		json.append(String.format(Locale.ROOT, ", \"skipped_fraction\": %.6f", filtered_proteins > 0 ? PipelineMetrics.skipped_proteins.sum() / (double)filtered_proteins : 0.0));
+		json.append(", \"histogram\": [");
+		for (int bucket_number = 0; bucket_number < SKIPPED_BOUNDS.length; ++bucket_number)
+		{
+			json.append(bucket_number == 0 ? "" : ", ");
+			json.append("{\"le\": ").append(SKIPPED_BOUNDS[bucket_number]).append(", \"count\": ").append(PipelineMetrics.skipped_buckets[bucket_number].sum()).append("}");
+		}
+		json.append("]},\n");
+		long checked_proteins = PipelineMetrics.bound_checked_proteins.sum();
+		json.append("  \"score_bound\": {\"checked_proteins\": ").append(checked_proteins);
+		json.append(", \"skipped_proteins\": ").append(PipelineMetrics.bound_skipped_proteins.sum());
+		json.append(String.format(Locale.ROOT, ", \"skip_rate\": %.6f},\n", checked_proteins > 0 ? PipelineMetrics.bound_skipped_proteins.sum() / (double)checked_proteins : 0.0));
+		long banded_treatments = PipelineMetrics.banded_treatments.sum();
+		json.append("  \"final_band\": {\"banded_treatments\": ").append(banded_treatments);
+		json.append(", \"fallbacks\": ").append(PipelineMetrics.band_fallbacks.sum());
+		json.append(String.format(Locale.ROOT, ", \"fallback_rate\": %.6f},\n", banded_treatments > 0 ? PipelineMetrics.band_fallbacks.sum() / (double)banded_treatments : 0.0));
+		long cache_lookups = PipelineMetrics.cache_lookups.sum();
+		json.append("  \"final_cache\": {\"lookups\": ").append(cache_lookups);
+		json.append(", \"hits\": ").append(PipelineMetrics.cache_hits.sum());
+		json.append(String.format(Locale.ROOT, ", \"hit_rate\": %.6f},\n", cache_lookups > 0 ? PipelineMetrics.cache_hits.sum() / (double)cache_lookups : 0.0));
+		json.append("  \"non_aligned_masses\": {\"interpretations\": ").append(PipelineMetrics.non_aligned_mass_interpretations.sum());
+		json.append(", \"candidates\": ").append(PipelineMetrics.non_aligned_mass_candidates.sum());
+		json.append(", \"parallel_interpretations\": ").append(PipelineMetrics.parallel_interpretations.sum());
+		json.append(", \"tasks\": ").append(PipelineMetrics.non_aligned_mass_tasks.sum()).append("}\n}\n");
+		return json.toString();
+	}
+
+	private static String toPrometheus(double elapsed)
+	{
+		StringBuilder prometheus = new StringBuilder();
+		prometheus.append("# HELP specpeptidoms_stage_duration_seconds Duration of each stage of the alignment pipeline.\n");
+		prometheus.append("# TYPE specpeptidoms_stage_duration_seconds histogram\n");
+		for (Stage stage : Stage.values())
+		{
+			// the buckets are cumulative in the Prometheus format
+			long cumulative = 0;
+			for (int bucket_number = 0; bucket_number < stage.buckets.length; ++bucket_number)
+			{
+				cumulative += stage.buckets[bucket_number].sum();
+				String bound = bucket_number < BUCKET_BOUNDS.length ? String.valueOf(BUCKET_BOUNDS[bucket_number]) : "+Inf";
+				prometheus.append("specpeptidoms_stage_duration_seconds_bucket{stage=\"").append(stage.label).append("\",le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+			}
+			prometheus.append(String.format(Locale.ROOT, "specpeptidoms_stage_duration_seconds_sum{stage=\"%s\"} %.9f\n", stage.label, stage.total_nanos.sum() / 1e9));
+			prometheus.append("specpeptidoms_stage_duration_seconds_count{stage=\"").append(stage.label).append("\"} ").append(stage.count.sum()).append('\n');
+		}
+		prometheus.append("# HELP specpeptidoms_stage_duration_max_seconds Longest duration of each stage.\n");
+		prometheus.append("# TYPE specpeptidoms_stage_duration_max_seconds gauge\n");
+		for (Stage stage : Stage.values())
+		{
+			prometheus.append(String.format(Locale.ROOT, "specpeptidoms_stage_duration_max_seconds{stage=\"%s\"} %.9f\n", stage.label, stage.max_nanos.get() / 1e9));
+		}
+		prometheus.append("# HELP specpeptidoms_aligned_spectra_total Number of spectra whose alignments are finished.\n");
+		prometheus.append("# TYPE specpeptidoms_aligned_spectra_total counter\n");
+		prometheus.append("specpeptidoms_aligned_spectra_total ").append(PipelineMetrics.aligned_spectra.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_written_spectra_total Number of spectra written in the results file.\n");
+		prometheus.append("# TYPE specpeptidoms_written_spectra_total counter\n");
+		prometheus.append("specpeptidoms_written_spectra_total ").append(PipelineMetrics.written_spectra).append('\n');
+		prometheus.append("# HELP specpeptidoms_elapsed_seconds Time elapsed since the beginning of the search.\n");
+		prometheus.append("# TYPE specpeptidoms_elapsed_seconds gauge\n");
+		prometheus.append(String.format(Locale.ROOT, "specpeptidoms_elapsed_seconds %.3f\n", elapsed));
+		prometheus.append("# HELP specpeptidoms_spectra_per_second Number of spectra aligned per second since the beginning of the search.\n");
+		prometheus.append("# TYPE specpeptidoms_spectra_per_second gauge\n");
+		prometheus.append(String.format(Locale.ROOT, "specpeptidoms_spectra_per_second %.3f\n", elapsed > 0 ? PipelineMetrics.aligned_spectra.sum() / elapsed : 0.0));
+		prometheus.append("# HELP specpeptidoms_preliminary_kernel_info Kernel of the preliminary treatment (parameter versionPreliminaryTreatment).\n");
+		prometheus.append("# TYPE specpeptidoms_preliminary_kernel_info gauge\n");
+		prometheus.append("specpeptidoms_preliminary_kernel_info{version=\"").append(Parameters.VERSION_PRELIMINARY_TREATMENT()).append("\",kernel=\"").append(PipelineMetrics.kernelName()).append("\"} 1\n");
+		prometheus.append("# HELP specpeptidoms_skipped_proteome_fraction Part of the proteome skipped by the preliminary treatment of each spectrum (filter on the sequence tags).\n");
+		prometheus.append("# TYPE specpeptidoms_skipped_proteome_fraction histogram\n");
+		long cumulative = 0;
+		for (int bucket_number = 0; bucket_number < SKIPPED_BOUNDS.length; ++bucket_number)
+		{
+			cumulative += PipelineMetrics.skipped_buckets[bucket_number].sum();
+			prometheus.append("specpeptidoms_skipped_proteome_fraction_bucket{le=\"").append(SKIPPED_BOUNDS[bucket_number]).append("\"} ").append(cumulative).append('\n');
+		}
+		prometheus.append("specpeptidoms_skipped_proteome_fraction_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+		long filtered_proteins = PipelineMetrics.filtered_proteins.sum();
+		prometheus.append(String.format(Locale.ROOT, "specpeptidoms_skipped_proteome_fraction_sum %.6f\n", filtered_proteins > 0 ? PipelineMetrics.skipped_proteins.sum() * PipelineMetrics.filtered_spectra.sum() / (double)filtered_proteins : 0.0));
+		prometheus.append("specpeptidoms_skipped_proteome_fraction_count ").append(PipelineMetrics.filtered_spectra.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_skipped_proteins_total Number of alignments of a spectrum on a protein skipped by the filter on the sequence tags.\n");
+		prometheus.append("# TYPE specpeptidoms_skipped_proteins_total counter\n");
+		prometheus.append("specpeptidoms_skipped_proteins_total ").append(PipelineMetrics.skipped_proteins.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_bound_checked_proteins_total Number of alignments of a spectrum on a protein whose upper bound of score has been checked.\n");
+		prometheus.append("# TYPE specpeptidoms_bound_checked_proteins_total counter\n");
+		prometheus.append("specpeptidoms_bound_checked_proteins_total ").append(PipelineMetrics.bound_checked_proteins.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_bound_skipped_proteins_total Number of alignments of a spectrum on a protein skipped as their upper bound of score can't reach the heap of the locations.\n");
+		prometheus.append("# TYPE specpeptidoms_bound_skipped_proteins_total counter\n");
+		prometheus.append("specpeptidoms_bound_skipped_proteins_total ").append(PipelineMetrics.bound_skipped_proteins.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_banded_final_treatments_total Number of final treatments computed on a band around the path of a previous alignment (parameter finalTreatmentBand).\n");
+		prometheus.append("# TYPE specpeptidoms_banded_final_treatments_total counter\n");
+		prometheus.append("specpeptidoms_banded_final_treatments_total ").append(PipelineMetrics.banded_treatments.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_band_fallbacks_total Number of banded final treatments computed again on the full matrix as their best path touched the edge of the band.\n");
+		prometheus.append("# TYPE specpeptidoms_band_fallbacks_total counter\n");
+		prometheus.append("specpeptidoms_band_fallbacks_total ").append(PipelineMetrics.band_fallbacks.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_final_cache_lookups_total Number of final treatments looked up in the cache of their thread (parameter finalTreatmentCacheSize).\n");
+		prometheus.append("# TYPE specpeptidoms_final_cache_lookups_total counter\n");
+		prometheus.append("specpeptidoms_final_cache_lookups_total ").append(PipelineMetrics.cache_lookups.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_final_cache_hits_total Number of final treatments whose result was found in the cache of their thread.\n");
+		prometheus.append("# TYPE specpeptidoms_final_cache_hits_total counter\n");
+		prometheus.append("specpeptidoms_final_cache_hits_total ").append(PipelineMetrics.cache_hits.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_non_aligned_mass_candidates_total Number of candidate non-aligned masses evaluated.\n");
+		prometheus.append("# TYPE specpeptidoms_non_aligned_mass_candidates_total counter\n");
+		prometheus.append("specpeptidoms_non_aligned_mass_candidates_total ").append(PipelineMetrics.non_aligned_mass_candidates.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_parallel_interpretations_total Number of interpretations whose candidate non-aligned masses were evaluated with the help of mass tasks (parameter nbNonAlignedMassTasks).\n");
+		prometheus.append("# TYPE specpeptidoms_parallel_interpretations_total counter\n");
+		prometheus.append("specpeptidoms_parallel_interpretations_total ").append(PipelineMetrics.parallel_interpretations.sum()).append('\n');
+		prometheus.append("# HELP specpeptidoms_non_aligned_mass_tasks_total Number of mass tasks submitted to the fork-join pool.\n");
+		prometheus.append("# TYPE specpeptidoms_non_aligned_mass_tasks_total counter\n");
+		prometheus.append("specpeptidoms_non_aligned_mass_tasks_total ").append(PipelineMetrics.non_aligned_mass_tasks.sum()).append('\n');
+		return prometheus.toString();
+	}
+
+	/*
+	 * The name of the kernel of the preliminary treatment, the version 3 aligns tiles of spectra and has no kernel
+	 */
+	private static String kernelName()
+	{
+		return Parameters.VERSION_PRELIMINARY_TREATMENT() == 3 ? "tiles" : PreliminaryKernels.getName(Parameters.VERSION_PRELIMINARY_TREATMENT());
+	}
+	
+	/*
+	 * The file is written in a temporary file, then renamed
+	 */
+	private static void write(String path, String content) throws IOException
+	{
+		File temporary = new File(path + ".tmp");
+		PrintWriter output = new PrintWriter(new FileWriter(temporary));
+		output.write(content);
+		output.close();
+		if (output.checkError())
+		{
+			throw new IOException("The program stopped due to an IOException during the export of the metrics.");
+		}
+		Files.move(temporary.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Clear the metrics before a new search
+	 */
+	public static void reset()
+	{
+		EXPORT_METRICS = Parameters.EXPORT_METRICS();
+		for (Stage stage : Stage.values())
+		{
+			stage.reset();
+		}
+		aligned_spectra.reset();
+		filtered_spectra.reset();
+		skipped_proteins.reset();
+		filtered_proteins.reset();
+		bound_checked_proteins.reset();
+		bound_skipped_proteins.reset();
+		banded_treatments.reset();
+		band_fallbacks.reset();
+		cache_lookups.reset();
+		cache_hits.reset();
+		non_aligned_mass_interpretations.reset();
+		non_aligned_mass_candidates.reset();
+		parallel_interpretations.reset();
+		non_aligned_mass_tasks.reset();
+		for (LongAdder bucket : skipped_buckets)
+		{
+			bucket.reset();
+		}
+		written_spectra = 0;
+		start_time = System.nanoTime();
+	}
+}
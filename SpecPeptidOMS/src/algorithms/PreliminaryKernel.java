@@ -0,0 +1,18 @@
+package algorithms;
+
+/**
+ * A kernel performing the preliminary treatment of the current spectrum of a SpecGlobThread : the first alignment of the spectrum and the proteins
+ * of the thread, which fills its interpretations saver with the best locations.
+ * The kernels are registered in PreliminaryKernels under a version number, the one of the parameter versionPreliminaryTreatment is selected once per search (see SpecGlobThread.reset),
+ * so the call site only sees one implementation.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+@FunctionalInterface
+public interface PreliminaryKernel {
+
+	/**
+	 * Align the current spectrum of the thread on its proteins (from its first to its last protein)
+	 * @param thread: the SpecGlobThread whose current spectrum is aligned
+	 */
+	void align(SpecGlobThread thread);
+}
@@ -0,0 +1,55 @@
+package algorithms;
+
+import java.util.TreeMap;
+
+/**
+ * The registry of the kernels of the preliminary treatment (see PreliminaryKernel). The versions 0, 1, 2 and 4 are registered by SpecGlobThread,
+ * the version 3 aligns tiles of spectra and is not a kernel (see SpecGlobThread.preliminaryTreatmentv3).
+ * A new kernel is added with register under a free version number and is then selected by the parameter versionPreliminaryTreatment,
+ * so several kernels can be compared on the same data with the metrics of the preliminary treatment (parameter exportMetrics).
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class PreliminaryKernels {
+
+	private static final TreeMap<Integer, PreliminaryKernel> kernels = new TreeMap<Integer, PreliminaryKernel>();
+	private static final TreeMap<Integer, String> names = new TreeMap<Integer, String>();
+
+	/**
+	 * Register a kernel
+	 * @param version: the value of versionPreliminaryTreatment selecting it
+	 * @param name: its name, exported with the metrics
+	 * @param kernel: the kernel
+	 */
+	public static synchronized void register(int version, String name, PreliminaryKernel kernel)
+	{
+		if (PreliminaryKernels.kernels.containsKey(version))
+		{
+			throw new IllegalArgumentException("A preliminary kernel is already registered for the version " + version + ".");
+		}
+		PreliminaryKernels.kernels.put(version, kernel);
+		PreliminaryKernels.names.put(version, name);
+	}
+
+	/**
+	 * Getter of a kernel
+	 * @param version: the version of the kernel
+	 * @return the kernel, null if no kernel is registered for this version
+	 */
+	public static synchronized PreliminaryKernel get(int version) {return PreliminaryKernels.kernels.get(version);}
+
+	/**
+	 * Getter of the name of a kernel
+	 * @param version: the version of the kernel
+	 * @return its name, "none" if no kernel is registered for this version
+	 */
+	public static synchronized String getName(int version) {return PreliminaryKernels.names.getOrDefault(version, "none");}
+
+	/**
+	 * Getter of the registered versions
+	 * @return the versions, in increasing order
+	 */
+	public static synchronized int[] getVersions()
+	{
+		return PreliminaryKernels.kernels.keySet().stream().mapToInt(Integer::intValue).toArray();
+	}
+}
@@ -0,0 +1,135 @@
+package algorithms;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import GUI.SpecProtGUI;
+import datastructures.SpectrumResult;
+import main.Main;
+
+/**
+ * This class is the last stage of the alignment pipeline : it writes the results of the treated spectra in the results file.
+ * The SpecGlobThreads give it the results through a bounded queue, already sorted in the order of the spectra, and go on with the next spectrum.
+ * They only wait if the queue is full. The formatting of the lines and the writing are thus overlapped with the alignments.
+ * The results file is opened once and stays opened until all the spectra are written. It is flushed every REAL_TIME_SAVE spectra, and the checkpoint file and the metrics (see PipelineMetrics) are then updated.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class ResultsWriter {
+
+	private final ArrayBlockingQueue<SpectrumResult> queue;
+	private final String path;
+	private final int flush_step;
+	private final Checkpoint checkpoint;
+	private volatile int number_of_written_spectra;
+	private long start_time;
+
+	/**
+	 * @param path: the path of the results file (its header must already be written)
+	 * @param capacity: the number of results that can wait in the queue before the SpecGlobThreads are blocked
+	 * @param flush_step: the number of spectra written between two flushes of the results file
+	 * @param checkpoint: the checkpoint file, updated after each flush
+	 */
+	public ResultsWriter(String path, int capacity, int flush_step, Checkpoint checkpoint)
+	{
+		this.queue = new ArrayBlockingQueue<SpectrumResult>(capacity);
+		this.path = path;
+		this.flush_step = flush_step;
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Add the result of a spectrum at the end of the queue. The calling thread waits only if the queue is full.
+	 * @param result: the result of the next spectrum to be written
+	 */
+	public void put(SpectrumResult result) throws InterruptedException
+	{
+		this.queue.put(result);
+	}
+
+	/**
+	 * Getter of the number of spectra written in the results file, updated after each flush
+	 * @return the number of spectra written
+	 */
+	public int getNumberOfWrittenSpectra() {return this.number_of_written_spectra;}
+
+	/**
+	 * Write the results of the spectra in the results file as soon as they are in the queue, until SpectrumResult.END_OF_RESULTS is received
+	 * (the number of spectra is not known in advance when the spectra are read during the alignment).
+	 * @param first_spectrum: the number of the first spectrum to write (0 unless an interrupted search is resumed)
+	 */
+	public void write(int first_spectrum) throws IOException, InterruptedException
+	{
+		this.start_time = System.currentTimeMillis();
+		this.number_of_written_spectra = first_spectrum;
+		PrintWriter output;
+		try
+		{
+			output = new PrintWriter(new BufferedWriter(new FileWriter(this.path, true)));
+		}
+		catch (IOException e)
+		{
+			throw new IOException("The program stopped due to an IOException during the opening of the results file.");
+		}
+		try
+		{
+			int written = first_spectrum;
+			SpectrumResult result;
+			while ((result = this.queue.take()) != SpectrumResult.END_OF_RESULTS)
+			{
+				long start = PipelineMetrics.start();
+				result.save(output);
+				PipelineMetrics.record(PipelineMetrics.Stage.RESULTS_WRITING, start);
+				++written;
+				if (written % this.flush_step == 0)
+				{
+					this.flush(output, written);
+				}
+			}
+			if (written > first_spectrum && written % this.flush_step != 0)
+			{
+				this.flush(output, written);
+			}
+		}
+		finally
+		{
+			output.close();
+			this.checkpoint.close();
+		}
+	}
+
+	private void flush(PrintWriter output, int written) throws IOException
+	{
+		output.flush();
+		if (output.checkError())
+		{
+			throw new IOException("The program stopped due to an IOException during a results backup. The results file may be incomplete.");
+		}
+		this.checkpoint.record(written - 1);
+		this.number_of_written_spectra = written;
+		this.exportMetrics();
+		this.printProgress(written);
+	}
+
+	/**
+	 * Export the metrics of the search next to the results file (see PipelineMetrics)
+	 */
+	public void exportMetrics() throws IOException
+	{
+		PipelineMetrics.export(this.path, this.number_of_written_spectra);
+	}
+
+	private void printProgress(int written)
+	{
+		System.out.println("save..." + written);
+		if (!Main.commandMode)
+			SpecProtGUI.LOG.append(written + " spectra processed\n");
+
+		long end_time = System.currentTimeMillis();
+		double time = ((double) (end_time - this.start_time))/1000;
+		System.out.println("** " + time + "s");
+		this.start_time = end_time;
+	}
+}
@@ -0,0 +1,302 @@
+package algorithms;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import constantes.Parameters;
+import exceptions.ThreadException;
+import loaders.Proteins;
+import loaders.Spectra;
+import main.Main;
+
+/**
+ * This class keeps SpecPeptidOMS resident between several searches (option "--daemon <port>"), so a job only pays for the loading of its spectra.
+ * The proteins stay loaded as long as the proteins file doesn't change, and the SpecGlobThreads are kept with their structures while they are large enough (see SpecGlobThread.fits).
+ * The jobs are received on a local port (loopback address only) and are treated one after another, in the order of their submission.
+ * The protocol is made of text lines :<br/>
+ *  - "SUBMIT", followed by lines in the format of the parameters file and by a line "END" : the job is queued and the answer is "JOB <id>".
+ *  These parameters replace those of the parameters file of the daemon for this job only (spectraFolderPath and spectraFile at least). If the results file is not given, it is deduced from the spectra file.<br/>
+ *  The results are written in the results folder of the parameters file of the daemon or in one of its subfolders, any other results path fails the job :
+ *  the port is open to all the local users, who must not be able to write elsewhere with the rights of the daemon.<br/>
+ *  - "STATUS" or "STATUS <id>" : a line "<id> <state> <written spectra>/<spectra> <results file>" for each job (or for the given one), followed by a line "END".
+ *  The state is QUEUED, RUNNING, DONE or FAILED, followed in this last case by the error message. Only the last MAX_FINISHED_JOBS finished jobs are kept.<br/>
+ *  - "SHUTDOWN" : the daemon stops once the jobs already submitted are treated, the answer is "OK".<br/>
+ *  - "QUIT" : the connection is closed.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class SearchDaemon {
+
+	private static final String END = "END";
+	private static final int MAX_FINISHED_JOBS = 100; // the number of finished jobs whose state is kept for STATUS
+	private static final Job SHUTDOWN_JOB = new Job(0, null); // added at the end of the queue to stop the daemon
+
+	private static final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+	private static final ConcurrentSkipListMap<Integer, Job> jobs = new ConcurrentSkipListMap<Integer, Job>();
+	private static final AtomicInteger next_job_id = new AtomicInteger(1);
+	private static volatile boolean stopping = false;
+	private static String loaded_proteins = null; // the path, the length and the date of the proteins file loaded
+
+	/*
+	 * A job submitted to the daemon. Its state is read by the connections while it is treated.
+	 */
+	private static final class Job
+	{
+		private final int id;
+		private final String parameters;
+		private volatile String state = "QUEUED";
+		private volatile String results_path = "";
+		private volatile int number_of_spectra = -1;
+		private volatile int number_of_written_spectra = 0;
+
+		private Job(int id, String parameters)
+		{
+			this.id = id;
+			this.parameters = parameters;
+		}
+
+		private String status()
+		{
+			// the number of spectra written is read in the SpecGlobExecutor once the spectra of the job are loaded (it is reset before)
+			int written = this.state.equals("RUNNING") && this.number_of_spectra != -1 ? SpecGlobExecutor.getNumberOfWrittenSpectra() : this.number_of_written_spectra;
+			return this.id + " " + this.state + " " + written + "/" + (this.number_of_spectra == -1 ? "?" : this.number_of_spectra) + " " + this.results_path;
+		}
+	}
+
+	/**
+	 * Load the proteins and treat the jobs received on the port until a SHUTDOWN command. The parameters file must already be loaded.
+	 * @param port: the local port on which the jobs are received
+	 */
+	public static void serve(int port) throws IOException, InterruptedException
+	{
+		ServerSocket server;
+		try
+		{
+			server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		}
+		catch (IOException e)
+		{
+			throw new IOException("The daemon can't listen on the port " + port + ".");
+		}
+		try
+		{
+			Proteins.load();
+			SearchDaemon.loaded_proteins = SearchDaemon.proteinsIdentity();
+			Thread listener = new Thread(() -> SearchDaemon.listen(server));
+			listener.setDaemon(true);
+			listener.start();
+			System.out.println("The daemon is waiting for jobs on the port " + port + ".");
+			Job job;
+			while ((job = SearchDaemon.queue.take()) != SHUTDOWN_JOB)
+			{
+				SearchDaemon.execute(job);
+			}
+		}
+		finally
+		{
+			server.close();
+		}
+		System.out.println("The daemon is stopped.");
+	}
+
+	/*
+	 * Treat a job : the parameters file is loaded again and completed by the parameters of the job. The proteins are loaded again only if the proteins file changed.
+	 */
+	private static void execute(Job job)
+	{
+		double x = System.currentTimeMillis();
+		job.state = "RUNNING";
+		try
+		{
+			Parameters.load();
+			File results_folder = new File(Parameters.RESULTS_FOLDER_PATH());
+			Parameters.override(job.parameters);
+			job.results_path = Parameters.RESULTS_FOLDER_PATH() + "/" + Parameters.RESULTS_FILE();
+			SearchDaemon.checkResultsPath(results_folder);
+			PipelineMetrics.reset();
+			String proteins = SearchDaemon.proteinsIdentity();
+			if (!proteins.equals(SearchDaemon.loaded_proteins))
+			{
+				SearchDaemon.loaded_proteins = null;
+				Proteins.reset();
+				long start = PipelineMetrics.start();
+				Proteins.load();
+				PipelineMetrics.record(PipelineMetrics.Stage.PROTEINS_LOADING, start);
+				SearchDaemon.loaded_proteins = proteins;
+			}
+			// the chunks of the long proteins, the index of the tags, the masks of the windows and the prefix tree depend on the parameters of the job
+			Proteins.updateChunks();
+			Proteins.updateTagIndex();
+			Proteins.updateWindowsMasks();
+			Proteins.updateTrie();
+			Main.resetParameters();
+			Proteins.updatePrefixMasses(); // the masses of the amino acids are refreshed by resetParameters
+			Spectra.reset();
+			Spectra.load();
+			job.number_of_spectra = Spectra.getNumberOfSpectra();
+			if (job.number_of_spectra > 0)
+			{
+				Proteins.GenerateCorrespondanceFile();
+				SpecGlobExecutor.initialise(Parameters.NB_THREADS());
+				SpecGlobExecutor.run();
+			}
+			job.number_of_spectra = Spectra.getNumberOfSpectra(); // the spectra may be read during the alignment (nbSpectraPerChunk)
+			job.number_of_written_spectra = job.number_of_spectra;
+			job.state = "DONE";
+			System.out.println("Job " + job.id + " done in " + (System.currentTimeMillis() - x)/1000.0 + " secondes. ");
+		}
+		catch (ThreadException e)
+		{
+			e.printRealExcpetion();
+			SearchDaemon.fail(job, e);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			SearchDaemon.fail(job, e);
+		}
+		// the jobs are treated in the order of their identifiers, so the oldest finished jobs are the first ones
+		SearchDaemon.jobs.headMap(job.id - MAX_FINISHED_JOBS, true).clear();
+	}
+
+	/*
+	 * Check that the results of the job (and the files written beside them : correspondance file, checkpoint, metrics) are in the results folder of the daemon
+	 */
+	private static void checkResultsPath(File results_folder) throws IOException
+	{
+		String folder = results_folder.getCanonicalPath() + File.separator;
+		String job_folder = new File(Parameters.RESULTS_FOLDER_PATH()).getCanonicalPath() + File.separator;
+		String job_results = new File(Parameters.RESULTS_FOLDER_PATH() + "/" + Parameters.RESULTS_FILE()).getCanonicalPath();
+		if (!job_folder.startsWith(folder) || !job_results.startsWith(folder))
+		{
+			throw new IllegalArgumentException("The results of a job must be written in the results folder of the daemon \"" + results_folder.getPath() + "\".");
+		}
+	}
+
+	private static void fail(Job job, Exception e)
+	{
+		job.number_of_written_spectra = job.number_of_spectra == -1 ? 0 : SpecGlobExecutor.getNumberOfWrittenSpectra();
+		job.state = "FAILED " + (e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage().replace('\n', ' '));
+	}
+
+	private static String proteinsIdentity()
+	{
+		File file = new File(Parameters.PROTEINS_FOLDER_PATH() + "/" + Parameters.PROTEINS_FILE());
+		return file.getAbsolutePath() + ";" + file.length() + ";" + file.lastModified();
+	}
+
+	/*
+	 * Accept the connections until the server socket is closed, each connection is handled by its own thread
+	 */
+	private static void listen(ServerSocket server)
+	{
+		while (!server.isClosed())
+		{
+			try
+			{
+				Socket socket = server.accept();
+				Thread connection = new Thread(() -> SearchDaemon.talk(socket));
+				connection.setDaemon(true);
+				connection.start();
+			}
+			catch (IOException e)
+			{
+				// the server socket is closed when the daemon stops
+			}
+		}
+	}
+
+	private static void talk(Socket socket)
+	{
+		try
+		{
+			try
+			{
+				BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				PrintWriter output = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+				String line;
+				while ((line = input.readLine()) != null)
+				{
+					String[] words = line.trim().split("\\s+");
+					if (words[0].equals("SUBMIT"))
+					{
+						StringBuilder parameters = new StringBuilder();
+						while ((line = input.readLine()) != null && !line.trim().equals(END))
+						{
+							parameters.append(line).append('\n');
+						}
+						output.println(SearchDaemon.submit(parameters.toString()));
+					}
+					else if (words[0].equals("STATUS"))
+					{
+						if (words.length > 1)
+						{
+							Job job = words[1].matches("\\d+") ? SearchDaemon.jobs.get(Integer.valueOf(words[1])) : null;
+							output.println(job == null ? "ERROR unknown job " + words[1] : job.status());
+						}
+						else
+						{
+							for (Job job : SearchDaemon.jobs.values())
+							{
+								output.println(job.status());
+							}
+						}
+						output.println(END);
+					}
+					else if (words[0].equals("SHUTDOWN"))
+					{
+						// the answer is sent first as the process may stop as soon as the queue is empty
+						output.println("OK");
+						SearchDaemon.shutdown();
+					}
+					else if (words[0].equals("QUIT"))
+					{
+						return;
+					}
+					else if (!words[0].isEmpty())
+					{
+						output.println("ERROR unknown command " + words[0]);
+					}
+				}
+			}
+			finally
+			{
+				socket.close();
+			}
+		}
+		catch (IOException e)
+		{
+			// the connection has been closed by the client
+		}
+	}
+
+	private static synchronized String submit(String parameters)
+	{
+		if (SearchDaemon.stopping)
+		{
+			return "ERROR the daemon is stopping";
+		}
+		Job job = new Job(SearchDaemon.next_job_id.getAndIncrement(), parameters);
+		SearchDaemon.jobs.put(job.id, job);
+		SearchDaemon.queue.add(job);
+		return "JOB " + job.id;
+	}
+
+	private static synchronized void shutdown()
+	{
+		if (!SearchDaemon.stopping)
+		{
+			SearchDaemon.stopping = true;
+			SearchDaemon.queue.add(SHUTDOWN_JOB);
+		}
+	}
+}
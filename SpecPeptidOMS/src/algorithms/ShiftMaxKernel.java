@@ -0,0 +1,93 @@
+package algorithms;
+
+import constantes.Parameters;
+
+/**
+ * This class computes the best position for a shift in the preliminary treatment (versions 0, 1, 3 and 4) : among the columns 'first_column' to 'last_column',
+ * the column whose last key cell gives the best score for a shift on the current row, i.e. the greatest interest_scores[j] + not_found*(previous_row - interest_rows[j]).
+ * The scan is performed with the Vector API (see ShiftMaxVectorKernel) if the parameter vectorKernel is true and if this kernel is available, otherwise with the scalar loop.
+ * The Vector API kernel is only compiled with the Maven profile "vector" (mvn -P vector package), as it needs the incubator module jdk.incubator.vector,
+ * and it is only loaded if this module is present at run time (JVM option "--add-modules jdk.incubator.vector"). Both kernels return the same column : the first one reaching the best score.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class ShiftMaxKernel {
+
+	/*
+	 * The scan of a kernel, implemented by ShiftMaxVectorKernel
+	 */
+	interface Scan
+	{
+		int scan(int[] interest_rows, int[] interest_scores, int first_column, int last_column, int previous_row, int not_found, int best_score);
+	}
+
+	private static final Scan VECTOR_SCAN = ShiftMaxKernel.loadVectorScan(); // null if the Vector API kernel is not available
+	private static boolean VECTORIZED = VECTOR_SCAN != null && Parameters.VECTOR_KERNEL();
+	private static final int MIN_VECTOR_LENGTH = 8; // under this number of columns, the scalar loop is faster
+
+	/**
+	 * Getter of the kernel used
+	 * @return true if the scans are performed with the Vector API
+	 */
+	public static boolean isVectorized() {return ShiftMaxKernel.VECTORIZED;}
+
+	/**
+	 * Search the column with the best score for a shift among the columns 'first_column' to 'last_column' (included).
+	 * @param interest_rows: the row of the last key cell of each column
+	 * @param interest_scores: the score of the last key cell of each column
+	 * @param first_column: the first column to scan
+	 * @param last_column: the last column to scan
+	 * @param previous_row: the row above the current row
+	 * @param not_found: the score of a missing amino acid
+	 * @param best_score: the best score for a shift found in the previous columns
+	 * @return the first column whose score is strictly greater than best_score and than the scores of the other columns, -1 if there is none
+	 */
+	public static int scan(int[] interest_rows, int[] interest_scores, int first_column, int last_column, int previous_row, int not_found, int best_score)
+	{
+		if (ShiftMaxKernel.VECTORIZED && last_column - first_column + 1 >= MIN_VECTOR_LENGTH)
+		{
+			return ShiftMaxKernel.VECTOR_SCAN.scan(interest_rows, interest_scores, first_column, last_column, previous_row, not_found, best_score);
+		}
+		return ShiftMaxKernel.scalarScan(interest_rows, interest_scores, first_column, last_column, previous_row, not_found, best_score);
+	}
+
+	static int scalarScan(int[] interest_rows, int[] interest_scores, int first_column, int last_column, int previous_row, int not_found, int best_score)
+	{
+		int best_column = -1;
+		int current_score;
+		for (int j = first_column; j <= last_column; ++j)
+		{
+			current_score = interest_scores[j] + not_found*(previous_row - interest_rows[j]);
+			if (current_score > best_score)
+			{
+				best_score = current_score;
+				best_column = j;
+			}
+		}
+		return best_column;
+	}
+
+	/*
+	 * Load the Vector API kernel by reflection, so this class doesn't depend on it when it is not compiled
+	 */
+	private static Scan loadVectorScan()
+	{
+		if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+		{
+			return null;
+		}
+		try
+		{
+			return (Scan) Class.forName("algorithms.ShiftMaxVectorKernel").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			// compiled without the profile "vector"
+			return null;
+		}
+	}
+
+	public static void reset()
+	{
+		VECTORIZED = VECTOR_SCAN != null && Parameters.VECTOR_KERNEL();
+	}
+}
@@ -0,0 +1,46 @@
+package algorithms;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Vector API implementation of ShiftMaxKernel.scan. This class is only compiled with the Maven profile "vector" and only loaded by ShiftMaxKernel if the module jdk.incubator.vector is present.
+ * The rows and the scores of the key cells of as many columns as there are lanes are loaded at once (they are stored in separate arrays),
+ * the scores for a shift are computed on all the lanes and the best of them is compared with the best score found so far.
+ * Gathers are not used as they are slow (and not reliable with the C2 compiler of some JDK 17 builds).
+ * The integer operations are the same as in the scalar loop, so the results are identical.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+final class ShiftMaxVectorKernel implements ShiftMaxKernel.Scan {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	public int scan(int[] interest_rows, int[] interest_scores, int first_column, int last_column, int previous_row, int not_found, int best_score)
+	{
+		int best_column = -1;
+		int j = first_column;
+		for (int last_block = last_column + 1 - SPECIES.length(); j <= last_block; j += SPECIES.length())
+		{
+			IntVector rows = IntVector.fromArray(SPECIES, interest_rows, j);
+			IntVector scores = IntVector.fromArray(SPECIES, interest_scores, j);
+			IntVector current_scores = rows.neg().add(previous_row).mul(not_found).add(scores);
+			int block_best_score = current_scores.reduceLanes(VectorOperators.MAX);
+			if (block_best_score > best_score)
+			{
+				// the first column of the block reaching the best score, as in the scalar loop
+				best_score = block_best_score;
+				best_column = j + current_scores.compare(VectorOperators.EQ, block_best_score).firstTrue();
+			}
+		}
+		if (j <= last_column)
+		{
+			int tail_column = ShiftMaxKernel.scalarScan(interest_rows, interest_scores, j, last_column, previous_row, not_found, best_score);
+			if (tail_column != -1)
+			{
+				best_column = tail_column;
+			}
+		}
+		return best_column;
+	}
+}
@@ -3,13 +3,19 @@ package algorithms;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import GUI.SpecProtGUI;
-import bioobjects.NativeSpectrum;
-import bioobjects.TransformedSpectrum;
 import constantes.Parameters;
 import datastructures.InterpretationsSaver;
+import datastructures.SpectrumResult;
 import exceptions.ThreadException;
 import loaders.Spectra;
 import main.Main;
@@ -23,18 +29,27 @@ public final class SpecGlobExecutor {
 	private static int REAL_TIME_SAVE = Parameters.REAL_TIME_SAVE();
 	
 	private static Thread[] threads;
+	private static SpecGlobThread[] spec_glob_threads; // kept from a search to the next one performed in the same process, if their structures can be reused
+	private static ExecutorService shards_pool;
+	private static ForkJoinPool masses_pool; // evaluates the candidate non-aligned masses with the SpecGlobThreads (see SpecGlobThread.alignNonAlignedMasses)
 	private static Thread main_thread;
 	private static Exception thread_exception;
 	
-	private static int next_spectrum = 0;
-	private static int process_step = 1;
-	private static int number_of_waiting_threads = 0;
-	private static long startTime;
-	private static long endTime;
+	private static int next_spectrum_to_admit = 0;
+	private static boolean end_of_spectra = false; // true once all the spectra are admitted
+	private static boolean admitting = false; // true while a SpecGlobThread admits spectra in the window (see admitSpectra)
+	private static int number_of_spectra = -1; // known once all the spectra are admitted (the spectra may be read during the alignment, see Spectra.admit)
+	private static boolean end_published = false;
+	private static PriorityQueue<Integer> ready_spectra; // the spectra in the window of REAL_TIME_SAVE spectra not yet given to a SpecGlobThread, the most expensive first
+	private static int[] estimated_costs; // the estimated cost of the spectrum 'id' is at the position id % REAL_TIME_SAVE
+	private static volatile int next_spectrum_to_publish = 0;
+	private static volatile int number_of_waiting_threads = 0;
+	private static final AtomicInteger number_of_busy_cores = new AtomicInteger(); // the SpecGlobThreads not waiting for a spectrum and the running mass tasks (see reserveSpareCores)
 	
-	private static NativeSpectrum[] natives_spectra;
-	private static TransformedSpectrum[] transformed_spectra;
 	private static InterpretationsSaver[] interpretations_saver;
+	private static SpectrumResult[] completed_spectra;
+	private static ResultsWriter results_writer;
+	private static int first_spectrum;
 	
 	/**
 	 * Initialize as many SpecGlobThread as the parameter 
@@ -42,42 +57,134 @@ public final class SpecGlobExecutor {
 	 */
 	public static void initialise(int nbThread) throws IOException
 	{
+		SpecGlobThread.checkPreliminaryTreatment();
 		main_thread = Thread.currentThread();
 		
+		String results_path = Parameters.RESULTS_FOLDER_PATH() + "/" + Parameters.RESULTS_FILE();
+		Checkpoint checkpoint = new Checkpoint(results_path);
+		if (Main.commandMode && Main.resumeMode)
+		{
+			/*
+			 * The results of the completed spectra are kept, the search goes on from the first spectrum not completed
+			 */
+			SpecGlobExecutor.first_spectrum = checkpoint.resume();
+			System.out.println(SpecGlobExecutor.first_spectrum + " spectra already treated, the search is resumed.");
+		}
+		else
+		{
+			/*
+			 * An empty results file is created here
+			 */
+			FileWriter writer;
+			try
+			{
+				writer = new FileWriter(results_path, false);
+			}
+			catch (IOException e)
+			{
+				throw new IOException("The program stopped due to an IOException during the creation of the results file.");
+			}
+			BufferedWriter buffer = new BufferedWriter(writer);
+			PrintWriter output = new PrintWriter(buffer);
+			output.write("spectrum title;spectrum scan;spectrum id;peptide;protein positions;alignment;score;number of shared peaks;post-processed non-aligned mass;post-processed peptide;post-processed protein positions;post-processed alignment;post-processed score;post-processed number of common peaks\n");
+			output.close();
+			SpecGlobExecutor.first_spectrum = 0;
+			checkpoint.start();
+		}
+		SpecGlobExecutor.next_spectrum_to_admit = SpecGlobExecutor.first_spectrum;
+		SpecGlobExecutor.next_spectrum_to_publish = SpecGlobExecutor.first_spectrum;
+		SpecGlobExecutor.end_of_spectra = false;
+		SpecGlobExecutor.admitting = false;
+		SpecGlobExecutor.number_of_spectra = -1;
+		SpecGlobExecutor.end_published = false;
+		
 		/*
-		 * An empty results file is created here
+		 * If the proteins are split in several parts, each SpecGlobThread needs NB_PROTEIN_SHARDS - 1 other threads to align its current spectrum on all the parts at the same time.
 		 */
-		FileWriter writer;
-		try
+		if (Parameters.NB_PROTEIN_SHARDS() > 1)
 		{
-			writer = new FileWriter(Parameters.RESULTS_FOLDER_PATH() + "/" + Parameters.RESULTS_FILE(), false);
+			SpecGlobExecutor.shards_pool = Executors.newFixedThreadPool(nbThread * (Parameters.NB_PROTEIN_SHARDS() - 1), runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
 		}
-		catch (IOException e)
+		
+		/*
+		 * The candidate non-aligned masses of an interpretation can be evaluated by NB_NON_ALIGNED_MASS_TASKS tasks, on the cores not used by the SpecGlobThreads.
+		 * Each SpecGlobThread submits at most NB_NON_ALIGNED_MASS_TASKS - 1 tasks, and the running tasks never exceed the free cores (the thread submitting them being busy).
+		 */
+		SpecGlobExecutor.number_of_busy_cores.set(nbThread);
+		if (Parameters.NB_NON_ALIGNED_MASS_TASKS() > 1)
 		{
-			throw new IOException("The program stopped due to an IOException during the creation of the results file.");
+			SpecGlobExecutor.masses_pool = new ForkJoinPool(Math.max(Math.min(nbThread * (Parameters.NB_NON_ALIGNED_MASS_TASKS() - 1), Runtime.getRuntime().availableProcessors() - 1), 1));
 		}
-		BufferedWriter buffer = new BufferedWriter(writer);
-		PrintWriter output = new PrintWriter(buffer);
-		output.write("spectrum title;spectrum scan;spectrum id;peptide;protein positions;alignment;score;number of shared peaks;post-processed non-aligned mass;post-processed peptide;post-processed protein positions;post-processed alignment;post-processed score;post-processed number of common peaks\n");
-		output.close();
 		
+		if (!SpecGlobExecutor.canReuseThreads(nbThread))
+		{
+			SpecGlobExecutor.spec_glob_threads = null; // the previous structures can be collected before the new ones are created
+			SpecGlobThread[] spec_glob_threads = new SpecGlobThread[nbThread];
+			for (int threadNumber = 0; threadNumber < nbThread; ++threadNumber)
+			{
+				spec_glob_threads[threadNumber] = new SpecGlobThread(threadNumber);
+			}
+			SpecGlobExecutor.spec_glob_threads = spec_glob_threads;
+		}
 		SpecGlobExecutor.threads = new Thread[nbThread];
 		for (int threadNumber = 0; threadNumber < nbThread; ++threadNumber)
 		{
-			SpecGlobExecutor.threads[threadNumber] = new Thread(new SpecGlobThread(threadNumber));
+			SpecGlobExecutor.threads[threadNumber] = new Thread(SpecGlobExecutor.spec_glob_threads[threadNumber]);
 		}
 		
-		SpecGlobExecutor.natives_spectra = Spectra.getNatives();
-		SpecGlobExecutor.transformed_spectra = Spectra.getTransformed();
+		/*
+		 * The spectra are not given to the SpecGlobThreads in the order of the file but the most expensive first (Longest Processing Time first),
+		 * so a long spectrum does not end the run alone on one core. The results are still written in the order of the file.
+		 */
+		SpecGlobExecutor.estimated_costs = new int[REAL_TIME_SAVE];
+		SpecGlobExecutor.ready_spectra = new PriorityQueue<Integer>(REAL_TIME_SAVE, (first, second) -> SpecGlobExecutor.estimated_costs[first % REAL_TIME_SAVE] != SpecGlobExecutor.estimated_costs[second % REAL_TIME_SAVE] ? Integer.compare(SpecGlobExecutor.estimated_costs[second % REAL_TIME_SAVE], SpecGlobExecutor.estimated_costs[first % REAL_TIME_SAVE]) : Integer.compare(first, second));
 		
 		/*
-		 * We create as many interpretations_saver as the REAL_TIME_SAVE parameter.
+		 * We create as many interpretations_saver as the REAL_TIME_SAVE parameter. At most REAL_TIME_SAVE spectra are treated or waiting to be published at the same time.
 		 */
 		SpecGlobExecutor.interpretations_saver = new InterpretationsSaver[REAL_TIME_SAVE];
 		for (int i = 0; i < REAL_TIME_SAVE; ++i)
 		{
 			SpecGlobExecutor.interpretations_saver[i] = new InterpretationsSaver();
 		}
+		
+		/*
+		 * completed_spectra[i] contains the results of a treated spectrum using the interpretations saver i that is not yet published to the ResultsWriter (null if none).
+		 */
+		SpecGlobExecutor.completed_spectra = new SpectrumResult[REAL_TIME_SAVE];
+		SpecGlobExecutor.results_writer = new ResultsWriter(results_path, REAL_TIME_SAVE, REAL_TIME_SAVE, checkpoint);
+	}
+	
+	/*
+	 * The SpecGlobThreads of the previous search are reused if there are as many and if their structures fit the spectra and the proteins loaded
+	 */
+	private static boolean canReuseThreads(int nbThread)
+	{
+		if (SpecGlobExecutor.spec_glob_threads == null || SpecGlobExecutor.spec_glob_threads.length != nbThread)
+		{
+			return false;
+		}
+		for (SpecGlobThread spec_glob_thread : SpecGlobExecutor.spec_glob_threads)
+		{
+			if (!spec_glob_thread.fits())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Getter of the number of spectra whose results are written in the results file, to follow the progress of the current search
+	 * @return the number of spectra written, including those written before the resumption of the search
+	 */
+	public static int getNumberOfWrittenSpectra()
+	{
+		return SpecGlobExecutor.results_writer == null ? 0 : SpecGlobExecutor.results_writer.getNumberOfWrittenSpectra();
 	}
 	
 	/**
@@ -85,120 +192,326 @@ public final class SpecGlobExecutor {
 	 */
 	public static void run() throws IOException, ThreadException
 	{
-		startTime = System.currentTimeMillis();
-		int min;
 		for (int threadNumber = 0; threadNumber < SpecGlobExecutor.threads.length; ++threadNumber)
 		{
 			threads[threadNumber].start();
 		}
 		
-	
 		/*
-		 * The main thread wait until REAL_TIME_SAVE spectra are treated by the SpecGlobThreads before performing a save for these spectra and sleep again. 
+		 * The main thread is used as the ResultsWriter stage, it writes the results as soon as the SpecGlobThreads published them.
 		 */
-		while (true)
+		try
 		{
-			synchronized(SpecGlobExecutor.class)
+			SpecGlobExecutor.results_writer.write(SpecGlobExecutor.first_spectrum);
+			/*
+			 * The SpecGlobThreads must be ended before returning, so they can't take a spectrum of the next search if an other one is launched in the same process
+			 */
+			for (int threadNumber = 0; threadNumber < SpecGlobExecutor.threads.length; ++threadNumber)
+			{
+				threads[threadNumber].join();
+			}
+			SpecGlobExecutor.results_writer.exportMetrics();
+		}
+		catch (InterruptedException e)
+		{
+			SpecGlobExecutor.stopThreads();
+			throw new ThreadException(thread_exception);
+		}
+		catch (IOException e)
+		{
+			SpecGlobExecutor.stopThreads();
+			throw e;
+		}
+		finally
+		{
+			if (SpecGlobExecutor.shards_pool != null)
+			{
+				SpecGlobExecutor.shards_pool.shutdownNow();
+				SpecGlobExecutor.shards_pool = null;
+			}
+			if (SpecGlobExecutor.masses_pool != null)
+			{
+				SpecGlobExecutor.masses_pool.shutdownNow();
+				SpecGlobExecutor.masses_pool = null;
+			}
+		}
+	}
+	
+	/*
+	 * Stop the SpecGlobThreads after a failure and wait for their end. They are not reused by the next search as they may have been stopped in the middle of a spectrum.
+	 */
+	private static void stopThreads()
+	{
+		SpecGlobExecutor.spec_glob_threads = null;
+		for (int threadNumber = 0; threadNumber < SpecGlobExecutor.threads.length; ++threadNumber)
+		{
+			threads[threadNumber].interrupt();
+		}
+		for (int threadNumber = 0; threadNumber < SpecGlobExecutor.threads.length; ++threadNumber)
+		{
+			while (threads[threadNumber].isAlive())
 			{
 				try
 				{
-					SpecGlobExecutor.class.wait();
-		        }
+					threads[threadNumber].join();
+				}
 				catch (InterruptedException e)
 				{
-					for (int threadNumber = 0; threadNumber < SpecGlobExecutor.threads.length; ++threadNumber)
-					{
-						threads[threadNumber].interrupt();
-					}
-					throw new ThreadException(thread_exception);
-		        }
+					// an other SpecGlobThread failed meanwhile
+				}
 			}
-			
-			int nbSpectra = REAL_TIME_SAVE * SpecGlobExecutor.process_step;
-			nbSpectra = Math.min(REAL_TIME_SAVE * SpecGlobExecutor.process_step, SpecGlobExecutor.natives_spectra.length);
-			System.out.println("save..."+nbSpectra);
-			if (!Main.commandMode)
-				SpecProtGUI.LOG.append(nbSpectra+" spectra processed\n");
-			
-			endTime = System.currentTimeMillis();
-			double time = ((double) (endTime - startTime))/1000;
-			System.out.println("** " + time + "s");
-			
-			startTime=endTime;
-			
-			try
+		}
+	}
+	
+	/**
+	 * Submit the preliminary treatment of a part of the proteins to the shards pool.
+	 * @param shard: the preliminary treatment to perform
+	 * @return the Future used by the SpecGlobThread to wait for the end of the treatment
+	 */
+	public static Future<?> submitShard(Runnable shard)
+	{
+		return SpecGlobExecutor.shards_pool.submit(shard);
+	}
+	
+	/**
+	 * Submit the evaluation of candidate non-aligned masses to the fork-join pool of the masses.
+	 * @param task: the evaluation to perform
+	 * @return the Future used by the SpecGlobThread to join the evaluation
+	 */
+	public static Future<?> submitNonAlignedMasses(Runnable task)
+	{
+		return SpecGlobExecutor.masses_pool.submit(task);
+	}
+	
+	/**
+	 * Reserve some of the cores that are not used : the cores of the machine minus the SpecGlobThreads aligning spectra (those waiting for a spectrum or ended are idle)
+	 * and minus the mass tasks already running. There are free cores at the end of a search, or if nbThreads is smaller than the number of cores.
+	 * The cores are reserved at once, so two SpecGlobThreads can't take the same free cores. They must be given back with releaseCores.
+	 * @param number_of_cores: the number of cores wanted
+	 * @return the number of cores reserved, from 0 to number_of_cores
+	 */
+	public static int reserveSpareCores(int number_of_cores)
+	{
+		int cores = Runtime.getRuntime().availableProcessors();
+		while (true)
+		{
+			int busy_cores = SpecGlobExecutor.number_of_busy_cores.get();
+			int reserved_cores = Math.min(number_of_cores, Math.max(cores - busy_cores, 0));
+			if (reserved_cores <= 0 || SpecGlobExecutor.number_of_busy_cores.compareAndSet(busy_cores, busy_cores + reserved_cores))
+			{
+				return Math.max(reserved_cores, 0);
+			}
+		}
+	}
+	
+	/**
+	 * Give back the cores reserved by reserveSpareCores
+	 * @param number_of_cores: the number of cores reserved
+	 */
+	public static void releaseCores(int number_of_cores)
+	{
+		SpecGlobExecutor.number_of_busy_cores.addAndGet(-number_of_cores);
+	}
+	
+	/**
+	 * Give the next spectrum to be treated to the SpecGlobThread in parameter.
+	 * Only the spectra less than REAL_TIME_SAVE spectra ahead of the next one to be published can be treated, because the interpretations saver of a spectrum
+	 * is still used by the spectrum REAL_TIME_SAVE before it until it is published.
+	 * Among them, the most expensive one is given (see TransformedSpectrum.getEstimatedCost). A SpecGlobThread only waits if all of them are already treated or being treated.
+	 * @param thread: the SpecGlobThread asking for the next spectrum
+	 */
+	public static void getNext(SpecGlobThread thread)
+	{
+		int spectrum_number = SpecGlobExecutor.takeSpectrum(true);
+		if (spectrum_number == -1)
+		{
+			/*
+			 * Call updateSpectrum with null, null, null parameters allows to terminated the SpecGlobThread
+			 */
+			SpecGlobExecutor.number_of_busy_cores.decrementAndGet();
+			thread.updateSpectrum(null, null, null);
+			return;
+		}
+		thread.updateSpectrum(Spectra.getNative(spectrum_number), Spectra.getTransformed(spectrum_number), SpecGlobExecutor.interpretations_saver[spectrum_number % REAL_TIME_SAVE]);
+	}
+	
+	/**
+	 * Give the next tile of spectra to be treated to the SpecGlobThread in parameter (VERSION_PRELIMINARY_TREATMENT() = 3 only).
+	 * The SpecGlobThread waits for the first spectrum of the tile as in getNext, the tile is then completed with the spectra that can be treated immediately.
+	 * @param thread: the SpecGlobThread asking for the next tile
+	 * @param tile_size: the maximum number of spectra in the tile
+	 */
+	public static void getNextTile(SpecGlobThread thread, int tile_size)
+	{
+		int tile_length = 0;
+		int spectrum_number = SpecGlobExecutor.takeSpectrum(true);
+		while (spectrum_number != -1)
+		{
+			thread.updateTileSpectrum(tile_length, Spectra.getNative(spectrum_number), Spectra.getTransformed(spectrum_number), SpecGlobExecutor.interpretations_saver[spectrum_number % REAL_TIME_SAVE]);
+			++tile_length;
+			spectrum_number = tile_length < tile_size ? SpecGlobExecutor.takeSpectrum(false) : -1;
+		}
+		if (tile_length == 0)
+		{
+			// the SpecGlobThread ends
+			SpecGlobExecutor.number_of_busy_cores.decrementAndGet();
+		}
+		thread.updateTileLength(tile_length);
+	}
+	
+	/*
+	 * Return the most expensive spectrum that can be treated, or -1 if there is no more spectra to treat or if the thread has been interrupted.
+	 * If 'wait' is false, -1 is also returned when no spectrum can be treated immediately.
+	 * The lock of the window is only held to take a spectrum, or to decide to wait or to admit the next spectra : the spectra are admitted by one thread at a time
+	 * (see admitSpectra) without this lock, so the other threads can still take the spectra already admitted while, in streaming mode, Spectra.admit waits for the reading.
+	 */
+	private static int takeSpectrum(boolean wait)
+	{
+		try
+		{
+			while (!Thread.currentThread().isInterrupted())
 			{
-				FileWriter writer = new FileWriter(Parameters.RESULTS_FOLDER_PATH() + "/" + Parameters.RESULTS_FILE(), true);
-				BufferedWriter buffer = new BufferedWriter(writer);
-				PrintWriter output = new PrintWriter(buffer);
-				min = Math.min(REAL_TIME_SAVE, SpecGlobExecutor.natives_spectra.length - (SpecGlobExecutor.process_step - 1) * REAL_TIME_SAVE);
-				for (int i = 0; i < min; ++i)
+				synchronized(SpecGlobExecutor.class)
 				{
-					SpecGlobExecutor.interpretations_saver[i].save(output);
+					// counted before the window is checked, so a SpecGlobThread moving the window forward in complete notifies this one
+					++SpecGlobExecutor.number_of_waiting_threads;
+					try
+					{
+						if (!SpecGlobExecutor.ready_spectra.isEmpty())
+						{
+							return SpecGlobExecutor.ready_spectra.poll();
+						}
+						if (!SpecGlobExecutor.admitting && !SpecGlobExecutor.end_of_spectra && SpecGlobExecutor.next_spectrum_to_admit < SpecGlobExecutor.next_spectrum_to_publish + REAL_TIME_SAVE)
+						{
+							SpecGlobExecutor.admitting = true;
+						}
+						else if (!wait || SpecGlobExecutor.end_of_spectra)
+						{
+							return -1;
+						}
+						else
+						{
+							// the core of a waiting SpecGlobThread can be used by the mass tasks
+							SpecGlobExecutor.number_of_busy_cores.decrementAndGet();
+							try
+							{
+								SpecGlobExecutor.class.wait();
+							}
+							finally
+							{
+								SpecGlobExecutor.number_of_busy_cores.incrementAndGet();
+							}
+							continue;
+						}
+					}
+					finally
+					{
+						--SpecGlobExecutor.number_of_waiting_threads;
+					}
 				}
-				output.close();
+				SpecGlobExecutor.admitSpectra();
 			}
-			catch (IOException e)
+			return -1;
+		}
+		catch (InterruptedException e)
+		{
+			return -1;
+		}
+		catch (InterruptedIOException e)
+		{
+			return -1;
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/*
+	 * Admit the spectra in the window as long as it has room, by the only thread that set 'admitting'. Spectra.admit is called without the lock of the window,
+	 * each admitted spectrum is then given to the waiting threads. next_spectrum_to_admit is only modified by this thread while 'admitting' is true.
+	 * The estimated cost of an admitted spectrum replaces that of the spectrum REAL_TIME_SAVE before it, which is already published.
+	 */
+	private static void admitSpectra() throws IOException, InterruptedException
+	{
+		try
+		{
+			int spectrum_number = SpecGlobExecutor.next_spectrum_to_admit;
+			while (spectrum_number < SpecGlobExecutor.next_spectrum_to_publish + REAL_TIME_SAVE)
 			{
-				for (int threadNumber = 0; threadNumber < SpecGlobExecutor.threads.length; ++threadNumber)
+				if (!Spectra.admit(spectrum_number))
 				{
-					threads[threadNumber].interrupt();
+					synchronized(SpecGlobExecutor.class)
+					{
+						SpecGlobExecutor.end_of_spectra = true;
+					}
+					synchronized(SpecGlobExecutor.completed_spectra)
+					{
+						SpecGlobExecutor.number_of_spectra = spectrum_number;
+						SpecGlobExecutor.publishEnd();
+					}
+					return;
+				}
+				int estimated_cost = Spectra.getTransformed(spectrum_number).getEstimatedCost();
+				synchronized(SpecGlobExecutor.class)
+				{
+					SpecGlobExecutor.estimated_costs[spectrum_number % REAL_TIME_SAVE] = estimated_cost;
+					SpecGlobExecutor.ready_spectra.add(spectrum_number);
+					SpecGlobExecutor.next_spectrum_to_admit = ++spectrum_number;
+					SpecGlobExecutor.class.notifyAll();
 				}
-				throw new IOException("The program stopped due to an IOException during a results backup. The results file may be incomplete.");
 			}
-
-			SpecGlobExecutor.number_of_waiting_threads = 0;
-			++SpecGlobExecutor.process_step;
+		}
+		finally
+		{
 			synchronized(SpecGlobExecutor.class)
 			{
+				SpecGlobExecutor.admitting = false;
 				SpecGlobExecutor.class.notifyAll();
 			}
-			if (SpecGlobExecutor.next_spectrum == SpecGlobExecutor.natives_spectra.length)
-			{
-				break;
-			}
 		}
 	}
 	
 	/**
-	 * Return the number of the next spectrum to be treated
-	 * @param thread: the SpecGlobThread asking for the next spectrum
+	 * Signal that the spectrum in parameter is treated. An immutable copy of its results is made, so its interpretations saver is released.
+	 * The treated spectra are published to the ResultsWriter in their original order : the thread that completes the next spectrum to be published
+	 * also publishes the following spectra that are already treated. It only waits if the queue of the ResultsWriter is full.
+	 * @param spectrum_number: the number of the treated spectrum
 	 */
-	public static synchronized void getNext(SpecGlobThread thread)
+	public static void complete(int spectrum_number) throws InterruptedException
 	{
-		while (SpecGlobExecutor.next_spectrum >= SpecGlobExecutor.process_step * REAL_TIME_SAVE)
-		{		
-			try
-			{
-				++SpecGlobExecutor.number_of_waiting_threads;
-				if (SpecGlobExecutor.number_of_waiting_threads == SpecGlobExecutor.threads.length)
-				{
-					SpecGlobExecutor.class.notifyAll();
-				}
-				SpecGlobExecutor.class.wait();
-	        }
-			catch (InterruptedException e)
+		SpectrumResult result = SpecGlobExecutor.interpretations_saver[spectrum_number % REAL_TIME_SAVE].getResult();
+		synchronized(SpecGlobExecutor.completed_spectra)
+		{
+			SpecGlobExecutor.completed_spectra[spectrum_number % REAL_TIME_SAVE] = result;
+			int slot = SpecGlobExecutor.next_spectrum_to_publish % REAL_TIME_SAVE;
+			while (SpecGlobExecutor.completed_spectra[slot] != null)
 			{
-				/*
-				 * Call updateSpectrum with null, null, null parameters allows to terminated the SpecGlobThread
-				 */
-	            thread.updateSpectrum(null, null, null);
-	            return;
-	        }
+				SpecGlobExecutor.results_writer.put(SpecGlobExecutor.completed_spectra[slot]);
+				SpecGlobExecutor.completed_spectra[slot] = null;
+				++SpecGlobExecutor.next_spectrum_to_publish;
+				slot = SpecGlobExecutor.next_spectrum_to_publish % REAL_TIME_SAVE;
+			}
+			SpecGlobExecutor.publishEnd();
 		}
-		if (SpecGlobExecutor.next_spectrum < SpecGlobExecutor.natives_spectra.length) 
+		if (SpecGlobExecutor.number_of_waiting_threads > 0)
 		{
-			thread.updateSpectrum(SpecGlobExecutor.natives_spectra[SpecGlobExecutor.next_spectrum], SpecGlobExecutor.transformed_spectra[SpecGlobExecutor.next_spectrum], SpecGlobExecutor.interpretations_saver[SpecGlobExecutor.next_spectrum % SpecGlobExecutor.REAL_TIME_SAVE]);
-			++SpecGlobExecutor.next_spectrum;
-		}
-		else
-		{
-			++SpecGlobExecutor.number_of_waiting_threads;
-			if (SpecGlobExecutor.number_of_waiting_threads == SpecGlobExecutor.threads.length)
+			synchronized(SpecGlobExecutor.class)
 			{
-				SpecGlobExecutor.class.notify();
+				SpecGlobExecutor.class.notifyAll();
 			}
-			thread.updateSpectrum(null, null, null);
+		}
+	}
+	
+	/*
+	 * Give the end of the results to the ResultsWriter once all the spectra are admitted and published (exactly once, under the completed_spectra lock)
+	 */
+	private static void publishEnd() throws InterruptedException
+	{
+		if (!SpecGlobExecutor.end_published && SpecGlobExecutor.next_spectrum_to_publish == SpecGlobExecutor.number_of_spectra)
+		{
+			SpecGlobExecutor.end_published = true;
+			SpecGlobExecutor.results_writer.put(SpectrumResult.END_OF_RESULTS);
 		}
 	}
 	
@@ -210,8 +523,13 @@ public final class SpecGlobExecutor {
 	
 	public static void reset()
 	{
-		next_spectrum = 0;
-		process_step = 1;
+		next_spectrum_to_admit = 0;
+		end_of_spectra = false;
+		admitting = false;
+		number_of_spectra = -1;
+		end_published = false;
+		results_writer = null;
+		next_spectrum_to_publish = 0;
 		number_of_waiting_threads = 0;	
 		REAL_TIME_SAVE = Parameters.REAL_TIME_SAVE();
 	}
@@ -2,6 +2,9 @@ package algorithms;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import bioobjects.NativeSpectrum;
 import bioobjects.Protein;
@@ -14,7 +17,9 @@ import components.Location;
 import components.Scenario;
 import constantes.AminoAcid;
 import constantes.Parameters;
+import datastructures.FinalTreatmentCache;
 import datastructures.InterpretationsSaver;
+import datastructures.ProteinsTrie;
 import loaders.Proteins;
 import loaders.Spectra;
 
@@ -49,6 +54,7 @@ public final class SpecGlobThread implements Runnable
 	private static int FOUND_WITH_SHIFT_MAIN = Parameters.FOUND_WITH_SHIFT_MAIN();
 	private static int NOT_FOUND_MAIN = Parameters.NOT_FOUND_MAIN();
 	private static int INITIALISATION_SCORE_MAIN = Parameters.INITIALISATION_SCORE_MAIN();	
+	private static int MAX_GAIN_MAIN = SpecGlobThread.maxGainMain(); // the greatest increase of score on a row of the preliminary treatment
 	private static int CERTAINLY_FOUND_POST = Parameters.CERTAINLY_FOUND_POST();
 	private static int FOUND_POST = Parameters.FOUND_POST();
 	private static int CERTAINLY_FOUND_WITH_SHIFT_POST = Parameters.CERTAINY_FOUND_WITH_SHIFT_POST();
@@ -61,11 +67,36 @@ public final class SpecGlobThread implements Runnable
 	private static boolean SHUT_DOWN_NON_ALIGNED_MASS = Parameters.SHUT_DOWN_NON_ALIGNED_MASS();
 	private static boolean SHUT_DOWN_PEAKS_CLEANING = Parameters.SHUT_DOWN_PEAKS_CLEANING();
 	
+	/* With FINAL_TREATMENT_BAND, the final treatments refining an alignment only compute the columns close to its path (see setBand) */
+	private static int FINAL_TREATMENT_BAND = Parameters.FINAL_TREATMENT_BAND();
+	private static int FINAL_TREATMENT_CACHE_SIZE = Parameters.FINAL_TREATMENT_CACHE_SIZE();
+	
 	private static double SMALLEST_MASS = AminoAcid.SMALLESTMASS();
+	
+	/* With FIXED_POINT_MASSES, the version 1 of the preliminary treatment compares the masses in units of AminoAcid.MASS_UNIT */
+	private static boolean FIXED_POINT_MASSES = Parameters.FIXED_POINT_MASSES();
+	private static int ACCURACY_UNITS = AminoAcid.toUnits(Parameters.ACCURACY());
+	private static int SMALLEST_MASS_UNITS = AminoAcid.toUnits(AminoAcid.SMALLESTMASS());
 	private static int SURPLUS = Parameters.SURPLUS();
+	private static int NB_PROTEIN_SHARDS = Parameters.NB_PROTEIN_SHARDS();
+	private static int NB_NON_ALIGNED_MASS_TASKS = Parameters.NB_NON_ALIGNED_MASS_TASKS();
+	private static int NB_SPECTRA_PER_TILE = Parameters.NB_SPECTRA_PER_TILE();
+	private static int MIN_TAG_COUNT = Parameters.MIN_TAG_COUNT();
+	private static int PREFILTER_WINDOW = Parameters.PREFILTER_WINDOW();
+	
+	/* The kernels of the preliminary treatment (see PreliminaryKernels), the one of VERSION_PRELIMINARY_TREATMENT() is selected once per search */
+	static
+	{
+		PreliminaryKernels.register(0, "classic", SpecGlobThread::preliminaryTreatmentv0);
+		PreliminaryKernels.register(1, "first_column_realignment", SpecGlobThread::preliminaryTreatmentv1);
+		PreliminaryKernels.register(2, "shift_realignment", SpecGlobThread::preliminaryTreatmentv2);
+		PreliminaryKernels.register(4, "prefix_tree", SpecGlobThread::preliminaryTreatmentv4);
+	}
+	private static PreliminaryKernel PRELIMINARY_KERNEL = SpecGlobThread.selectKernel();
 
 	private static int number_of_proteins = Proteins.getNumberOfProteins();
 	private static Protein[] proteins = Proteins.get();
+	private static int[] chunks_shift = Proteins.getChunksShift();
 	
 	private NativeSpectrum current_native_spectrum;
 	private TransformedSpectrum current_transformed_spectrum;
@@ -80,11 +111,24 @@ public final class SpecGlobThread implements Runnable
 	
 	private InterpretationsSaver interpretations_saver;
 	private InterpretationBackup best_interpretation_backup;
-	private ArrayList<ArrayList<Scenario>> scenarios_matrice;
+	private int[] traceback; // the path of the final treatment : 3 integers per cell (previous row, previous column, index of the AAPosition), see Alignment.overwrite
+	private boolean banded = false; // true if the next final treatments refine an alignment and are computed on a band around its path (see setBand)
+	private double[] band_masses; // the mass of the column of the path of the refined alignment on each row of the current location
+	private int[] band_first_columns; // the first and the last columns computed on each row by a banded final treatment
+	private int[] band_last_columns;
+	private FinalTreatmentCache final_treatment_cache; // the results of the last final treatments of the current spectrum (null without FINAL_TREATMENT_CACHE_SIZE)
+	private TransformedSpectrum.Workspace transform_workspace; // the structures used to transform the current spectrum (see TransformedSpectrum.Workspace)
 	private int[] trees_position;
-	private int[] interest_cells; // i : row_number / i+1 : score / i+2 : tree_id / i+3 : beginning
-	private double[] current_masses;
+	// the last key cell of each column : its row, its score, its tree and the beginning of its alignment (only the row and the score are used by finalTreatment,
+	// whose modified spectra may have up to twice as many columns)
+	private int[] interest_rows;
+	private int[] interest_scores;
+	private int[] interest_trees;
+	private int[] interest_beginnings;
 	private int[] scenario_buffer;
+	private int[] tags_counts; // the number of tags of the current spectrum contained in each protein, shared with the shards (see selectProteins)
+	private int bound_checked_proteins = 0; // the proteins whose upper bound of score has been checked since the last export to the metrics (see isWithinReach)
+	private int bound_skipped_proteins = 0;
 	
 	private Location[] locations;
 	private TransformedSpectrum[] transformed_spectra_bucket;
@@ -93,6 +137,50 @@ public final class SpecGlobThread implements Runnable
 	private int[] counter_used_peaks;
 	private int[] used_peaks;
 	private ArrayList<Integer>[] peaks_groups;
+	
+	private int first_protein; // the proteins aligned by the preliminary treatment are those numbered from first_protein (included) to last_protein (excluded)
+	private int last_protein;
+	private SpecGlobThread[] shards;
+	private InterpretationsSaver[] shards_savers;
+	private Future<?>[] shards_futures;
+	
+	private SpecGlobThread[] mass_tasks; // the tasks evaluating the candidate non-aligned masses with this thread (see alignNonAlignedMasses), null without NB_NON_ALIGNED_MASS_TASKS
+	private Future<?>[] mass_tasks_futures;
+	private AtomicInteger next_mass_number; // the next candidate non-aligned mass to evaluate, shared with the mass tasks
+	private int best_mass_number; // the candidate whose alignment is kept by evaluateNonAlignedMasses (-1 if none)
+	private int[] mass_peak_mask; // the peak mask from which a candidate non-aligned mass is evaluated
+	private int[] interpretation_peak_mask; // the peak mask and the path (see setBand) of the interpretation whose non-aligned masses are evaluated, shared with the mass tasks
+	private double[] interpretation_band_masses;
+	
+	private int tile_length; // the number of spectra in the current tile (VERSION_PRELIMINARY_TREATMENT() = 3 only)
+	private int tile_position; // the position of the current spectrum in the current tile
+	private NativeSpectrum[] tile_natives_spectra;
+	private TransformedSpectrum[] tile_transformed_spectra;
+	private InterpretationsSaver[] tile_interpretations_savers;
+	private int[][] tile_interest_rows;
+	private int[][] tile_interest_scores;
+	private int[][] tile_interest_trees;
+	private int[][] tile_interest_beginnings;
+	private int[][] tile_scenario_buffers;
+	private int[][] tile_trees_position;
+	private int[] tile_trees_id;
+	private int[] tile_min_max_scores;
+	private int[][] tile_tags_counts;
+	private boolean[] tile_selected; // the spectra of the tile aligned on the current protein
+	
+	private int[] trie_events; // the locations recorded by preliminaryTreatmentv4 (start line, end line, score, tree), those of a node are between trie_events_start and trie_events_end
+	private int[] trie_events_start;
+	private int[] trie_events_end;
+	private int[] trie_trees_count; // the number of trees created at the end of each node
+	private boolean[] trie_selected;
+	private int[] trie_path;
+	private int[][] trie_snapshots; // the states saved at the end of the nodes having several children, see saveTrieState
+	private int[] trie_snapshots_nodes;
+	
+	private int allocated_column_count; // the sizes of the structures and the parameters fixing their organisation, see fits()
+	private int allocated_native_peak_count;
+	private Protein[] allocated_proteins;
+	private int[] allocated_layout;
 
 	/**
 	 *  A SpecGlobThread object is designed to perform the alignment of several spectra on all the proteins and an alignment is based on structures such as tabular or ArrayList whose directly depends on the spectrum size.
@@ -104,20 +192,23 @@ public final class SpecGlobThread implements Runnable
 	
 	public SpecGlobThread(int number)
 	{
+		this.allocated_column_count = Spectra.getMaxColumnCount();
+		this.allocated_native_peak_count = Spectra.getMaxNativePeakCount();
+		this.allocated_proteins = proteins;
+		this.allocated_layout = SpecGlobThread.layout();
 		this.current_peak_mask = new int[Spectra.getMaxNativePeakCount()];
 		this.best_interpretation_backup = new InterpretationBackup();
-		this.scenarios_matrice = new ArrayList<ArrayList<Scenario>>(Spectra.getMaxColumnCount() + 1);
-		for (int row_number = 0; row_number < Spectra.getMaxColumnCount() + 1; ++row_number)
-		{
-			this.scenarios_matrice.add(new ArrayList<Scenario>(Spectra.getMaxColumnCount() + 1));
-			for (int column_number = 0; column_number < Spectra.getMaxColumnCount() + 1; ++column_number)
-			{
-				this.scenarios_matrice.get(row_number).add(new Scenario());
-			}
-		}
+		this.traceback = new int[3*(Spectra.getMaxColumnCount() + 1)*(Spectra.getMaxColumnCount() + 1)];
+		this.final_treatment_cache = FINAL_TREATMENT_CACHE_SIZE > 0 ? new FinalTreatmentCache(FINAL_TREATMENT_CACHE_SIZE) : null;
+		this.transform_workspace = new TransformedSpectrum.Workspace();
+		this.next_mass_number = new AtomicInteger();
+		this.mass_peak_mask = new int[Spectra.getMaxNativePeakCount()];
+		this.interpretation_peak_mask = new int[Spectra.getMaxNativePeakCount()];
 		this.trees_position = new int[(Proteins.getMaxLength() + 1)*(Spectra.getMaxColumnCount() + 1)];
-		this.interest_cells = new int[Spectra.getMaxColumnCount() << 2];
-		this.current_masses = new double[Proteins.getMaxLength()];
+		this.interest_rows = new int[Spectra.getMaxColumnCount() << 1];
+		this.interest_scores = new int[Spectra.getMaxColumnCount() << 1];
+		this.interest_trees = new int[Spectra.getMaxColumnCount()];
+		this.interest_beginnings = new int[Spectra.getMaxColumnCount()];
 		this.scenario_buffer = new int[Spectra.getMaxColumnCount() << 2];
 
 		this.counter_used_peaks = new int[Spectra.getMaxNativePeakCount() + 2];
@@ -144,6 +235,140 @@ public final class SpecGlobThread implements Runnable
 		{
 			this.alignments_bucket[i] = new Alignment();
 		}
+		
+		this.first_protein = 0;
+		this.last_protein = number_of_proteins;
+		if (Parameters.VERSION_PRELIMINARY_TREATMENT() == 3)
+		{
+			/*
+			 * The preliminary treatment is performed on tiles of NB_SPECTRA_PER_TILE spectra, each of them needs its own structures. The first one uses the structures of this thread.
+			 */
+			this.tile_natives_spectra = new NativeSpectrum[NB_SPECTRA_PER_TILE];
+			this.tile_transformed_spectra = new TransformedSpectrum[NB_SPECTRA_PER_TILE];
+			this.tile_interpretations_savers = new InterpretationsSaver[NB_SPECTRA_PER_TILE];
+			this.tile_interest_rows = new int[NB_SPECTRA_PER_TILE][];
+			this.tile_interest_scores = new int[NB_SPECTRA_PER_TILE][];
+			this.tile_interest_trees = new int[NB_SPECTRA_PER_TILE][];
+			this.tile_interest_beginnings = new int[NB_SPECTRA_PER_TILE][];
+			this.tile_scenario_buffers = new int[NB_SPECTRA_PER_TILE][];
+			this.tile_trees_position = new int[NB_SPECTRA_PER_TILE][];
+			this.tile_trees_id = new int[NB_SPECTRA_PER_TILE];
+			this.tile_min_max_scores = new int[NB_SPECTRA_PER_TILE];
+			this.tile_tags_counts = new int[NB_SPECTRA_PER_TILE][];
+			this.tile_selected = new boolean[NB_SPECTRA_PER_TILE];
+			this.tile_interest_rows[0] = this.interest_rows;
+			this.tile_interest_scores[0] = this.interest_scores;
+			this.tile_interest_trees[0] = this.interest_trees;
+			this.tile_interest_beginnings[0] = this.interest_beginnings;
+			this.tile_scenario_buffers[0] = this.scenario_buffer;
+			this.tile_trees_position[0] = this.trees_position;
+			for (int spectrum_number = 1; spectrum_number < NB_SPECTRA_PER_TILE; ++spectrum_number)
+			{
+				this.tile_interest_rows[spectrum_number] = new int[Spectra.getMaxColumnCount()];
+				this.tile_interest_scores[spectrum_number] = new int[Spectra.getMaxColumnCount()];
+				this.tile_interest_trees[spectrum_number] = new int[Spectra.getMaxColumnCount()];
+				this.tile_interest_beginnings[spectrum_number] = new int[Spectra.getMaxColumnCount()];
+				this.tile_scenario_buffers[spectrum_number] = new int[Spectra.getMaxColumnCount() << 2];
+				this.tile_trees_position[spectrum_number] = new int[(Proteins.getMaxLength() + 1)*(Spectra.getMaxColumnCount() + 1)];
+			}
+		}
+		else if (NB_PROTEIN_SHARDS > 1)
+		{
+			/*
+			 * The proteins are split in NB_PROTEIN_SHARDS parts. This thread aligns the current spectrum on the first part while the other parts are aligned by its shards in the shards pool of the SpecGlobExecutor.
+			 */
+			int[] boundaries = Proteins.getShardsBoundaries(NB_PROTEIN_SHARDS);
+			this.last_protein = boundaries[1];
+			this.shards = new SpecGlobThread[NB_PROTEIN_SHARDS - 1];
+			this.shards_savers = new InterpretationsSaver[NB_PROTEIN_SHARDS - 1];
+			this.shards_futures = new Future<?>[NB_PROTEIN_SHARDS - 1];
+			for (int shard_number = 0; shard_number < this.shards.length; ++shard_number)
+			{
+				this.shards[shard_number] = new SpecGlobThread(boundaries[shard_number + 1], boundaries[shard_number + 2]);
+				this.shards_savers[shard_number] = this.shards[shard_number].interpretations_saver;
+			}
+		}
+		
+		if (NB_NON_ALIGNED_MASS_TASKS > 1)
+		{
+			/*
+			 * The candidate non-aligned masses of an interpretation can be evaluated by this thread and NB_NON_ALIGNED_MASS_TASKS - 1 mass tasks in the masses pool of the SpecGlobExecutor.
+			 */
+			this.mass_tasks = new SpecGlobThread[NB_NON_ALIGNED_MASS_TASKS - 1];
+			this.mass_tasks_futures = new Future<?>[NB_NON_ALIGNED_MASS_TASKS - 1];
+			for (int task_number = 0; task_number < this.mass_tasks.length; ++task_number)
+			{
+				this.mass_tasks[task_number] = new SpecGlobThread();
+			}
+		}
+	}
+	
+	/**
+	 * A shard only performs the preliminary treatment of the spectrum of its SpecGlobThread on a part of the proteins, so only the structures used by this treatment are created.
+	 * It has its own interpretations saver, the locations found are then merged in the interpretations saver of the spectrum.
+	 * @param first_protein: number of the first protein of the part (included)
+	 * @param last_protein: number of the last protein of the part (excluded)
+	 */
+	private SpecGlobThread(int first_protein, int last_protein)
+	{
+		this.first_protein = first_protein;
+		this.last_protein = last_protein;
+		this.trees_position = new int[(Proteins.getMaxLength() + 1)*(Spectra.getMaxColumnCount() + 1)];
+		this.interest_rows = new int[Spectra.getMaxColumnCount() << 1];
+		this.interest_scores = new int[Spectra.getMaxColumnCount() << 1];
+		this.interest_trees = new int[Spectra.getMaxColumnCount()];
+		this.interest_beginnings = new int[Spectra.getMaxColumnCount()];
+		this.scenario_buffer = new int[Spectra.getMaxColumnCount() << 2];
+		this.interpretations_saver = new InterpretationsSaver();
+	}
+	
+	/**
+	 * A mass task only evaluates candidate non-aligned masses for its SpecGlobThread (see alignNonAlignedMasses), so only the structures used by the final treatment
+	 * and the peaks cleaning are created. The best alignment found is kept in the first slot of its buckets, the three following ones are used for the candidates.
+	 * It transforms the spectrum with its own workspace, as the other tasks transform the same spectrum at the same time.
+	 */
+	private SpecGlobThread()
+	{
+		this.best_interpretation_backup = new InterpretationBackup();
+		this.traceback = new int[3*(Spectra.getMaxColumnCount() + 1)*(Spectra.getMaxColumnCount() + 1)];
+		this.final_treatment_cache = FINAL_TREATMENT_CACHE_SIZE > 0 ? new FinalTreatmentCache(FINAL_TREATMENT_CACHE_SIZE) : null;
+		this.transform_workspace = new TransformedSpectrum.Workspace();
+		this.mass_peak_mask = new int[Spectra.getMaxNativePeakCount()];
+		this.interest_rows = new int[Spectra.getMaxColumnCount() << 1];
+		this.interest_scores = new int[Spectra.getMaxColumnCount() << 1];
+		this.scenario_buffer = new int[Spectra.getMaxColumnCount() << 2];
+		this.counter_used_peaks = new int[Spectra.getMaxNativePeakCount() + 2];
+		this.used_peaks = new int[(Spectra.getMaxColumnCount() - 1) << 1];
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		ArrayList<Integer>[] peaks_groups = new ArrayList[Spectra.getMaxNativePeakCount() << 1];
+		this.peaks_groups = peaks_groups;
+		for (int i = 0; i < this.peaks_groups.length; ++i)
+		{
+			this.peaks_groups[i] = new ArrayList<Integer>();
+		}
+		this.transformed_spectra_bucket = new TransformedSpectrum[4];
+		this.alignments_bucket = new Alignment[4];
+		for (int i = 0; i < 4; ++i)
+		{
+			this.transformed_spectra_bucket[i] = new TransformedSpectrum();
+			this.alignments_bucket[i] = new Alignment();
+		}
+	}
+	
+	/**
+	 * Check if this SpecGlobThread can be reused for a new search performed in the same process (see SearchDaemon), instead of creating its structures again.
+	 * It can if its structures are large enough for the spectra loaded, if the proteins are the same and if the parameters fixing the organisation of the structures did not change.
+	 * @return true if this SpecGlobThread can be reused
+	 */
+	public boolean fits()
+	{
+		return this.allocated_proteins == proteins && Spectra.getMaxColumnCount() <= this.allocated_column_count && Spectra.getMaxNativePeakCount() <= this.allocated_native_peak_count
+				&& Arrays.equals(this.allocated_layout, SpecGlobThread.layout());
+	}
+	
+	private static int[] layout()
+	{
+		return new int[] {NB_LOCATIONS_SAVED, NB_INTERPRETATIONS_SAVED, Parameters.VERSION_PRELIMINARY_TREATMENT() == 3 ? NB_SPECTRA_PER_TILE : 0, NB_PROTEIN_SHARDS, FINAL_TREATMENT_CACHE_SIZE, NB_NON_ALIGNED_MASS_TASKS};
 	}
 	
 	/**
@@ -166,6 +391,66 @@ public final class SpecGlobThread implements Runnable
 		}
 	}
 
+	/**
+	 * This method is called to fill the tile of spectra treated together by preliminaryTreatmentv3.
+	 * @param position: the position of the spectrum in the tile
+	 * @param native_spectrum: the spectrum, in it native version
+	 * @param transformed_spectrum: the first transformed version of the spectrum
+	 * @param locations_saver: the locations saver used to store the best alignment(s) of the spectrum
+	 */
+	public void updateTileSpectrum(int position, NativeSpectrum native_spectrum, TransformedSpectrum transformed_spectrum ,InterpretationsSaver locations_saver)
+	{
+		this.tile_natives_spectra[position] = native_spectrum;
+		this.tile_transformed_spectra[position] = transformed_spectrum;
+		this.tile_interpretations_savers[position] = locations_saver;
+		locations_saver.updateSpectrum(this.tile_trees_position[position], native_spectrum);
+	}
+	
+	/**
+	 * This method is called once the tile is filled (see updateTileSpectrum).
+	 * @param tile_length: the number of spectra in the tile, 0 if there is no more spectra to treat
+	 */
+	public void updateTileLength(int tile_length)
+	{
+		this.tile_length = tile_length;
+	}
+	
+	/**
+	 * Move to the next spectrum. With VERSION_PRELIMINARY_TREATMENT() = 3, the spectra are taken from the current tile and, when it is over,
+	 * a new tile is asked to the SpecGlobExecutor and its preliminary treatment is performed at once.
+	 */
+	private void nextSpectrum()
+	{
+		if (this.tile_natives_spectra == null)
+		{
+			SpecGlobExecutor.getNext(this);
+			return;
+		}
+		++this.tile_position;
+		if (this.tile_position >= this.tile_length)
+		{
+			SpecGlobExecutor.getNextTile(this, NB_SPECTRA_PER_TILE);
+			this.tile_position = 0;
+			if (this.tile_length > 0)
+			{
+				long tile_start = PipelineMetrics.start();
+				this.preliminaryTreatmentv3();
+				PipelineMetrics.record(PipelineMetrics.Stage.PRELIMINARY_TREATMENT, tile_start);
+			}
+		}
+		if (this.tile_position < this.tile_length)
+		{
+			this.current_native_spectrum = this.tile_natives_spectra[this.tile_position];
+			this.first_transformed_spectrum = this.tile_transformed_spectra[this.tile_position];
+			this.current_transformed_spectrum = this.first_transformed_spectrum;
+			this.interpretations_saver = this.tile_interpretations_savers[this.tile_position];
+		}
+		else
+		{
+			this.current_native_spectrum = null;
+		}
+	}
+
 	/*
 	private void afficherBucket(int end)
 	{
@@ -199,7 +484,7 @@ public final class SpecGlobThread implements Runnable
 	{
 		try
 		{
-			SpecGlobExecutor.getNext(this);
+			this.nextSpectrum();
 			LocationBackup[] locations_backup;
 			LocationBackup location_backup;
 			double locations_score_threshold;
@@ -208,22 +493,37 @@ public final class SpecGlobThread implements Runnable
 			while (this.current_native_spectrum != null)
 			{
 				System.out.println("__");
+				if (this.final_treatment_cache != null)
+				{
+					this.final_treatment_cache.clear();
+					for (int task_number = 0; this.mass_tasks != null && task_number < this.mass_tasks.length; ++task_number)
+					{
+						this.mass_tasks[task_number].final_treatment_cache.clear();
+					}
+				}
 				/*
 				 * The preliminary treatment correspond to the alignment of the current spectrum with all the proteins.
 				 * After it, the interpretations saver contains the best locations found.
-				 * Three methods have been tested. We retained the VERSION_PRELIMINARY_TREATMENT() = 1 for publication
+				 * With VERSION_PRELIMINARY_TREATMENT() = 3, it has already been performed for the whole tile by this.nextSpectrum().
 				 */
-				if (Parameters.VERSION_PRELIMINARY_TREATMENT() == 0)
+				long preliminary_start = PipelineMetrics.start();
+				if (MIN_TAG_COUNT > 0 && this.tile_natives_spectra == null)
 				{
-					this.preliminaryTreatmentv0();
+					if (this.tags_counts == null)
+					{
+						this.tags_counts = new int[number_of_proteins];
+					}
+					SpecGlobThread.selectProteins(this.current_transformed_spectrum, this.tags_counts);
 				}
-				else if (Parameters.VERSION_PRELIMINARY_TREATMENT() == 1)
+				if (this.shards != null)
 				{
-					this.preliminaryTreatmentv1();
+					this.shardedPreliminaryTreatment();
+					PipelineMetrics.record(PipelineMetrics.Stage.PRELIMINARY_TREATMENT, preliminary_start);
 				}
-				else if (Parameters.VERSION_PRELIMINARY_TREATMENT() == 2)
+				else if (this.tile_natives_spectra == null)
 				{
-					this.preliminaryTreatmentv2();
+					this.preliminaryTreatment();
+					PipelineMetrics.record(PipelineMetrics.Stage.PRELIMINARY_TREATMENT, preliminary_start);
 				}
 				
 				locations_backup = this.interpretations_saver.getLocations();
@@ -246,14 +546,20 @@ public final class SpecGlobThread implements Runnable
 						this.current_peak_mask = first_peak_mask;
 						
 						this.current_location = this.locations[current_location_number];
-						this.current_location.overwrite(proteins[location_backup.getProteinId()].getSequence(), location_backup.getStartLine() - 1, location_backup.getEndLine() - 1);
-						this.expandMatriceHeight(this.current_location.getLength() + 1);
+						this.current_location.overwrite(proteins[location_backup.getProteinId()], location_backup.getStartLine() - 1, location_backup.getEndLine() - 1, chunks_shift == null ? 0 : chunks_shift[location_backup.getProteinId()]);
+						
+						/*
+						 * The first final treatment of a location computes the full matrix, the following ones refine its alignment (see setBand)
+						 */
+						this.banded = false;
 						
 						/*
 						 * The final treatment correspond to the alignment on the current location with the second system of score.
-						 * The result is store in this.best_interpretation_backup and in this.scenarios_matrice
+						 * The result is store in this.best_interpretation_backup and in this.traceback
 						 */
+						long final_start = PipelineMetrics.start();
 						this.finalTreatment();
+						PipelineMetrics.record(PipelineMetrics.Stage.FINAL_TREATMENT, final_start);
 
 						/*
 						 * The verification that the alignment has a high enough score.
@@ -261,14 +567,16 @@ public final class SpecGlobThread implements Runnable
 						if (this.best_interpretation_backup.getScore() > MIN_SCENARIO_SCORE)
 						{
 							this.current_alignment = this.alignments_bucket[current_location_number];
-							this.current_alignment.overwrite(this.best_interpretation_backup, this.current_transformed_spectrum, this.scenarios_matrice, this.current_location);
+							this.current_alignment.overwrite(this.best_interpretation_backup, this.current_transformed_spectrum, this.traceback, this.current_location);
 							
 							if (!SHUT_DOWN_PEAKS_CLEANING)
 							{
 								/*
 								 * A correction can be apply to the alignment if it rely several times on the same peak in the spectrum.
 								 */
+								long cleaning_start = PipelineMetrics.start();
 								this.cleanPeaksUsedSeveralTimes();
+								PipelineMetrics.record(PipelineMetrics.Stage.PEAKS_CLEANING, cleaning_start);
 							}
 							
 							/*
@@ -294,6 +602,10 @@ public final class SpecGlobThread implements Runnable
 				 * A save of the best alignment is performed in this.interpretations_saver.
 				 */
 				Arrays.sort(this.alignments_bucket, 0, NB_LOCATIONS_SAVED);
+				if (chunks_shift != null && this.clearChunksDuplicates())
+				{
+					Arrays.sort(this.alignments_bucket, 0, NB_LOCATIONS_SAVED);
+				}
 				for (int interpretation_number = 0; interpretation_number < NB_INTERPRETATIONS_SAVED; ++interpretation_number)
 				{
 					this.interpretations_saver.saveSimpleAlignment(interpretation_number, this.alignments_bucket[interpretation_number]);
@@ -301,62 +613,20 @@ public final class SpecGlobThread implements Runnable
 				
 				if (!SHUT_DOWN_NON_ALIGNED_MASS)
 				{
-					this.current_position_in_bucket = NB_INTERPRETATIONS_SAVED + 1;
+					long non_aligned_mass_start = PipelineMetrics.start();
 					for (int interpretation_number = 0; interpretation_number < NB_INTERPRETATIONS_SAVED; ++interpretation_number)
 					{
 						this.current_alignment = this.alignments_bucket[interpretation_number];
 						if (this.current_alignment.getScore() > MIN_SCENARIO_SCORE)
 						{
-							this.current_transformed_spectrum = this.current_alignment.getTransformedSpectrum();
 							this.current_location = this.current_alignment.getLocation();
-							this.alignments_bucket[NB_INTERPRETATIONS_SAVED].clear();
 							
 							/*
 							 * We generate all the masses that can possibly correspond to a non-aligned mass and for each of them, a new transformed spectrum is constructed.
 							 * A new alignment is then performed on them and the current location and the best one is keep.
 							 */
 							possible_non_aligned_masses = this.current_alignment.computePossibleNonAlignedMasses();
-							for (int mass_number = 0; mass_number < possible_non_aligned_masses.size(); ++mass_number)
-							{
-								this.current_non_aligned_mass = possible_non_aligned_masses.get(mass_number);
-								this.current_peak_mask = this.current_transformed_spectrum.getPeakMask();
-								this.current_transformed_spectrum = this.transformed_spectra_bucket[NB_INTERPRETATIONS_SAVED + 1];
-								this.current_native_spectrum.transform(this.transformed_spectra_bucket[NB_INTERPRETATIONS_SAVED + 1], this.current_peak_mask, this.current_non_aligned_mass);
-								this.expandMatriceWidth(this.current_transformed_spectrum.getColumnCount() + 1);
-								
-								/*
-								 * We use the second system of scores to perform the alignment.
-								 */
-								this.finalTreatment();
-								
-								/*
-								 * The verification that the alignment has a high enough score.
-								 */
-								if (this.best_interpretation_backup.getScore() > MIN_SCENARIO_SCORE)
-								{
-									this.current_alignment = this.alignments_bucket[NB_INTERPRETATIONS_SAVED + 1];
-									this.current_alignment.overwrite(this.best_interpretation_backup, this.current_transformed_spectrum, this.scenarios_matrice, this.current_location);
-									
-									if (!SHUT_DOWN_PEAKS_CLEANING)
-									{
-										/*
-										 * A correction can be apply to the alignment if it rely several times on the same peak in the spectrum.
-										 */
-										this.cleanPeaksUsedSeveralTimes();
-									}
-									
-									/*
-									 * Only the best alignment is kept. The best is the one with the best score and with the most peaks in common in case of a tie.
-									 */
-									if (this.current_alignment.compareTo(this.alignments_bucket[NB_INTERPRETATIONS_SAVED]) == -1)
-									{
-										this.alignments_bucket[NB_INTERPRETATIONS_SAVED + 1] = this.alignments_bucket[NB_INTERPRETATIONS_SAVED];
-										this.alignments_bucket[NB_INTERPRETATIONS_SAVED] = this.current_alignment;
-										this.transformed_spectra_bucket[NB_INTERPRETATIONS_SAVED + 1] = this.transformed_spectra_bucket[NB_INTERPRETATIONS_SAVED];
-										this.transformed_spectra_bucket[NB_INTERPRETATIONS_SAVED] = this.current_transformed_spectrum;
-									}
-								}
-							}
+							this.alignNonAlignedMasses(interpretation_number, possible_non_aligned_masses);
 							
 							/*
 							 * If the new alignment is better than the original, the new one is also saved in this.interpretation_saver. 
@@ -371,16 +641,133 @@ public final class SpecGlobThread implements Runnable
 							this.current_non_aligned_mass = 0.0;
 						}
 					}
+					PipelineMetrics.record(PipelineMetrics.Stage.NON_ALIGNED_MASS, non_aligned_mass_start);
 				}
-				SpecGlobExecutor.getNext(this);
+				PipelineMetrics.spectrumAligned();
+				SpecGlobExecutor.complete(this.current_native_spectrum.getID());
+				this.nextSpectrum();
 			}
 		}
+		catch (InterruptedException e)
+		{
+			/*
+			 * The SpecGlobThread has been stopped by the SpecGlobExecutor while it was waiting for the ResultsWriter
+			 */
+		}
 		catch (Exception e)
 		{
 			SpecGlobExecutor.Interrupt(e);
 		}
 	}
 	
+	/**
+	 * Perform the preliminary treatment of the current spectrum on the proteins numbered from this.first_protein to this.last_protein, with the kernel selected by VERSION_PRELIMINARY_TREATMENT().
+	 * Three methods have been tested. We retained the VERSION_PRELIMINARY_TREATMENT() = 1 for publication.
+	 * The VERSION_PRELIMINARY_TREATMENT() = 3 is the version 1 performed on tiles of spectra (see nextSpectrum and preliminaryTreatmentv3).
+	 * The VERSION_PRELIMINARY_TREATMENT() = 4 is the version 1 performed on the prefix tree of the proteins (see preliminaryTreatmentv4).
+	 */
+	private void preliminaryTreatment()
+	{
+		PRELIMINARY_KERNEL.align(this);
+		this.exportBoundedProteins();
+	}
+	
+	/*
+	 * The kernel of VERSION_PRELIMINARY_TREATMENT(). The version 3 has no kernel, the preliminary treatment of a single spectrum then does nothing.
+	 * A version not registered is rejected by checkPreliminaryTreatment before any search, it would otherwise give an empty results file.
+	 */
+	private static PreliminaryKernel selectKernel()
+	{
+		PreliminaryKernel kernel = PreliminaryKernels.get(Parameters.VERSION_PRELIMINARY_TREATMENT());
+		return kernel != null ? kernel : thread -> {};
+	}
+	
+	/**
+	 * Check that the parameter versionPreliminaryTreatment selects a preliminary treatment : the version 3 (tiles) or a version registered in PreliminaryKernels.
+	 * Called by SpecGlobExecutor.initialise before the results file is created, so a wrong value stops the search instead of giving an empty results file.
+	 * @throws IllegalArgumentException if no preliminary treatment has this version
+	 */
+	public static void checkPreliminaryTreatment()
+	{
+		int version = Parameters.VERSION_PRELIMINARY_TREATMENT();
+		if (version != 3 && PreliminaryKernels.get(version) == null)
+		{
+			throw new IllegalArgumentException("The parameter versionPreliminaryTreatment is " + version + " but there is no preliminary treatment with this version (the versions are "
+					+ Arrays.toString(PreliminaryKernels.getVersions()) + " and 3 for the tiles of spectra).");
+		}
+	}
+	
+	/**
+	 * Check if an alignment of a spectrum on a protein may give a location entering the heap of the locations, whose smallest score is min_max_score.
+	 * The score of an alignment only increases on the rows whose amino acid has a position in the spectrum, by MAX_GAIN_MAIN at most, and each increase moves it to a further column,
+	 * the right column of a position of the amino acid of the row. So an amino acid gives at most min(its number in the protein, its number of positions) increases (see loaders.Proteins.countResidues),
+	 * and no scenario can exceed MAX_GAIN_MAIN*min(sum of these increases, number of columns - 1) : if this bound isn't greater than min_max_score, the protein can be skipped without changing the results.
+	 * @param spectrum: the spectrum, in its first transformed version
+	 * @param protein_number: the protein
+	 * @param min_max_score: the smallest score of the heap of the locations of the spectrum
+	 * @return false if the protein can be skipped
+	 */
+	private boolean isWithinReach(TransformedSpectrum spectrum, int protein_number, int min_max_score)
+	{
+		++this.bound_checked_proteins;
+		int max_increases = Math.min(proteins[protein_number].getLength(), spectrum.getColumnCount() - 1);
+		if (MAX_GAIN_MAIN * max_increases > min_max_score)
+		{
+			max_increases = Math.min(Proteins.countResidues(protein_number, spectrum.getAminoAcidsPositionsNumber()), max_increases);
+			if (MAX_GAIN_MAIN * max_increases > min_max_score)
+			{
+				return true;
+			}
+		}
+		++this.bound_skipped_proteins;
+		return false;
+	}
+	
+	private void exportBoundedProteins()
+	{
+		PipelineMetrics.proteinsBounded(this.bound_checked_proteins, this.bound_skipped_proteins);
+		this.bound_checked_proteins = 0;
+		this.bound_skipped_proteins = 0;
+	}
+	
+	private static int maxGainMain()
+	{
+		return Math.max(Math.max(Math.max(Parameters.CERTAINLY_FOUND_MAIN(), Parameters.FOUND_MAIN()), Math.max(Parameters.CERTAINY_FOUND_WITH_SHIFT_MAIN(), Parameters.FOUND_WITH_SHIFT_MAIN())), 0);
+	}
+	
+	/**
+	 * Count the tags of a spectrum contained in each protein (see loaders.Proteins.countTags). The preliminary treatment skips the proteins containing less than MIN_TAG_COUNT of them.
+	 * @param spectrum: the spectrum, in its first transformed version
+	 * @param tags_counts: the array receiving the number of tags contained in each protein
+	 */
+	private static void selectProteins(TransformedSpectrum spectrum, int[] tags_counts)
+	{
+		int selected = Proteins.countTags(spectrum.getTags(), tags_counts);
+		PipelineMetrics.proteinsSelected(selected, number_of_proteins);
+	}
+	
+	/**
+	 * Perform the preliminary treatment of the current spectrum on all the parts of the proteins in parallel : the first part is aligned by this thread, the others by the shards.
+	 * The best locations found on each part are then merged in the interpretations saver of the spectrum, which keeps the NB_LOCATIONS_SAVED best of them.
+	 */
+	private void shardedPreliminaryTreatment() throws InterruptedException, ExecutionException
+	{
+		for (int shard_number = 0; shard_number < this.shards.length; ++shard_number)
+		{
+			SpecGlobThread shard = this.shards[shard_number];
+			shard.current_transformed_spectrum = this.current_transformed_spectrum;
+			shard.tags_counts = this.tags_counts;
+			shard.interpretations_saver.updateSpectrum(shard.trees_position, this.current_native_spectrum);
+			this.shards_futures[shard_number] = SpecGlobExecutor.submitShard(shard::preliminaryTreatment);
+		}
+		this.preliminaryTreatment();
+		for (int shard_number = 0; shard_number < this.shards.length; ++shard_number)
+		{
+			this.shards_futures[shard_number].get();
+		}
+		this.interpretations_saver.mergeLocations(this.shards_savers);
+	}
+	
 	/**
 	 * (Version classique)
 	 * The method performing the first alignment of the current spectrum and all the proteins.
@@ -388,9 +775,13 @@ public final class SpecGlobThread implements Runnable
 	 */
 	private void preliminaryTreatmentv0()
 	{
+		// the options are read once : they are constant in the loops, which the JIT can then specialise (loop unswitching)
+		final boolean three_peaks = !SHUT_DOWN_3_PEAKS_VERSION;
+		final boolean realign = MAX_REALIGNMENT_SIZE >= 2;
 		Protein protein;
 		int tree_id;
 		int[] sequence;
+		double[] prefix_masses;
 		int sequence_length;
 		int current_condition ,position_condition;
 		int row_number;
@@ -402,10 +793,12 @@ public final class SpecGlobThread implements Runnable
 		int last_column;
 		AAPosition[][] all_aa_positions = this.current_transformed_spectrum.getAminoAcidsPositions();
 		int[] all_aa_positions_number = this.current_transformed_spectrum.getAminoAcidsPositionsNumber();
-		AAPosition[] aa_positions;
-		int aa_positions_length;
+		int[] positions_offsets = this.current_transformed_spectrum.getPositionsOffsets();
+		int[] positions_left_columns = this.current_transformed_spectrum.getPositionsLeftColumns();
+		int[] positions_right_columns = this.current_transformed_spectrum.getPositionsRightColumns();
+		int[] positions_conditions = this.current_transformed_spectrum.getPositionsConditions();
+		int aa_positions_end;
 		int aa_position_number;
-		AAPosition position;
 		int current_left_column ,current_right_column;
 		int current_score_shift, current_score_found;
 		int first_realignment_length = 0;// ,current_first_realignement;
@@ -416,8 +809,16 @@ public final class SpecGlobThread implements Runnable
 		int column_count = this.current_transformed_spectrum.getColumnCount();
 		int min_max_score = MIN_SCENARIO_SCORE;	
 		
-		for (int protein_number = 0; protein_number < number_of_proteins; ++protein_number)
+		for (int protein_number = this.first_protein; protein_number < this.last_protein; ++protein_number)
 		{
+			if (MIN_TAG_COUNT > 0 && this.tags_counts[protein_number] < MIN_TAG_COUNT)
+			{
+				continue; // the protein doesn't contain enough tags of the spectrum (see selectProteins)
+			}
+			if (!this.isWithinReach(this.current_transformed_spectrum, protein_number, min_max_score))
+			{
+				continue;
+			}
 			if (false)// && row_number > 255 && row_number < 280)
 			{
 				System.out.print("masses   :");
@@ -450,20 +851,21 @@ public final class SpecGlobThread implements Runnable
 			/*
 			 * Initialization of the first row
 			 */
-			this.interest_cells[1] = 0;
-			for (int j = 4; j < (column_count<<2); j += 4)
+			this.interest_scores[0] = 0;
+			for (int j = 1; j < column_count; ++j)
 			{
-				this.interest_cells[j] = 0;
-				this.interest_cells[j+1] = INITIALISATION_SCORE_MAIN;
+				this.interest_rows[j] = 0;
+				this.interest_scores[j] = INITIALISATION_SCORE_MAIN;
 			}
 			
 			sequence = protein.getSequence();
+			prefix_masses = protein.getPrefixMasses();
 			sequence_length = sequence.length;
 			current_condition = 3;
 			
 			for (row_number = 0; row_number < sequence_length;)
 			{
-				this.interest_cells[0] = row_number;
+				this.interest_rows[0] = row_number;
 				aa_number = sequence[row_number];
 				aa = AminoAcid.get(aa_number);
 				++row_number;
@@ -471,28 +873,25 @@ public final class SpecGlobThread implements Runnable
 				last_max_shift_score = -1;
 				last_max_column = -1;
 				last_column = -1;
-				aa_positions = all_aa_positions[aa_number];
-				aa_positions_length = all_aa_positions_number[aa_number];
+				aa_positions_end = positions_offsets[aa_number] + all_aa_positions_number[aa_number];
 				
 				/*
 				 * For each position of the current amino acid in the current spectrum.
 				 */
-				for (aa_position_number = 0; aa_position_number < aa_positions_length; ++aa_position_number)
+				for (aa_position_number = positions_offsets[aa_number]; aa_position_number < aa_positions_end; ++aa_position_number)
 				{
-					position = aa_positions[aa_position_number];
-					position_condition = position.getCondition();
-					//System.out.println(position.toString());
+					position_condition = positions_conditions[aa_position_number];
 					
 					/*
 					 * The criterion of the 3 peaks version must be respected.
 					 */
-					if ((position_condition & current_condition) != 0 || SHUT_DOWN_3_PEAKS_VERSION)
+					if (!three_peaks || (position_condition & current_condition) != 0)
 					{
 						//System.out.println("traité");
 						
 						first_realignment_length = 0;
-						current_left_column = position.getLeftColumn();
-						current_right_column = position.getRightColumn();
+						current_left_column = positions_left_columns[aa_position_number];
+						current_right_column = positions_right_columns[aa_position_number];
 						current_shift = 0.0;
 						
 						/*
@@ -515,8 +914,7 @@ public final class SpecGlobThread implements Runnable
 						 * not found case
 						 */
 						best_column = current_right_column;
-						int current_right_column4 = current_right_column<<2;
-						best_score = this.interest_cells[current_right_column4 + 1] + NOT_FOUND_MAIN*(row_number - this.interest_cells[current_right_column4]);
+						best_score = this.interest_scores[current_right_column] + NOT_FOUND_MAIN*(row_number - this.interest_rows[current_right_column]);
 						
 						/*
 						 * Second possibility :
@@ -525,17 +923,17 @@ public final class SpecGlobThread implements Runnable
 						 * The condition check that the left peak of the current AAPosition has a column
 						 */
 						if ((position_condition & 1) == 0)
-						{   int current_left_columnInTab = (current_left_column + 1) << 2;
-							if (this.interest_cells[current_left_columnInTab] < row_number - 1)
+						{   int current_left_columnInTab = current_left_column + 1;
+							if (this.interest_rows[current_left_columnInTab] < row_number - 1)
 							{
 								/*
 								 * If the found case follow a shift in the protein. 
 								 */
-								current_score = this.interest_cells[current_left_columnInTab + 1] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_cells[current_left_columnInTab]) + current_score_shift;
+								current_score = this.interest_scores[current_left_columnInTab] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_rows[current_left_columnInTab]) + current_score_shift;
 							}
 							else
 							{
-								current_score = this.interest_cells[current_left_columnInTab + 1] + current_score_found;
+								current_score = this.interest_scores[current_left_columnInTab] + current_score_found;
 							}
 							/*
 							 * Saving the new score if it's the new best one
@@ -550,15 +948,11 @@ public final class SpecGlobThread implements Runnable
 						/*
 						 * Computation of the best position for a shift
 						 */
-						for (int j = last_column + 1; j <= current_left_column; ++j)
+						int shift_column = ShiftMaxKernel.scan(this.interest_rows, this.interest_scores, last_column + 1, current_left_column, row_number - 1, NOT_FOUND_MAIN, last_max_shift_score);
+						if (shift_column != -1)
 						{
-							int j4 = j<<2;
-							current_score = this.interest_cells[j4 + 1] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_cells[j4]);
-							if (current_score > last_max_shift_score)
-							{
-								last_max_shift_score = current_score;
-								last_max_column = j;
-							}
+							last_max_shift_score = this.interest_scores[shift_column] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_rows[shift_column]);
+							last_max_column = shift_column;
 						}
 						last_column = current_left_column;
 						
@@ -570,18 +964,18 @@ public final class SpecGlobThread implements Runnable
 						 */
 						if (current_left_column >= 0)
 						{
-							if (MAX_REALIGNMENT_SIZE >= 2)
+							if (realign)
 							{
 								current_shift = this.current_transformed_spectrum.getShift(last_max_column ,current_right_column ,aa);
 								if (last_max_column == 0)
 								{
 									if (current_score_found > best_score)
 									{
-										while (first_realignment_length < MAX_REALIGNMENT_SIZE && row_number - first_realignment_length >= 2 && current_shift - ACCURACY > this.current_masses[first_realignment_length])
+										while (first_realignment_length < MAX_REALIGNMENT_SIZE && row_number - first_realignment_length >= 2 && current_shift - ACCURACY > (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - first_realignment_length]))
 										{
 											++first_realignment_length;
 										}
-										if (first_realignment_length < MAX_REALIGNMENT_SIZE && row_number - first_realignment_length >= 2 && Math.abs(current_shift - this.current_masses[first_realignment_length]) <= ACCURACY)
+										if (first_realignment_length < MAX_REALIGNMENT_SIZE && row_number - first_realignment_length >= 2 && Math.abs(current_shift - (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - first_realignment_length])) <= ACCURACY)
 										{
 											best_score = current_score_found;
 											best_column = 0;
@@ -597,10 +991,10 @@ public final class SpecGlobThread implements Runnable
 								}
 								else
 								{
-									first_realignment_length = row_number - this.interest_cells[last_max_column<<2] - 2;
-									if (first_realignment_length >= 0 && first_realignment_length < MAX_REALIGNMENT_SIZE && Math.abs(this.current_masses[first_realignment_length] - current_shift) <= ACCURACY)
+									first_realignment_length = row_number - this.interest_rows[last_max_column] - 2;
+									if (first_realignment_length >= 0 && first_realignment_length < MAX_REALIGNMENT_SIZE && Math.abs((prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - first_realignment_length]) - current_shift) <= ACCURACY)
 									{
-										current_score = this.interest_cells[(last_max_column<<2) + 1] + current_score_found;
+										current_score = this.interest_scores[last_max_column] + current_score_found;
 									}
 									else
 									{
@@ -636,8 +1030,8 @@ public final class SpecGlobThread implements Runnable
 							}
 							else
 							{
-								this.scenario_buffer[current_temp_scenario + 2] = this.interest_cells[(best_column<<2) + 2];
-								this.scenario_buffer[current_temp_scenario + 3] = this.interest_cells[(best_column<<2) + 3];
+								this.scenario_buffer[current_temp_scenario + 2] = this.interest_trees[best_column];
+								this.scenario_buffer[current_temp_scenario + 3] = this.interest_beginnings[best_column];
 							}
 							current_temp_scenario += 4;
 						}
@@ -646,15 +1040,15 @@ public final class SpecGlobThread implements Runnable
 				current_condition = (1 << (aa_number + 2)) + 3;
 				
 				/*
-				 * When all the position of the current row are computed, the key-cells in this.scenario_buffer are stored in this.interest_cells.
+				 * When all the position of the current row are computed, the key-cells in this.scenario_buffer are stored in the interest arrays (this.interest_rows, ...).
 				 */
 				for (int i = 0; i < current_temp_scenario; i += 4)
 				{
 					best_column = this.scenario_buffer[i];
-					this.interest_cells[best_column<<2] = row_number;
-					this.interest_cells[(best_column<<2) + 1] = this.scenario_buffer[i + 1];
-					this.interest_cells[(best_column<<2) + 2] = this.scenario_buffer[i + 2];
-					this.interest_cells[(best_column<<2) + 3] = this.scenario_buffer[i + 3];
+					this.interest_rows[best_column] = row_number;
+					this.interest_scores[best_column] = this.scenario_buffer[i + 1];
+					this.interest_trees[best_column] = this.scenario_buffer[i + 2];
+					this.interest_beginnings[best_column] = this.scenario_buffer[i + 3];
 
 					/*
 					 * If a key-cell contains a good enough score, a new LssSM is stored in this.interpretations_saver.
@@ -664,21 +1058,10 @@ public final class SpecGlobThread implements Runnable
 						min_max_score = this.interpretations_saver.tryAddLocation(this.scenario_buffer[i + 3] ,row_number + SURPLUS + (int)(current_transformed_spectrum.getLastShift(best_column)/SMALLEST_MASS) ,this.scenario_buffer[i + 1] ,this.scenario_buffer[i + 2]);
 					}
 				}
-				if (MAX_REALIGNMENT_SIZE >= 2)
-				{
-					/*
-					 * Updating current_masses for the next row
-					 */	
-					for (int i = MAX_REALIGNMENT_SIZE - 1; i >= 1; --i)
-					{
-						this.current_masses[i] = this.current_masses[i - 1] + aa.getMass();
-					}
-					this.current_masses[0] = aa.getMass();
-				}
 				
 				if (false)// && row_number > 255 && row_number < 280)
 				{
-					this.interest_cells[0] = row_number;
+					this.interest_rows[0] = row_number;
 					SpecGlobThread.printCase(row_number);
 					System.out.print(" " + protein.getLetter(row_number - 1) + " :");
 					//System.out.print(row_number + " " + protein.getLetter(row_number - 1) + " :");
@@ -688,7 +1071,7 @@ public final class SpecGlobThread implements Runnable
 						{
 							System.out.print("   ");
 						}
-						SpecGlobThread.printCase(this.interest_cells[(j<<2) + 1] + NOT_FOUND_MAIN*(row_number - this.interest_cells[j<<2]));
+						SpecGlobThread.printCase(this.interest_scores[j] + NOT_FOUND_MAIN*(row_number - this.interest_rows[j]));
 					}
 					for (AAPosition aa_position : all_aa_positions[aa_number])
 					{
@@ -713,9 +1096,16 @@ public final class SpecGlobThread implements Runnable
 	
 	private void preliminaryTreatmentv1()
 	{
+		// the options are read once : they are constant in the loops, which the JIT can then specialise (loop unswitching)
+		final boolean three_peaks = !SHUT_DOWN_3_PEAKS_VERSION;
+		final boolean realign_first_column = MAX_REALIGNMENT_SIZE_FIRST_COLUMN >= 2;
+		final boolean realign = MAX_REALIGNMENT_SIZE >= 2;
+		final boolean fixed_point = FIXED_POINT_MASSES;
 		Protein protein;
 		int tree_id;
 		int[] sequence;
+		double[] prefix_masses;
+		long[] prefix_units;
 		int sequence_length;
 		int current_condition ,position_condition;
 		int row_number;
@@ -727,22 +1117,36 @@ public final class SpecGlobThread implements Runnable
 		int last_column;
 		AAPosition[][] all_aa_positions = this.current_transformed_spectrum.getAminoAcidsPositions();
 		int[] all_aa_positions_number = this.current_transformed_spectrum.getAminoAcidsPositionsNumber();
-		AAPosition[] aa_positions;
-		int aa_positions_length;
+		int[] positions_offsets = this.current_transformed_spectrum.getPositionsOffsets();
+		int[] positions_left_columns = this.current_transformed_spectrum.getPositionsLeftColumns();
+		int[] positions_right_columns = this.current_transformed_spectrum.getPositionsRightColumns();
+		int[] positions_conditions = this.current_transformed_spectrum.getPositionsConditions();
+		int aa_positions_end;
 		int aa_position_number;
-		AAPosition position;
 		int current_left_column ,current_right_column;
 		int current_score_shift, current_score_found;
 		int realignment_length = 0;
 		double current_shift = 0;
+		int current_shift_units = 0;
 		int best_column;
 		int best_score;
 		int current_score;
 		int column_count = this.current_transformed_spectrum.getColumnCount();
 		int min_max_score = MIN_SCENARIO_SCORE;	
+		int[] windows_offsets = Proteins.getWindowsOffsets();
+		int[] windows_masks = Proteins.getWindowsMasks();
+		int amino_acids_mask = this.current_transformed_spectrum.getAminoAcidsMask();
 
-		for (int protein_number = 0; protein_number < number_of_proteins; ++protein_number)
+		for (int protein_number = this.first_protein; protein_number < this.last_protein; ++protein_number)
 		{
+			if (MIN_TAG_COUNT > 0 && this.tags_counts[protein_number] < MIN_TAG_COUNT)
+			{
+				continue; // the protein doesn't contain enough tags of the spectrum (see selectProteins)
+			}
+			if (!this.isWithinReach(this.current_transformed_spectrum, protein_number, min_max_score))
+			{
+				continue;
+			}
 			if (false)
 			{
 				System.out.print("masses   :");
@@ -771,17 +1175,20 @@ public final class SpecGlobThread implements Runnable
 			protein = proteins[protein_number];
 			
 			tree_id = 0;
-			this.interest_cells[1] = 0;
+			this.interest_scores[0] = 0;
 			
 			/*
 			 * Initialization of the first row
 			 */
-			for (int j = 4; j < (column_count<<2); j += 4)
+			for (int j = 1; j < column_count; ++j)
 			{
-				this.interest_cells[j] = 0;
-				this.interest_cells[j+1] = INITIALISATION_SCORE_MAIN;
+				this.interest_rows[j] = 0;
+				this.interest_scores[j] = INITIALISATION_SCORE_MAIN;
 			}
 			sequence = protein.getSequence();
+			// the mass of the k + 1 rows above the row 'row_number' is prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - k], whatever the length of the realignment
+			prefix_masses = protein.getPrefixMasses();
+			prefix_units = protein.getPrefixUnits();
 			sequence_length = sequence.length;
 			current_condition = 3;
 			
@@ -790,7 +1197,16 @@ public final class SpecGlobThread implements Runnable
 			 */
 			for (row_number = 0; row_number < sequence_length;)
 			{
-				this.interest_cells[0] = row_number;
+				if (PREFILTER_WINDOW > 0 && row_number % PREFILTER_WINDOW == 0 && (windows_masks[windows_offsets[protein_number] + row_number / PREFILTER_WINDOW] & amino_acids_mask) == 0)
+				{
+					/*
+					 * No amino acid of the window has a position in the spectrum : its rows don't change any key cell, only the condition is updated
+					 */
+					row_number = Math.min(row_number + PREFILTER_WINDOW, sequence_length);
+					current_condition = (1 << (sequence[row_number - 1] + 2)) + 3;
+					continue;
+				}
+				this.interest_rows[0] = row_number;
 				aa_number = sequence[row_number];
 				aa = AminoAcid.get(aa_number);
 				++row_number;
@@ -798,24 +1214,22 @@ public final class SpecGlobThread implements Runnable
 				last_max_shift_score = -1;
 				last_max_column = -1;
 				last_column = -1;
-				aa_positions = all_aa_positions[aa_number];
-				aa_positions_length = all_aa_positions_number[aa_number];
+				aa_positions_end = positions_offsets[aa_number] + all_aa_positions_number[aa_number];
 				
 				/*
 				 * For each position where the current amino acid is found in the current spectrum
 				 */
-				for (aa_position_number = 0; aa_position_number < aa_positions_length; ++aa_position_number)
+				for (aa_position_number = positions_offsets[aa_number]; aa_position_number < aa_positions_end; ++aa_position_number)
 				{
-					position = aa_positions[aa_position_number];
-					position_condition = position.getCondition();
+					position_condition = positions_conditions[aa_position_number];
 					/*
 					 * This condition correspond to the restriction do to the 3 peaks version
 					 */
-					if ((position_condition & current_condition) != 0 || SHUT_DOWN_3_PEAKS_VERSION)
+					if (!three_peaks || (position_condition & current_condition) != 0)
 					{
 						realignment_length = 0;
-						current_left_column = position.getLeftColumn();
-						current_right_column = position.getRightColumn();
+						current_left_column = positions_left_columns[aa_position_number];
+						current_right_column = positions_right_columns[aa_position_number];
 						current_shift = 0.0;
 						
 						/*
@@ -837,7 +1251,7 @@ public final class SpecGlobThread implements Runnable
 						 * not found case
 						 */
 						best_column = current_right_column;
-						best_score = this.interest_cells[(current_right_column<<2) + 1] + NOT_FOUND_MAIN*(row_number - this.interest_cells[current_right_column<<2]);
+						best_score = this.interest_scores[current_right_column] + NOT_FOUND_MAIN*(row_number - this.interest_rows[current_right_column]);
 						
 						/*
 						 * Second possibility :
@@ -850,13 +1264,13 @@ public final class SpecGlobThread implements Runnable
 							/*
 							 * If it relies on a cell corresponding to a not found case, the score for the found case corresponds to the score of a shift
 							 */
-							if (this.interest_cells[(current_left_column + 1)<<2] < row_number - 1)
+							if (this.interest_rows[current_left_column + 1] < row_number - 1)
 							{
-								current_score = this.interest_cells[((current_left_column + 1)<<2) + 1] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_cells[(current_left_column + 1)<<2]) + current_score_shift;
+								current_score = this.interest_scores[current_left_column + 1] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_rows[current_left_column + 1]) + current_score_shift;
 							}
 							else
 							{
-								current_score = this.interest_cells[((current_left_column + 1)<<2) + 1] + current_score_found;
+								current_score = this.interest_scores[current_left_column + 1] + current_score_found;
 							}
 							/*
 							 * Saving the new score if it's the new best one
@@ -871,14 +1285,11 @@ public final class SpecGlobThread implements Runnable
 						/*
 						 * Found the new best position for a shift
 						 */
-						for (int j = last_column + 1; j <= current_left_column; ++j)
+						int shift_column = ShiftMaxKernel.scan(this.interest_rows, this.interest_scores, last_column + 1, current_left_column, row_number - 1, NOT_FOUND_MAIN, last_max_shift_score);
+						if (shift_column != -1)
 						{
-							current_score = this.interest_cells[(j<<2) + 1] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_cells[j<<2]);
-							if (current_score > last_max_shift_score)
-							{
-								last_max_shift_score = current_score;
-								last_max_column = j;
-							}
+							last_max_shift_score = this.interest_scores[shift_column] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_rows[shift_column]);
+							last_max_column = shift_column;
 						}
 						last_column = current_left_column;
 						
@@ -890,19 +1301,28 @@ public final class SpecGlobThread implements Runnable
 							/*
 							 * Trying a realignment from the first column if it is allowed
 							 */
-							if (MAX_REALIGNMENT_SIZE_FIRST_COLUMN >= 2)
+							if (realign_first_column)
 							{
-								current_shift = this.current_transformed_spectrum.getShift(0 ,current_right_column ,aa);
+								if (fixed_point)
+								{
+									current_shift_units = this.current_transformed_spectrum.getShiftUnits(0 ,current_right_column ,aa);
+								}
+								else
+								{
+									current_shift = this.current_transformed_spectrum.getShift(0 ,current_right_column ,aa);
+								}
 								if (current_score_found > best_score)
 								{
-									while (realignment_length < MAX_REALIGNMENT_SIZE_FIRST_COLUMN && row_number - realignment_length >= 2 && current_shift - ACCURACY > this.current_masses[realignment_length])
+									while (realignment_length < MAX_REALIGNMENT_SIZE_FIRST_COLUMN && row_number - realignment_length >= 2
+											&& (fixed_point ? current_shift_units - ACCURACY_UNITS > (prefix_units[row_number - 1] - prefix_units[row_number - 2 - realignment_length]) : current_shift - ACCURACY > (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length])))
 									{
 										++realignment_length;
 									}
 									/*
 									 * If the realignment works, saving the new score if it's the new best one
 									 */
-									if (realignment_length < MAX_REALIGNMENT_SIZE_FIRST_COLUMN && row_number - realignment_length >= 2 && Math.abs(current_shift - this.current_masses[realignment_length]) <= ACCURACY)
+									if (realignment_length < MAX_REALIGNMENT_SIZE_FIRST_COLUMN && row_number - realignment_length >= 2
+											&& (fixed_point ? Math.abs(current_shift_units - (prefix_units[row_number - 1] - prefix_units[row_number - 2 - realignment_length])) <= ACCURACY_UNITS : Math.abs(current_shift - (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length])) <= ACCURACY))
 									{
 										best_score = current_score_found;
 										best_column = 0;
@@ -913,21 +1333,31 @@ public final class SpecGlobThread implements Runnable
 							/*
 							 * Trying a realignment from the best shift position if it is allowed, ...
 							 */
-							if (MAX_REALIGNMENT_SIZE >= 2)
+							if (realign)
 							{
 								/*
 								 * If the best shift position is the first column, there is no need to try a realignment because it has already been tried just before
 								 */
 								if (last_max_column != 0)
 								{
-									current_shift = this.current_transformed_spectrum.getShift(last_max_column ,current_right_column ,aa);
-									realignment_length = row_number - this.interest_cells[last_max_column<<2] - 2;
-									if (realignment_length >= 0 && realignment_length < MAX_REALIGNMENT_SIZE && Math.abs(this.current_masses[realignment_length] - current_shift) <= ACCURACY)
+									realignment_length = row_number - this.interest_rows[last_max_column] - 2;
+									boolean realigned;
+									if (fixed_point)
+									{
+										current_shift_units = this.current_transformed_spectrum.getShiftUnits(last_max_column ,current_right_column ,aa);
+										realigned = realignment_length >= 0 && realignment_length < MAX_REALIGNMENT_SIZE && Math.abs((prefix_units[row_number - 1] - prefix_units[row_number - 2 - realignment_length]) - current_shift_units) <= ACCURACY_UNITS;
+									}
+									else
+									{
+										current_shift = this.current_transformed_spectrum.getShift(last_max_column ,current_right_column ,aa);
+										realigned = realignment_length >= 0 && realignment_length < MAX_REALIGNMENT_SIZE && Math.abs((prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length]) - current_shift) <= ACCURACY;
+									}
+									if (realigned)
 									{
 										/*
 										 * The realignment works
 										 */
-										current_score = this.interest_cells[(last_max_column<<2) + 1] + current_score_found;
+										current_score = this.interest_scores[last_max_column] + current_score_found;
 									}
 									else
 									{
@@ -976,13 +1406,13 @@ public final class SpecGlobThread implements Runnable
 							{
 								this.trees_position[tree_id] = -1;
 								this.scenario_buffer[current_temp_scenario + 2] = tree_id;
-								this.scenario_buffer[current_temp_scenario + 3] = row_number - realignment_length - SURPLUS - (int)(current_shift/SMALLEST_MASS);
+								this.scenario_buffer[current_temp_scenario + 3] = row_number - realignment_length - SURPLUS - (fixed_point ? current_shift_units/SMALLEST_MASS_UNITS : (int)(current_shift/SMALLEST_MASS));
 								++tree_id;
 							}
 							else
 							{
-								this.scenario_buffer[current_temp_scenario + 2] = this.interest_cells[(best_column<<2) + 2];
-								this.scenario_buffer[current_temp_scenario + 3] = this.interest_cells[(best_column<<2) + 3];
+								this.scenario_buffer[current_temp_scenario + 2] = this.interest_trees[best_column];
+								this.scenario_buffer[current_temp_scenario + 3] = this.interest_beginnings[best_column];
 							}
 							current_temp_scenario += 4;
 						}
@@ -996,10 +1426,10 @@ public final class SpecGlobThread implements Runnable
 				for (int i = 0; i < current_temp_scenario; i += 4)
 				{
 					best_column = this.scenario_buffer[i];
-					this.interest_cells[best_column<<2] = row_number;
-					this.interest_cells[(best_column<<2) + 1] = this.scenario_buffer[i + 1];
-					this.interest_cells[(best_column<<2) + 2] = this.scenario_buffer[i + 2];
-					this.interest_cells[(best_column<<2) + 3] = this.scenario_buffer[i + 3];
+					this.interest_rows[best_column] = row_number;
+					this.interest_scores[best_column] = this.scenario_buffer[i + 1];
+					this.interest_trees[best_column] = this.scenario_buffer[i + 2];
+					this.interest_beginnings[best_column] = this.scenario_buffer[i + 3];
 
 					/*
 					 * Saving the alignment if it is qualitative
@@ -1009,21 +1439,10 @@ public final class SpecGlobThread implements Runnable
 						min_max_score = this.interpretations_saver.tryAddLocation(this.scenario_buffer[i + 3] ,row_number + SURPLUS + (int)(current_transformed_spectrum.getLastShift(best_column)/SMALLEST_MASS) ,this.scenario_buffer[i + 1] ,this.scenario_buffer[i + 2]);
 					}
 				}
-				if (MAX_REALIGNMENT_SIZE >= 2)
-				{
-					/*
-					 * Updating current_masses for the next row
-					 */
-					for (int i = MAX_REALIGNMENT_SIZE - 1; i >= 1; --i)
-					{
-						this.current_masses[i] = this.current_masses[i - 1] + aa.getMass();
-					}
-					this.current_masses[0] = aa.getMass();
-				}
 				
 				if (false)
 				{
-					this.interest_cells[0] = row_number;
+					this.interest_rows[0] = row_number;
 					SpecGlobThread.printCase(row_number);
 					System.out.print(" " + protein.getLetter(row_number - 1) + " :");
 					//System.out.print(row_number + " " + protein.getLetter(row_number - 1) + " :");
@@ -1033,7 +1452,7 @@ public final class SpecGlobThread implements Runnable
 						{
 							System.out.print("   ");
 						}
-						SpecGlobThread.printCase(this.interest_cells[(j<<2) + 1] + NOT_FOUND_MAIN*(row_number - this.interest_cells[j<<2]));
+						SpecGlobThread.printCase(this.interest_scores[j] + NOT_FOUND_MAIN*(row_number - this.interest_rows[j]));
 					}
 					for (AAPosition aa_position : all_aa_positions[aa_number])
 					{
@@ -1057,9 +1476,13 @@ public final class SpecGlobThread implements Runnable
 	 */
 	private void preliminaryTreatmentv2()
 	{
+		// the options are read once : they are constant in the loops, which the JIT can then specialise (loop unswitching)
+		final boolean three_peaks = !SHUT_DOWN_3_PEAKS_VERSION;
+		final boolean realign = MAX_REALIGNMENT_SIZE >= 2;
 		Protein protein;
 		int tree_id;
 		int[] sequence;
+		double[] prefix_masses;
 		int sequence_length;
 		int current_condition ,position_condition;
 		int row_number;
@@ -1068,10 +1491,12 @@ public final class SpecGlobThread implements Runnable
 		int current_temp_scenario;
 		AAPosition[][] all_aa_positions = this.current_transformed_spectrum.getAminoAcidsPositions();
 		int[] all_aa_positions_number = this.current_transformed_spectrum.getAminoAcidsPositionsNumber();
-		AAPosition[] aa_positions;
-		int aa_positions_length;
+		int[] positions_offsets = this.current_transformed_spectrum.getPositionsOffsets();
+		int[] positions_left_columns = this.current_transformed_spectrum.getPositionsLeftColumns();
+		int[] positions_right_columns = this.current_transformed_spectrum.getPositionsRightColumns();
+		int[] positions_conditions = this.current_transformed_spectrum.getPositionsConditions();
+		int aa_positions_end;
 		int aa_position_number;
-		AAPosition position;
 		int current_left_column ,current_right_column;
 		int current_score_shift, current_score_found;
 		int realignment_length = 0;// ,current_first_realignement;
@@ -1082,8 +1507,16 @@ public final class SpecGlobThread implements Runnable
 		int column_count = this.current_transformed_spectrum.getColumnCount();
 		int min_max_score = MIN_SCENARIO_SCORE;	
 		
-		for (int protein_number = 0; protein_number < number_of_proteins; ++protein_number)
+		for (int protein_number = this.first_protein; protein_number < this.last_protein; ++protein_number)
 		{
+			if (MIN_TAG_COUNT > 0 && this.tags_counts[protein_number] < MIN_TAG_COUNT)
+			{
+				continue; // the protein doesn't contain enough tags of the spectrum (see selectProteins)
+			}
+			if (!this.isWithinReach(this.current_transformed_spectrum, protein_number, min_max_score))
+			{
+				continue;
+			}
 			if (false)// && row_number > 255 && row_number < 280)
 			{
 				System.out.print("masses   :");
@@ -1112,34 +1545,33 @@ public final class SpecGlobThread implements Runnable
 			protein = proteins[protein_number];
 			
 			tree_id = 0;
-			this.interest_cells[1] = 0;
+			this.interest_scores[0] = 0;
 			
-			for (int j = 4; j < (column_count<<2); j += 4)
+			for (int j = 1; j < column_count; ++j)
 			{
-				this.interest_cells[j] = 0;
-				this.interest_cells[j+1] = INITIALISATION_SCORE_MAIN;
+				this.interest_rows[j] = 0;
+				this.interest_scores[j] = INITIALISATION_SCORE_MAIN;
 			}
 			sequence = protein.getSequence();
+			prefix_masses = protein.getPrefixMasses();
 			sequence_length = sequence.length;
 			current_condition = 3;
 			for (row_number = 0; row_number < sequence_length;)
 			{
-				this.interest_cells[0] = row_number;
+				this.interest_rows[0] = row_number;
 				aa_number = sequence[row_number];
 				aa = AminoAcid.get(aa_number);
 				++row_number;
 				current_temp_scenario = 0;
-				aa_positions = all_aa_positions[aa_number];
-				aa_positions_length = all_aa_positions_number[aa_number];
-				for (aa_position_number = 0; aa_position_number < aa_positions_length; ++aa_position_number)
+				aa_positions_end = positions_offsets[aa_number] + all_aa_positions_number[aa_number];
+				for (aa_position_number = positions_offsets[aa_number]; aa_position_number < aa_positions_end; ++aa_position_number)
 				{
-					position = aa_positions[aa_position_number];
-					position_condition = position.getCondition();
-					if ((position_condition & current_condition) != 0 || SHUT_DOWN_3_PEAKS_VERSION)
+					position_condition = positions_conditions[aa_position_number];
+					if (!three_peaks || (position_condition & current_condition) != 0)
 					{
 						realignment_length = 0;
-						current_left_column = position.getLeftColumn();
-						current_right_column = position.getRightColumn();
+						current_left_column = positions_left_columns[aa_position_number];
+						current_right_column = positions_right_columns[aa_position_number];
 						current_shift = 0.0;
 						
 						if (this.current_transformed_spectrum.isDoubleColumn(current_right_column))
@@ -1153,19 +1585,19 @@ public final class SpecGlobThread implements Runnable
 							current_score_found = FOUND_MAIN;
 						}
 						best_column = current_right_column;
-						best_score = this.interest_cells[(current_right_column<<2) + 1] + NOT_FOUND_MAIN*(row_number - this.interest_cells[current_right_column<<2]);
+						best_score = this.interest_scores[current_right_column] + NOT_FOUND_MAIN*(row_number - this.interest_rows[current_right_column]);
 						
 						if ((position_condition & 1) == 0)
 						{
-							if (this.interest_cells[(current_left_column + 1)<<2] < row_number - 1)
+							if (this.interest_rows[current_left_column + 1] < row_number - 1)
 							{
 								// -8 / -6
-								current_score = this.interest_cells[((current_left_column + 1)<<2) + 1] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_cells[(current_left_column + 1)<<2]) + current_score_shift;
+								current_score = this.interest_scores[current_left_column + 1] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_rows[current_left_column + 1]) + current_score_shift;
 							}
 							else
 							{
 								// +7 / +10
-								current_score = this.interest_cells[((current_left_column + 1)<<2) + 1] + current_score_found;
+								current_score = this.interest_scores[current_left_column + 1] + current_score_found;
 							}
 							if (current_score >= best_score)
 							{
@@ -1178,16 +1610,16 @@ public final class SpecGlobThread implements Runnable
 							for (int j = 1; j <= current_left_column; ++j)
 							{
 								current_shift = this.current_transformed_spectrum.getShift(j ,current_right_column ,aa);
-								realignment_length = row_number - this.interest_cells[j << 2] - 2; // calcul de l'ecart entre la ligne precedente et la ligne de la derniere case d'interet de la colonne (taille du realignement - 1)
+								realignment_length = row_number - this.interest_rows[j] - 2; // calcul de l'ecart entre la ligne precedente et la ligne de la derniere case d'interet de la colonne (taille du realignement - 1)
 								// premier cas : realignement possible
-								if (realignment_length >= 0 && Math.abs(current_masses[realignment_length] - current_shift) <= ACCURACY)
+								if (realignment_length >= 0 && Math.abs((prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length]) - current_shift) <= ACCURACY)
 								{
-									current_score = this.interest_cells[(j << 2) + 1] + current_score_found;
+									current_score = this.interest_scores[j] + current_score_found;
 								}
 								// deuxieme cas : realignement impossible
 								else
 								{
-									current_score = this.interest_cells[(j << 2) + 1] + NOT_FOUND_POST*((row_number - 1) - this.interest_cells[j << 2]) + current_score_shift;
+									current_score = this.interest_scores[j] + NOT_FOUND_POST*((row_number - 1) - this.interest_rows[j]) + current_score_shift;
 								}
 								
 								// dans tous les cas, on compare ce que l'on a obtenu avec le meilleur scenario trouve jusqu'a maintenant
@@ -1204,12 +1636,12 @@ public final class SpecGlobThread implements Runnable
 								// on remonte le long de la colonne 0
 								current_shift = this.current_transformed_spectrum.getShift(0 ,current_right_column ,aa);
 								realignment_length = 0;
-								while (realignment_length < MAX_REALIGNMENT_SIZE && row_number - realignment_length >= 2 && current_shift - ACCURACY > this.current_masses[realignment_length])
+								while (realignment_length < MAX_REALIGNMENT_SIZE && row_number - realignment_length >= 2 && current_shift - ACCURACY > (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length]))
 								{
 									++realignment_length;
 								}
 								// premier cas : le realignement est possible, alors il devient le nouveau meilleur scenario
-								if (realignment_length < MAX_REALIGNMENT_SIZE && row_number - realignment_length >= 2 && Math.abs(current_shift - this.current_masses[realignment_length]) <= ACCURACY)
+								if (realignment_length < MAX_REALIGNMENT_SIZE && row_number - realignment_length >= 2 && Math.abs(current_shift - (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length])) <= ACCURACY)
 								{
 									++realignment_length;
 									best_score = current_score_found;
@@ -1238,8 +1670,8 @@ public final class SpecGlobThread implements Runnable
 							}
 							else
 							{
-								this.scenario_buffer[current_temp_scenario + 2] = this.interest_cells[(best_column<<2) + 2];
-								this.scenario_buffer[current_temp_scenario + 3] = this.interest_cells[(best_column<<2) + 3];
+								this.scenario_buffer[current_temp_scenario + 2] = this.interest_trees[best_column];
+								this.scenario_buffer[current_temp_scenario + 3] = this.interest_beginnings[best_column];
 							}
 							current_temp_scenario += 4;
 						}
@@ -1249,10 +1681,10 @@ public final class SpecGlobThread implements Runnable
 				for (int i = 0; i < current_temp_scenario; i += 4)
 				{
 					best_column = this.scenario_buffer[i];
-					this.interest_cells[best_column<<2] = row_number;
-					this.interest_cells[(best_column<<2) + 1] = this.scenario_buffer[i + 1];
-					this.interest_cells[(best_column<<2) + 2] = this.scenario_buffer[i + 2];
-					this.interest_cells[(best_column<<2) + 3] = this.scenario_buffer[i + 3];
+					this.interest_rows[best_column] = row_number;
+					this.interest_scores[best_column] = this.scenario_buffer[i + 1];
+					this.interest_trees[best_column] = this.scenario_buffer[i + 2];
+					this.interest_beginnings[best_column] = this.scenario_buffer[i + 3];
 
 					// save the interpretation if it is qualitative
 					if (this.scenario_buffer[i + 1] > min_max_score)
@@ -1260,19 +1692,10 @@ public final class SpecGlobThread implements Runnable
 						min_max_score = this.interpretations_saver.tryAddLocation(this.scenario_buffer[i + 3] ,row_number + SURPLUS + (int)(current_transformed_spectrum.getLastShift(best_column)/SMALLEST_MASS) ,this.scenario_buffer[i + 1] ,this.scenario_buffer[i + 2]);
 					}
 				}
-				if (MAX_REALIGNMENT_SIZE >= 2)
-				{
-					
-					for (int i = MAX_REALIGNMENT_SIZE - 1; i >= 1; --i)
-					{
-						this.current_masses[i] = this.current_masses[i - 1] + aa.getMass();
-					}
-					this.current_masses[0] = aa.getMass();
-				}
 				
 				if (false)// && row_number > 255 && row_number < 280)
 				{
-					this.interest_cells[0] = row_number;
+					this.interest_rows[0] = row_number;
 					SpecGlobThread.printCase(row_number);
 					System.out.print(" " + protein.getLetter(row_number - 1) + " :");
 					//System.out.print(row_number + " " + protein.getLetter(row_number - 1) + " :");
@@ -1282,7 +1705,7 @@ public final class SpecGlobThread implements Runnable
 						{
 							System.out.print("   ");
 						}
-						SpecGlobThread.printCase(this.interest_cells[(j<<2) + 1] + NOT_FOUND_MAIN*(row_number - this.interest_cells[j<<2]));
+						SpecGlobThread.printCase(this.interest_scores[j] + NOT_FOUND_MAIN*(row_number - this.interest_rows[j]));
 					}
 					for (AAPosition aa_position : all_aa_positions[aa_number])
 					{
@@ -1301,43 +1724,878 @@ public final class SpecGlobThread implements Runnable
 		}
 	}
 	
-	/**
-	 * The method performing the second alignment of the current spectrum and all the bests LssSM.
-	 * At the end of the call of this method, the best_interpretation_backup contains the best alignment for the current LssSM.
+	/*
+	 * (Version par tuiles)
+	 * Same alignment as preliminaryTreatmentv1, but performed on all the spectra of the current tile at the same time : each row of a protein is computed for every spectrum of the tile before moving to the next row.
+	 * A protein sequence is thus read once per tile instead of once per spectrum. The results are the same as with preliminaryTreatmentv1.
 	 */
-	private void finalTreatment()
+	private void preliminaryTreatmentv3()
 	{
+		// the options are read once : they are constant in the loops, which the JIT can then specialise (loop unswitching)
+		final boolean three_peaks = !SHUT_DOWN_3_PEAKS_VERSION;
+		final boolean realign_first_column = MAX_REALIGNMENT_SIZE_FIRST_COLUMN >= 2;
+		final boolean realign = MAX_REALIGNMENT_SIZE >= 2;
+		Protein protein;
+		int[] sequence;
+		double[] prefix_masses;
 		int sequence_length;
-		int position_condition;
+		int current_condition ,position_condition;
 		int row_number;
 		int aa_number;
 		AminoAcid aa;
 		int current_temp_scenario;
-		AAPosition[][] all_aa_positions = this.current_transformed_spectrum.getAminoAcidsPositions();
-		int[] all_aa_positions_number = this.current_transformed_spectrum.getAminoAcidsPositionsNumber();
-		AAPosition[] aa_positions;
-		int aa_positions_length;
+		int last_max_shift_score;
+		int last_max_column;
+		int last_column;
+		TransformedSpectrum spectrum;
+		InterpretationsSaver saver;
+		int[] interest_rows;
+		int[] interest_scores;
+		int[] interest_trees;
+		int[] interest_beginnings;
+		int[] scenario_buffer;
+		int[] trees_position;
+		int[] positions_offsets;
+		int[] positions_left_columns;
+		int[] positions_right_columns;
+		int[] positions_conditions;
+		int aa_positions_end;
 		int aa_position_number;
-		AAPosition position;
 		int current_left_column ,current_right_column;
 		int current_score_shift, current_score_found;
-		int realignment_length;
-		double current_shift;
+		int realignment_length = 0;
+		double current_shift = 0;
 		int best_column;
 		int best_score;
-		int current_score;		
-		int column_count = this.current_transformed_spectrum.getColumnCount();
-		this.interest_cells[1] = 0;
-		
-		this.best_interpretation_backup.reinit();
+		int current_score;
+		int column_count;
+		
+		for (int spectrum_number = 0; spectrum_number < this.tile_length; ++spectrum_number)
+		{
+			this.tile_min_max_scores[spectrum_number] = MIN_SCENARIO_SCORE;
+			if (MIN_TAG_COUNT > 0)
+			{
+				if (this.tile_tags_counts[spectrum_number] == null)
+				{
+					this.tile_tags_counts[spectrum_number] = new int[number_of_proteins];
+				}
+				SpecGlobThread.selectProteins(this.tile_transformed_spectra[spectrum_number], this.tile_tags_counts[spectrum_number]);
+			}
+		}
+
+		for (int protein_number = this.first_protein; protein_number < this.last_protein; ++protein_number)
+		{
+			/*
+			 * Only the spectra of the tile for which the protein contains enough tags (see selectProteins) and may give a location good enough (see isWithinReach) are aligned on it
+			 */
+			boolean any_selected = false;
+			for (int spectrum_number = 0; spectrum_number < this.tile_length; ++spectrum_number)
+			{
+				this.tile_selected[spectrum_number] = (MIN_TAG_COUNT == 0 || this.tile_tags_counts[spectrum_number][protein_number] >= MIN_TAG_COUNT)
+						&& this.isWithinReach(this.tile_transformed_spectra[spectrum_number], protein_number, this.tile_min_max_scores[spectrum_number]);
+				any_selected |= this.tile_selected[spectrum_number];
+			}
+			if (!any_selected)
+			{
+				continue;
+			}
+			protein = proteins[protein_number];
+			
+			/*
+			 * Initialization of the first row for each spectrum of the tile
+			 */
+			for (int spectrum_number = 0; spectrum_number < this.tile_length; ++spectrum_number)
+			{
+				this.tile_interpretations_savers[spectrum_number].updateProtein(protein_number);
+				this.tile_trees_id[spectrum_number] = 0;
+				interest_rows = this.tile_interest_rows[spectrum_number];
+				interest_scores = this.tile_interest_scores[spectrum_number];
+				interest_scores[0] = 0;
+				column_count = this.tile_transformed_spectra[spectrum_number].getColumnCount();
+				for (int j = 1; j < column_count; ++j)
+				{
+					interest_rows[j] = 0;
+					interest_scores[j] = INITIALISATION_SCORE_MAIN;
+				}
+			}
+			sequence = protein.getSequence();
+			prefix_masses = protein.getPrefixMasses();
+			sequence_length = sequence.length;
+			current_condition = 3;
+			
+			/*
+			 *  For each amino acid in the current protein sequence
+			 */
+			for (row_number = 0; row_number < sequence_length;)
+			{
+				aa_number = sequence[row_number];
+				aa = AminoAcid.get(aa_number);
+				++row_number;
+				
+				/*
+				 * For each spectrum of the tile, the row is computed as in preliminaryTreatmentv1
+				 */
+				for (int spectrum_number = 0; spectrum_number < this.tile_length; ++spectrum_number)
+				{
+					if (!this.tile_selected[spectrum_number])
+					{
+						continue;
+					}
+					spectrum = this.tile_transformed_spectra[spectrum_number];
+					saver = this.tile_interpretations_savers[spectrum_number];
+					interest_rows = this.tile_interest_rows[spectrum_number];
+					interest_scores = this.tile_interest_scores[spectrum_number];
+					interest_trees = this.tile_interest_trees[spectrum_number];
+					interest_beginnings = this.tile_interest_beginnings[spectrum_number];
+					scenario_buffer = this.tile_scenario_buffers[spectrum_number];
+					trees_position = this.tile_trees_position[spectrum_number];
+					interest_rows[0] = row_number - 1;
+					current_temp_scenario = 0;
+					last_max_shift_score = -1;
+					last_max_column = -1;
+					last_column = -1;
+					positions_offsets = spectrum.getPositionsOffsets();
+					positions_left_columns = spectrum.getPositionsLeftColumns();
+					positions_right_columns = spectrum.getPositionsRightColumns();
+					positions_conditions = spectrum.getPositionsConditions();
+					aa_positions_end = positions_offsets[aa_number] + spectrum.getAminoAcidsPositionsNumber()[aa_number];
+					
+					for (aa_position_number = positions_offsets[aa_number]; aa_position_number < aa_positions_end; ++aa_position_number)
+					{
+						position_condition = positions_conditions[aa_position_number];
+						if (!three_peaks || (position_condition & current_condition) != 0)
+						{
+							realignment_length = 0;
+							current_left_column = positions_left_columns[aa_position_number];
+							current_right_column = positions_right_columns[aa_position_number];
+							current_shift = 0.0;
+							
+							if (spectrum.isDoubleColumn(current_right_column))
+							{
+								current_score_shift = CERTAINLY_FOUND_WITH_SHIFT_MAIN;
+								current_score_found = CERTAINLY_FOUND_MAIN;
+							}
+							else
+							{
+								current_score_shift = FOUND_WITH_SHIFT_MAIN;
+								current_score_found = FOUND_MAIN;
+							}
+							
+							/*
+							 * Not found case
+							 */
+							best_column = current_right_column;
+							best_score = interest_scores[current_right_column] + NOT_FOUND_MAIN*(row_number - interest_rows[current_right_column]);
+							
+							/*
+							 * Found case
+							 */
+							if ((position_condition & 1) == 0)
+							{
+								if (interest_rows[current_left_column + 1] < row_number - 1)
+								{
+									current_score = interest_scores[current_left_column + 1] + NOT_FOUND_MAIN*((row_number - 1) - interest_rows[current_left_column + 1]) + current_score_shift;
+								}
+								else
+								{
+									current_score = interest_scores[current_left_column + 1] + current_score_found;
+								}
+								if (current_score >= best_score)
+								{
+									best_score = current_score;
+									best_column = current_left_column + 1;
+								}
+							}
+							
+							/*
+							 * Found the new best position for a shift
+							 */
+							int shift_column = ShiftMaxKernel.scan(interest_rows, interest_scores, last_column + 1, current_left_column, row_number - 1, NOT_FOUND_MAIN, last_max_shift_score);
+							if (shift_column != -1)
+							{
+								last_max_shift_score = interest_scores[shift_column] + NOT_FOUND_MAIN*((row_number - 1) - interest_rows[shift_column]);
+								last_max_column = shift_column;
+							}
+							last_column = current_left_column;
+							
+							/*
+							 * Shift and realignment cases
+							 */
+							if (current_left_column >= 0)
+							{
+								if (realign_first_column)
+								{
+									current_shift = spectrum.getShift(0 ,current_right_column ,aa);
+									if (current_score_found > best_score)
+									{
+										while (realignment_length < MAX_REALIGNMENT_SIZE_FIRST_COLUMN && row_number - realignment_length >= 2 && current_shift - ACCURACY > (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length]))
+										{
+											++realignment_length;
+										}
+										if (realignment_length < MAX_REALIGNMENT_SIZE_FIRST_COLUMN && row_number - realignment_length >= 2 && Math.abs(current_shift - (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length])) <= ACCURACY)
+										{
+											best_score = current_score_found;
+											best_column = 0;
+											++realignment_length;
+										}
+									}
+								}
+								if (realign)
+								{
+									if (last_max_column != 0)
+									{
+										current_shift = spectrum.getShift(last_max_column ,current_right_column ,aa);
+										realignment_length = row_number - interest_rows[last_max_column] - 2;
+										if (realignment_length >= 0 && realignment_length < MAX_REALIGNMENT_SIZE && Math.abs((prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length]) - current_shift) <= ACCURACY)
+										{
+											current_score = interest_scores[last_max_column] + current_score_found;
+										}
+										else
+										{
+											current_score = last_max_shift_score + current_score_shift;
+										}
+										if (current_score > best_score)
+										{
+											best_score = current_score;
+											best_column = last_max_column;
+										}
+									}
+									else if (current_score_shift > best_score)
+									{
+										best_score = current_score_shift;
+										best_column = 0;
+										realignment_length = 0;
+									}
+								}
+								else if (last_max_shift_score + current_score_shift > best_score)
+								{
+									best_score = last_max_shift_score + current_score_shift;
+									best_column = last_max_column;
+								}
+							}
+							
+							/*
+							 * If the best case is not a not found case, it is stored in the differents structures
+							 */
+							if (best_column != current_right_column)
+							{
+								scenario_buffer[current_temp_scenario] = current_right_column;
+								scenario_buffer[current_temp_scenario + 1] = best_score;
+								if (best_column == 0)
+								{
+									trees_position[this.tile_trees_id[spectrum_number]] = -1;
+									scenario_buffer[current_temp_scenario + 2] = this.tile_trees_id[spectrum_number];
+									scenario_buffer[current_temp_scenario + 3] = row_number - realignment_length - SURPLUS - (int)(current_shift/SMALLEST_MASS);
+									++this.tile_trees_id[spectrum_number];
+								}
+								else
+								{
+									scenario_buffer[current_temp_scenario + 2] = interest_trees[best_column];
+									scenario_buffer[current_temp_scenario + 3] = interest_beginnings[best_column];
+								}
+								current_temp_scenario += 4;
+							}
+						}
+					}
+					
+					/*
+					 * Saving all the scenarios for the current row
+					 */
+					for (int i = 0; i < current_temp_scenario; i += 4)
+					{
+						best_column = scenario_buffer[i];
+						interest_rows[best_column] = row_number;
+						interest_scores[best_column] = scenario_buffer[i + 1];
+						interest_trees[best_column] = scenario_buffer[i + 2];
+						interest_beginnings[best_column] = scenario_buffer[i + 3];
+						if (scenario_buffer[i + 1] > this.tile_min_max_scores[spectrum_number])
+						{
+							this.tile_min_max_scores[spectrum_number] = saver.tryAddLocation(scenario_buffer[i + 3] ,row_number + SURPLUS + (int)(spectrum.getLastShift(best_column)/SMALLEST_MASS) ,scenario_buffer[i + 1] ,scenario_buffer[i + 2]);
+						}
+					}
+				}
+				
+				current_condition = (1 << (aa_number + 2)) + 3;
+			}
+		}
+		this.exportBoundedProteins();
+	}
+	
+	/**
+	 * (Version 1 sur l'arbre des prefixes)
+	 * The method performing the first alignment of the current spectrum and all the proteins, as preliminaryTreatmentv1, but on the prefix tree of the proteins (see datastructures.ProteinsTrie) :
+	 * the beginning of a sequence shared by several proteins (as they are stored) is aligned once for all of them.
+	 * The rows of a node only depend on the rows of its ancestors, so the nodes are visited in depth-first order and the state of the alignment (the interest arrays, the number of trees,
+	 * and the condition) is saved at the end of the nodes having several children, to start each of them.
+	 * The locations that may be saved are recorded for each node, then they are given to the interpretations saver protein by protein, in the order of the proteins and of the rows,
+	 * as preliminaryTreatmentv1 would have done it : the results are the same and each location is attributed to all the proteins containing it.
+	 */
+	private void preliminaryTreatmentv4()
+	{
+		// the options are read once : they are constant in the loops, which the JIT can then specialise (loop unswitching)
+		final boolean three_peaks = !SHUT_DOWN_3_PEAKS_VERSION;
+		final boolean realign_first_column = MAX_REALIGNMENT_SIZE_FIRST_COLUMN >= 2;
+		final boolean realign = MAX_REALIGNMENT_SIZE >= 2;
+		ProteinsTrie trie = Proteins.getTrie();
+		int node_count = trie.getNodeCount();
+		int tree_id;
+		int[] sequence;
+		double[] prefix_masses;
+		int current_condition ,position_condition;
+		int row_number;
+		int aa_number;
+		AminoAcid aa;
+		int current_temp_scenario;
+		int last_max_shift_score;
+		int last_max_column;
+		int last_column;
+		int[] all_aa_positions_number = this.current_transformed_spectrum.getAminoAcidsPositionsNumber();
+		int[] positions_offsets = this.current_transformed_spectrum.getPositionsOffsets();
+		int[] positions_left_columns = this.current_transformed_spectrum.getPositionsLeftColumns();
+		int[] positions_right_columns = this.current_transformed_spectrum.getPositionsRightColumns();
+		int[] positions_conditions = this.current_transformed_spectrum.getPositionsConditions();
+		int aa_positions_end;
+		int aa_position_number;
+		int current_left_column ,current_right_column;
+		int current_score_shift, current_score_found;
+		int realignment_length = 0;
+		double current_shift = 0;
+		int best_column;
+		int best_score;
+		int current_score;
+		int column_count = this.current_transformed_spectrum.getColumnCount();
+		int min_max_score = MIN_SCENARIO_SCORE;
+		int events_count = 0;
+		int snapshots_count = 0;
+		int current_node = 0; // the node whose last row is in the interest arrays
+		
+		if (this.trie_events_start == null || this.trie_events_start.length != node_count)
+		{
+			this.trie_events_start = new int[node_count];
+			this.trie_events_end = new int[node_count];
+			this.trie_trees_count = new int[node_count];
+			this.trie_selected = new boolean[node_count];
+			this.trie_path = new int[trie.getMaxNodesDepth()];
+			this.trie_snapshots = new int[trie.getMaxNodesDepth() + 1][];
+			this.trie_snapshots_nodes = new int[trie.getMaxNodesDepth() + 1];
+			this.trie_events = new int[this.scenario_buffer.length];
+		}
+		
+		if (MIN_TAG_COUNT > 0)
+		{
+			/*
+			 * Only the nodes of the proteins containing enough tags of the spectrum are aligned (see selectProteins)
+			 */
+			Arrays.fill(this.trie_selected, false);
+			for (int protein_number = this.first_protein; protein_number < this.last_protein; ++protein_number)
+			{
+				if (this.tags_counts[protein_number] >= MIN_TAG_COUNT)
+				{
+					for (int node = trie.getTerminal(protein_number); node != -1 && !this.trie_selected[node]; node = trie.getParent(node))
+					{
+						this.trie_selected[node] = true;
+					}
+				}
+			}
+		}
+		
+		/*
+		 * Initialization of the first row, at the root of the tree
+		 */
+		tree_id = 0;
+		this.interest_scores[0] = 0;
+		for (int j = 1; j < column_count; ++j)
+		{
+			this.interest_rows[j] = 0;
+			this.interest_scores[j] = INITIALISATION_SCORE_MAIN;
+		}
+		current_condition = 3;
+		this.trie_trees_count[0] = 0;
+		if (trie.isBranching(0))
+		{
+			this.saveTrieState(snapshots_count++, 0, column_count, tree_id, current_condition);
+		}
+		
+		for (int node = 1; node < node_count; ++node)
+		{
+			if (MIN_TAG_COUNT > 0 && !this.trie_selected[node])
+			{
+				node = trie.getSubtreeEnd(node) - 1;
+				continue;
+			}
+			if (trie.getParent(node) != current_node)
+			{
+				/*
+				 * The state at the end of the parent is restored, the states saved after it belong to subtrees already aligned
+				 */
+				while (this.trie_snapshots_nodes[snapshots_count - 1] != trie.getParent(node))
+				{
+					--snapshots_count;
+				}
+				int[] snapshot = this.trie_snapshots[snapshots_count - 1];
+				System.arraycopy(snapshot, 0, this.interest_rows, 0, column_count);
+				System.arraycopy(snapshot, column_count, this.interest_scores, 0, column_count);
+				System.arraycopy(snapshot, column_count << 1, this.interest_trees, 0, column_count);
+				System.arraycopy(snapshot, column_count * 3, this.interest_beginnings, 0, column_count);
+				tree_id = snapshot[column_count << 2];
+				current_condition = snapshot[(column_count << 2) + 1];
+			}
+			sequence = proteins[trie.getProtein(node)].getSequence();
+			prefix_masses = proteins[trie.getProtein(node)].getPrefixMasses();
+			this.trie_events_start[node] = events_count;
+			
+			/*
+			 *  For each amino acid of the node, computed as in preliminaryTreatmentv1
+			 */
+			for (row_number = trie.getParentDepth(node); row_number < trie.getDepth(node);)
+			{
+				this.interest_rows[0] = row_number;
+				aa_number = sequence[row_number];
+				aa = AminoAcid.get(aa_number);
+				++row_number;
+				current_temp_scenario = 0;
+				last_max_shift_score = -1;
+				last_max_column = -1;
+				last_column = -1;
+				aa_positions_end = positions_offsets[aa_number] + all_aa_positions_number[aa_number];
+				
+				for (aa_position_number = positions_offsets[aa_number]; aa_position_number < aa_positions_end; ++aa_position_number)
+				{
+					position_condition = positions_conditions[aa_position_number];
+					if (!three_peaks || (position_condition & current_condition) != 0)
+					{
+						realignment_length = 0;
+						current_left_column = positions_left_columns[aa_position_number];
+						current_right_column = positions_right_columns[aa_position_number];
+						current_shift = 0.0;
+						
+						if (this.current_transformed_spectrum.isDoubleColumn(current_right_column))
+						{
+							current_score_shift = CERTAINLY_FOUND_WITH_SHIFT_MAIN;
+							current_score_found = CERTAINLY_FOUND_MAIN;
+						}
+						else
+						{
+							current_score_shift = FOUND_WITH_SHIFT_MAIN;
+							current_score_found = FOUND_MAIN;
+						}
+						
+						/*
+						 * Not found case
+						 */
+						best_column = current_right_column;
+						best_score = this.interest_scores[current_right_column] + NOT_FOUND_MAIN*(row_number - this.interest_rows[current_right_column]);
+						
+						/*
+						 * Found case
+						 */
+						if ((position_condition & 1) == 0)
+						{
+							if (this.interest_rows[current_left_column + 1] < row_number - 1)
+							{
+								current_score = this.interest_scores[current_left_column + 1] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_rows[current_left_column + 1]) + current_score_shift;
+							}
+							else
+							{
+								current_score = this.interest_scores[current_left_column + 1] + current_score_found;
+							}
+							if (current_score >= best_score)
+							{
+								best_score = current_score;
+								best_column = current_left_column + 1;
+							}
+						}
+						
+						/*
+						 * Shift case
+						 */
+						int shift_column = ShiftMaxKernel.scan(this.interest_rows, this.interest_scores, last_column + 1, current_left_column, row_number - 1, NOT_FOUND_MAIN, last_max_shift_score);
+						if (shift_column != -1)
+						{
+							last_max_shift_score = this.interest_scores[shift_column] + NOT_FOUND_MAIN*((row_number - 1) - this.interest_rows[shift_column]);
+							last_max_column = shift_column;
+						}
+						last_column = current_left_column;
+						
+						if (current_left_column >= 0)
+						{
+							if (realign_first_column)
+							{
+								current_shift = this.current_transformed_spectrum.getShift(0 ,current_right_column ,aa);
+								if (current_score_found > best_score)
+								{
+									while (realignment_length < MAX_REALIGNMENT_SIZE_FIRST_COLUMN && row_number - realignment_length >= 2 && current_shift - ACCURACY > (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length]))
+									{
+										++realignment_length;
+									}
+									if (realignment_length < MAX_REALIGNMENT_SIZE_FIRST_COLUMN && row_number - realignment_length >= 2 && Math.abs(current_shift - (prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length])) <= ACCURACY)
+									{
+										best_score = current_score_found;
+										best_column = 0;
+										++realignment_length;
+									}
+								}
+							}
+							if (realign)
+							{
+								if (last_max_column != 0)
+								{
+									current_shift = this.current_transformed_spectrum.getShift(last_max_column ,current_right_column ,aa);
+									realignment_length = row_number - this.interest_rows[last_max_column] - 2;
+									if (realignment_length >= 0 && realignment_length < MAX_REALIGNMENT_SIZE && Math.abs((prefix_masses[row_number - 1] - prefix_masses[row_number - 2 - realignment_length]) - current_shift) <= ACCURACY)
+									{
+										current_score = this.interest_scores[last_max_column] + current_score_found;
+									}
+									else
+									{
+										current_score = last_max_shift_score + current_score_shift;
+									}
+									if (current_score > best_score)
+									{
+										best_score = current_score;
+										best_column = last_max_column;
+									}
+								}
+								else if (current_score_shift > best_score)
+								{
+									best_score = current_score_shift;
+									best_column = 0;
+									realignment_length = 0;
+								}
+							}
+							else if (last_max_shift_score + current_score_shift > best_score)
+							{
+								best_score = last_max_shift_score + current_score_shift;
+								best_column = last_max_column;
+							}
+						}
+						
+						/*
+						 * The trees_position of the interpretations saver are reset for each protein when the locations are given to it
+						 */
+						if (best_column != current_right_column)
+						{
+							this.scenario_buffer[current_temp_scenario] = current_right_column;
+							this.scenario_buffer[current_temp_scenario + 1] = best_score;
+							if (best_column == 0)
+							{
+								this.scenario_buffer[current_temp_scenario + 2] = tree_id;
+								this.scenario_buffer[current_temp_scenario + 3] = row_number - realignment_length - SURPLUS - (int)(current_shift/SMALLEST_MASS);
+								++tree_id;
+							}
+							else
+							{
+								this.scenario_buffer[current_temp_scenario + 2] = this.interest_trees[best_column];
+								this.scenario_buffer[current_temp_scenario + 3] = this.interest_beginnings[best_column];
+							}
+							current_temp_scenario += 4;
+						}
+					}
+				}
+				
+				current_condition = (1 << (aa_number + 2)) + 3;
+				/*
+				 * Saving all the scenarios for the current row, the locations which may be saved are recorded
+				 */
+				for (int i = 0; i < current_temp_scenario; i += 4)
+				{
+					best_column = this.scenario_buffer[i];
+					this.interest_rows[best_column] = row_number;
+					this.interest_scores[best_column] = this.scenario_buffer[i + 1];
+					this.interest_trees[best_column] = this.scenario_buffer[i + 2];
+					this.interest_beginnings[best_column] = this.scenario_buffer[i + 3];
+					if (this.scenario_buffer[i + 1] > MIN_SCENARIO_SCORE)
+					{
+						if (events_count + 4 > this.trie_events.length)
+						{
+							this.trie_events = Arrays.copyOf(this.trie_events, this.trie_events.length << 1);
+						}
+						this.trie_events[events_count] = this.scenario_buffer[i + 3];
+						this.trie_events[events_count + 1] = row_number + SURPLUS + (int)(current_transformed_spectrum.getLastShift(best_column)/SMALLEST_MASS);
+						this.trie_events[events_count + 2] = this.scenario_buffer[i + 1];
+						this.trie_events[events_count + 3] = this.scenario_buffer[i + 2];
+						events_count += 4;
+					}
+				}
+			}
+			this.trie_events_end[node] = events_count;
+			this.trie_trees_count[node] = tree_id;
+			current_node = node;
+			if (trie.isBranching(node))
+			{
+				this.saveTrieState(snapshots_count++, node, column_count, tree_id, current_condition);
+			}
+		}
+		
+		/*
+		 * The locations of each protein are given to the interpretations saver, from the root to the node of the protein
+		 */
+		for (int protein_number = this.first_protein; protein_number < this.last_protein; ++protein_number)
+		{
+			if (MIN_TAG_COUNT > 0 && this.tags_counts[protein_number] < MIN_TAG_COUNT)
+			{
+				continue;
+			}
+			this.interpretations_saver.updateProtein(protein_number);
+			int path_length = 0;
+			for (int node = trie.getTerminal(protein_number); node != 0; node = trie.getParent(node))
+			{
+				this.trie_path[path_length++] = node;
+			}
+			Arrays.fill(this.trees_position, 0, this.trie_trees_count[trie.getTerminal(protein_number)], -1);
+			for (int path_position = path_length - 1; path_position >= 0; --path_position)
+			{
+				int node = this.trie_path[path_position];
+				for (int event = this.trie_events_start[node]; event < this.trie_events_end[node]; event += 4)
+				{
+					if (this.trie_events[event + 2] > min_max_score)
+					{
+						min_max_score = this.interpretations_saver.tryAddLocation(this.trie_events[event] ,this.trie_events[event + 1] ,this.trie_events[event + 2] ,this.trie_events[event + 3]);
+					}
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Save the state of the alignment at the end of a node of the prefix tree (see preliminaryTreatmentv4)
+	 */
+	private void saveTrieState(int slot, int node, int column_count, int tree_id, int current_condition)
+	{
+		if (this.trie_snapshots[slot] == null || this.trie_snapshots[slot].length < (column_count << 2) + 2)
+		{
+			this.trie_snapshots[slot] = new int[(this.interest_trees.length << 2) + 2];
+		}
+		int[] snapshot = this.trie_snapshots[slot];
+		System.arraycopy(this.interest_rows, 0, snapshot, 0, column_count);
+		System.arraycopy(this.interest_scores, 0, snapshot, column_count, column_count);
+		System.arraycopy(this.interest_trees, 0, snapshot, column_count << 1, column_count);
+		System.arraycopy(this.interest_beginnings, 0, snapshot, column_count * 3, column_count);
+		snapshot[column_count << 2] = tree_id;
+		snapshot[(column_count << 2) + 1] = current_condition;
+		this.trie_snapshots_nodes[slot] = node;
+	}
+	
+	/**
+	 * Align the current location with each candidate non-aligned mass of the interpretation 'interpretation_number', the best alignment is kept in alignments_bucket[NB_INTERPRETATIONS_SAVED].
+	 * The candidates are independent : each of them starts from the peak mask and the path of the interpretation, which are copied first.
+	 * They are evaluated by this thread and, while some cores are free (see SpecGlobExecutor.reserveSpareCores), by mass tasks in the fork-join pool of the SpecGlobExecutor.
+	 * Each task keeps its best alignment in its own buckets, the best of them is then kept with Alignment.compareTo. On a tie, the alignment of the first candidate is kept,
+	 * so the results don't depend on the number of tasks.
+	 * @param interpretation_number: the position of the interpretation in the alignments bucket
+	 * @param possible_non_aligned_masses: the candidate non-aligned masses of the interpretation
+	 */
+	private void alignNonAlignedMasses(int interpretation_number, ArrayList<Double> possible_non_aligned_masses) throws InterruptedException, ExecutionException
+	{
+		Alignment interpretation = this.alignments_bucket[interpretation_number];
+		int[] peak_mask = interpretation.getTransformedSpectrum().getPeakMask();
+		System.arraycopy(peak_mask, 0, this.interpretation_peak_mask, 0, peak_mask.length);
+		this.setBand(interpretation);
+		if (this.banded)
+		{
+			if (this.interpretation_band_masses == null || this.interpretation_band_masses.length < this.current_location.getLength() + 1)
+			{
+				this.interpretation_band_masses = new double[this.current_location.getLength() + 1];
+			}
+			System.arraycopy(this.band_masses, 0, this.interpretation_band_masses, 0, this.current_location.getLength() + 1);
+		}
+		
+		this.next_mass_number.set(0);
+		/*
+		 * Each mass task runs on a reserved free core, which it gives back as soon as it ends
+		 */
+		int tasks_number = this.mass_tasks == null ? 0 : SpecGlobExecutor.reserveSpareCores(Math.min(this.mass_tasks.length, possible_non_aligned_masses.size() - 1));
+		for (int task_number = 0; task_number < tasks_number; ++task_number)
+		{
+			SpecGlobThread task = this.mass_tasks[task_number];
+			task.current_native_spectrum = this.current_native_spectrum;
+			task.current_location = this.current_location;
+			task.next_mass_number = this.next_mass_number;
+			task.interpretation_peak_mask = this.interpretation_peak_mask;
+			task.interpretation_band_masses = this.interpretation_band_masses;
+			this.mass_tasks_futures[task_number] = SpecGlobExecutor.submitNonAlignedMasses(() -> {
+				try
+				{
+					task.evaluateNonAlignedMasses(possible_non_aligned_masses, 0);
+				}
+				finally
+				{
+					SpecGlobExecutor.releaseCores(1);
+				}
+			});
+		}
+		this.evaluateNonAlignedMasses(possible_non_aligned_masses, NB_INTERPRETATIONS_SAVED);
+		
+		Alignment alignment_temp;
+		TransformedSpectrum spectrum_temp;
+		int comparison;
+		for (int task_number = 0; task_number < tasks_number; ++task_number)
+		{
+			this.mass_tasks_futures[task_number].get();
+			SpecGlobThread task = this.mass_tasks[task_number];
+			if (task.best_mass_number != -1)
+			{
+				comparison = task.alignments_bucket[0].compareTo(this.alignments_bucket[NB_INTERPRETATIONS_SAVED]);
+				if (comparison == -1 || (comparison == 0 && task.best_mass_number < this.best_mass_number))
+				{
+					/*
+					 * The alignment and its spectrum are exchanged with those of the task, each of them stays used by one thread only
+					 */
+					alignment_temp = this.alignments_bucket[NB_INTERPRETATIONS_SAVED];
+					this.alignments_bucket[NB_INTERPRETATIONS_SAVED] = task.alignments_bucket[0];
+					task.alignments_bucket[0] = alignment_temp;
+					spectrum_temp = this.transformed_spectra_bucket[NB_INTERPRETATIONS_SAVED];
+					this.transformed_spectra_bucket[NB_INTERPRETATIONS_SAVED] = task.transformed_spectra_bucket[0];
+					task.transformed_spectra_bucket[0] = spectrum_temp;
+					this.best_mass_number = task.best_mass_number;
+				}
+			}
+		}
+		PipelineMetrics.nonAlignedMassesEvaluated(possible_non_aligned_masses.size(), tasks_number);
+	}
+	
+	/*
+	 * Evaluate the candidate non-aligned masses taken from next_mass_number until none remains, the best alignment is kept in the slot 'base' of the buckets
+	 * and its candidate in best_mass_number. The candidates are taken in increasing order, so on a tie the first one is kept.
+	 */
+	private void evaluateNonAlignedMasses(ArrayList<Double> possible_non_aligned_masses, int base)
+	{
+		this.alignments_bucket[base].clear();
+		this.best_mass_number = -1;
+		int mass_number;
+		while ((mass_number = this.next_mass_number.getAndIncrement()) < possible_non_aligned_masses.size())
+		{
+			this.current_non_aligned_mass = possible_non_aligned_masses.get(mass_number);
+			this.current_peak_mask = this.mass_peak_mask;
+			System.arraycopy(this.interpretation_peak_mask, 0, this.current_peak_mask, 0, this.current_peak_mask.length);
+			this.current_transformed_spectrum = this.transformed_spectra_bucket[base + 1];
+			this.current_native_spectrum.transform(this.current_transformed_spectrum, this.current_peak_mask, this.current_non_aligned_mass, this.transform_workspace);
+			
+			/*
+			 * We use the second system of scores to perform the alignment, around the path of the alignment without non-aligned mass.
+			 */
+			this.setBand(this.interpretation_band_masses);
+			long final_start = PipelineMetrics.start();
+			this.finalTreatment();
+			PipelineMetrics.record(PipelineMetrics.Stage.FINAL_TREATMENT, final_start);
+			
+			/*
+			 * The verification that the alignment has a high enough score.
+			 */
+			if (this.best_interpretation_backup.getScore() > MIN_SCENARIO_SCORE)
+			{
+				this.current_alignment = this.alignments_bucket[base + 1];
+				this.current_alignment.overwrite(this.best_interpretation_backup, this.current_transformed_spectrum, this.traceback, this.current_location);
+				
+				if (!SHUT_DOWN_PEAKS_CLEANING)
+				{
+					/*
+					 * A correction can be apply to the alignment if it rely several times on the same peak in the spectrum.
+					 */
+					this.current_position_in_bucket = base + 1;
+					long cleaning_start = PipelineMetrics.start();
+					this.cleanPeaksUsedSeveralTimes();
+					PipelineMetrics.record(PipelineMetrics.Stage.PEAKS_CLEANING, cleaning_start);
+				}
+				
+				/*
+				 * Only the best alignment is kept. The best is the one with the best score and with the most peaks in common in case of a tie.
+				 */
+				if (this.current_alignment.compareTo(this.alignments_bucket[base]) == -1)
+				{
+					this.alignments_bucket[base + 1] = this.alignments_bucket[base];
+					this.alignments_bucket[base] = this.current_alignment;
+					this.transformed_spectra_bucket[base + 1] = this.transformed_spectra_bucket[base];
+					this.transformed_spectra_bucket[base] = this.current_transformed_spectrum;
+					this.best_mass_number = mass_number;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The method performing the second alignment of the current spectrum and all the bests LssSM.
+	 * At the end of the call of this method, the best_interpretation_backup contains the best alignment for the current LssSM.
+	 * If this alignment refines a previous one (see setBand), only a band of columns around the path of the previous alignment is computed first.
+	 * The full matrix is computed if the best path found touches the edge of the band, as a better path may lie outside of it.
+	 * With FINAL_TREATMENT_CACHE_SIZE, the results computed on the full matrix are kept for the current spectrum, and reused if the same location is aligned again
+	 * on the same transformation of the spectrum (same removed peaks and same non-aligned mass).
+	 */
+	private void finalTreatment()
+	{
+		int column_count = this.current_transformed_spectrum.getColumnCount();
+		if (this.traceback.length < 3*(this.current_location.getLength() + 1)*column_count)
+		{
+			this.traceback = new int[3*(this.current_location.getLength() + 1)*column_count];
+		}
+		boolean first_transformation = this.current_transformed_spectrum == this.first_transformed_spectrum;
+		if (this.final_treatment_cache != null)
+		{
+			boolean hit = this.final_treatment_cache.restore(this.current_location, this.current_transformed_spectrum, first_transformation, this.current_native_spectrum.getNumberOfNativePeaks(), this.traceback, this.best_interpretation_backup);
+			PipelineMetrics.finalTreatmentCached(hit);
+			if (hit)
+			{
+				return;
+			}
+		}
+		if (this.banded && this.computeBand(column_count))
+		{
+			this.finalTreatment(true);
+			boolean saturated = this.isBandSaturated(column_count);
+			PipelineMetrics.finalTreatmentBanded(saturated);
+			if (!saturated)
+			{
+				return;
+			}
+		}
+		this.finalTreatment(false);
+		if (this.final_treatment_cache != null)
+		{
+			this.final_treatment_cache.save(this.current_location, this.current_transformed_spectrum, first_transformation, this.current_native_spectrum.getNumberOfNativePeaks(), this.traceback, this.best_interpretation_backup);
+		}
+	}
+	
+	/*
+	 * The dynamic programming of the final treatment. With 'banded', only the columns band_first_columns[i] to band_last_columns[i] of the row i are computed,
+	 * and the shifts only start from these columns (or from the column 0).
+	 */
+	private void finalTreatment(boolean banded)
+	{
+		int sequence_length;
+		int position_condition;
+		int row_number;
+		int aa_number;
+		AminoAcid aa;
+		int current_temp_scenario;
+		AAPosition[][] all_aa_positions = this.current_transformed_spectrum.getAminoAcidsPositions();
+		int[] all_aa_positions_number = this.current_transformed_spectrum.getAminoAcidsPositionsNumber();
+		int[] positions_offsets = this.current_transformed_spectrum.getPositionsOffsets();
+		AAPosition[] aa_positions;
+		int aa_positions_length;
+		int aa_position_number;
+		AAPosition position;
+		int current_left_column ,current_right_column;
+		int current_score_shift, current_score_found;
+		int realignment_length;
+		double current_shift;
+		int best_column;
+		int best_score;
+		int current_score;		
+		int column_count = this.current_transformed_spectrum.getColumnCount();
+		int cell;
+		int first_column = 1;
+		int last_column = column_count - 1;
+		this.interest_scores[0] = 0;
+		
+		this.best_interpretation_backup.reinit();
 		
 		/*
 		 * Initialization of the first row
 		 */
-		for (int j = 2; j < (column_count << 1); j+=2)
+		for (int j = 1; j < column_count; ++j)
 		{
-			this.interest_cells[j] = 0;
-			this.interest_cells[j+1] = INITIALISATION_SCORE_POST;
+			this.interest_rows[j] = 0;
+			this.interest_scores[j] = INITIALISATION_SCORE_POST;
 		}
 		sequence_length = this.current_location.getLength();
 		if (false)
@@ -1370,13 +2628,18 @@ public final class SpecGlobThread implements Runnable
 		 */
 		for (row_number = 0; row_number < sequence_length;)
 		{
-			this.interest_cells[0] = row_number;
+			this.interest_rows[0] = row_number;
 			aa_number = this.current_location.get(row_number);
 			aa = AminoAcid.get(aa_number);
 			++row_number;
 			current_temp_scenario = 0;
 			aa_positions = all_aa_positions[aa_number];
 			aa_positions_length = all_aa_positions_number[aa_number];
+			if (banded)
+			{
+				first_column = this.band_first_columns[row_number];
+				last_column = this.band_last_columns[row_number];
+			}
 			
 			/*
 			 * For each position of the current amino acid in the current spectrum.
@@ -1388,6 +2651,18 @@ public final class SpecGlobThread implements Runnable
 				current_left_column = position.getLeftColumn();
 				current_right_column = position.getRightColumn();
 				
+				/*
+				 * Only the positions whose right column is in the band of the row are computed (the positions are sorted by right column)
+				 */
+				if (current_right_column > last_column)
+				{
+					break;
+				}
+				if (current_right_column < first_column)
+				{
+					continue;
+				}
+				
 				/*
 				 * The score of a shift and a found depend on the fact that the corresponding peak in the spectrum is double or not.
 				 */
@@ -1409,7 +2684,7 @@ public final class SpecGlobThread implements Runnable
 				 * not found case
 				 */
 				best_column = current_right_column;
-				best_score = this.interest_cells[(current_right_column << 1) + 1] + NOT_FOUND_POST*(row_number - this.interest_cells[current_right_column << 1]);
+				best_score = this.interest_scores[current_right_column] + NOT_FOUND_POST*(row_number - this.interest_rows[current_right_column]);
 				
 				/*
 				 * Second possibility :
@@ -1422,16 +2697,16 @@ public final class SpecGlobThread implements Runnable
 					/*
 					 * If it rely on a cell corresponding to a not found case, the score for the found case correspond to the score of a shift
 					 */
-					if (this.interest_cells[(current_left_column + 1)<<1] < row_number - 1)
+					if (this.interest_rows[current_left_column + 1] < row_number - 1)
 					{
 						/*
 						 * If the found case follow a shift in the protein. 
 						 */
-						current_score = this.interest_cells[((current_left_column + 1) << 1) + 1] + NOT_FOUND_POST*((row_number - 1) - this.interest_cells[(current_left_column + 1) << 1]) + current_score_shift;
+						current_score = this.interest_scores[current_left_column + 1] + NOT_FOUND_POST*((row_number - 1) - this.interest_rows[current_left_column + 1]) + current_score_shift;
 					}
 					else
 					{
-						current_score = this.interest_cells[((current_left_column + 1) << 1) + 1] + current_score_found;
+						current_score = this.interest_scores[current_left_column + 1] + current_score_found;
 					}
 					/*
 					 * Saving the new score if it's the new best one
@@ -1451,23 +2726,23 @@ public final class SpecGlobThread implements Runnable
 					/*
 					 * Trying a realignment for each possible shift, except for the first column
 					 */
-					for (int j = 1; j <= current_left_column; ++j)
+					for (int j = first_column; j <= current_left_column; ++j)
 					{
 						current_shift = this.current_transformed_spectrum.getShift(j ,current_right_column ,aa);
-						realignment_length = row_number - this.interest_cells[j << 1] - 2;
-						if (realignment_length >= 0 && Math.abs(current_masses[realignment_length] - current_shift) <= ACCURACY)
+						realignment_length = row_number - this.interest_rows[j] - 2;
+						if (realignment_length >= 0 && Math.abs(this.current_location.getMass(row_number - 2 - realignment_length, row_number - 1) - current_shift) <= ACCURACY)
 						{
 							/*
 							 * The realignment works
 							 */
-							current_score = this.interest_cells[(j << 1) + 1] + current_score_found;
+							current_score = this.interest_scores[j] + current_score_found;
 						}
 						else
 						{
 							/*
 							 * The realignment doesn't works
 							 */
-							current_score = this.interest_cells[(j << 1) + 1] + NOT_FOUND_POST*((row_number - 1) - this.interest_cells[j << 1]) + current_score_shift;
+							current_score = this.interest_scores[j] + NOT_FOUND_POST*((row_number - 1) - this.interest_rows[j]) + current_score_shift;
 						}
 						
 						/*
@@ -1487,14 +2762,14 @@ public final class SpecGlobThread implements Runnable
 					{
 						current_shift = this.current_transformed_spectrum.getShift(0 ,current_right_column ,aa);
 						realignment_length = 0;
-						while (row_number - realignment_length >= 2 && current_shift - ACCURACY > this.current_masses[realignment_length])
+						while (row_number - realignment_length >= 2 && current_shift - ACCURACY > this.current_location.getMass(row_number - 2 - realignment_length, row_number - 1))
 						{
 							++realignment_length;
 						}
 						/*
 						 * If the realignment works, saving the new score if it's the new best one
 						 */
-						if (row_number - realignment_length >= 2 && Math.abs(current_shift - this.current_masses[realignment_length]) <= ACCURACY)
+						if (row_number - realignment_length >= 2 && Math.abs(current_shift - this.current_location.getMass(row_number - 2 - realignment_length, row_number - 1)) <= ACCURACY)
 						{
 							++realignment_length;
 							best_score = current_score_found;
@@ -1519,14 +2794,18 @@ public final class SpecGlobThread implements Runnable
 				{						
 					this.scenario_buffer[current_temp_scenario] = current_right_column;
 					this.scenario_buffer[current_temp_scenario + 1] = best_score;
+					cell = 3*(row_number*column_count + current_right_column);
 					if (best_column == 0)
 					{
-						this.scenarios_matrice.get(row_number).get(current_right_column).update(row_number - 1 - realignment_length, 0, position);
+						this.traceback[cell] = row_number - 1 - realignment_length;
+						this.traceback[cell + 1] = 0;
 					}
 					else
 					{
-						this.scenarios_matrice.get(row_number).get(current_right_column).update(this.interest_cells[best_column << 1], best_column, position);
+						this.traceback[cell] = this.interest_rows[best_column];
+						this.traceback[cell + 1] = best_column;
 					}
+					this.traceback[cell + 2] = positions_offsets[aa_number] + aa_position_number;
 					current_temp_scenario += 2;
 				}
 	        }
@@ -1537,30 +2816,18 @@ public final class SpecGlobThread implements Runnable
 			for (int i = 0; i < current_temp_scenario; i += 2)
 			{
 				best_column = this.scenario_buffer[i];
-				this.interest_cells[best_column << 1] = row_number;
-				this.interest_cells[(best_column << 1) + 1] = this.scenario_buffer[i + 1];
+				this.interest_rows[best_column] = row_number;
+				this.interest_scores[best_column] = this.scenario_buffer[i + 1];
 				
 				/*
 				 * Saving the alignment if it the new best one
 				 */
-				this.best_interpretation_backup.tryImprove(this.interest_cells[(best_column << 1) + 1], row_number, best_column);
-			}
-			
-			if (MAX_REALIGNMENT_SIZE >= 2)
-			{
-				/*
-				 * Updating current_masses for the next row
-				 */
-				for (int i = row_number - 1; i >= 1; --i)
-				{
-					this.current_masses[i] = this.current_masses[i - 1] + aa.getMass();
-				}
-				this.current_masses[0] = aa.getMass();
+				this.best_interpretation_backup.tryImprove(this.interest_scores[best_column], row_number, best_column);
 			}
 			
 			if (false)
 			{
-				this.interest_cells[0] = row_number;
+				this.interest_rows[0] = row_number;
 				//System.out.print(row_number + " " + AminoAcid.getLetter(this.current_sequence[row_number - 1]) + " :");
 				//System.out.print(row_number + " " + AminoAcid.getLetter(this.current_location.get(row_number)) + " :");
 				SpecGlobThread.printCase(row_number);
@@ -1571,7 +2838,7 @@ public final class SpecGlobThread implements Runnable
 					{
 						System.out.print("   ");
 					}
-					SpecGlobThread.printCase(this.interest_cells[(j << 1) + 1] + NOT_FOUND_POST*(row_number - this.interest_cells[j<<1]));
+					SpecGlobThread.printCase(this.interest_scores[j] + NOT_FOUND_POST*(row_number - this.interest_rows[j]));
 				}
 				/*
 				for (AAPosition aa_position : all_aa_positions[aa_number])
@@ -1595,6 +2862,121 @@ public final class SpecGlobThread implements Runnable
 		}
 	}
 
+	/*
+	 * The following final treatments refine the alignment in parameter : with FINAL_TREATMENT_BAND, they only compute the columns close to its path (see finalTreatment).
+	 * As the columns of the refined spectra differ from those of its spectrum, the path is kept as the mass of its column on each row of the current location.
+	 * On the rows between two cells of the path, the path stays in the column of the upper cell.
+	 */
+	private void setBand(Alignment reference)
+	{
+		this.banded = FINAL_TREATMENT_BAND > 0;
+		if (!this.banded)
+		{
+			return;
+		}
+		int sequence_length = this.current_location.getLength();
+		this.allocateBand(sequence_length + 1);
+		TransformedSpectrum spectrum = reference.getTransformedSpectrum();
+		ArrayList<Scenario> scenarios = reference.getScenarios();
+		int scenario_number = 0;
+		Scenario scenario = scenarios.get(0);
+		for (int row = sequence_length; row >= 0; --row)
+		{
+			while (row < scenario.getPreviousLineNumber() && scenario.getPreviousColumnNumber() > 0)
+			{
+				++scenario_number;
+				scenario = scenarios.get(scenario_number);
+			}
+			this.band_masses[row] = spectrum.getColumnMass(row < scenario.getPreviousLineNumber() ? 0 : scenario.getPreviousColumnNumber());
+		}
+	}
+	
+	/*
+	 * Same as the previous method, the path of the refined alignment is given by the masses of its columns (see band_masses)
+	 */
+	private void setBand(double[] masses)
+	{
+		this.banded = FINAL_TREATMENT_BAND > 0;
+		if (this.banded)
+		{
+			this.allocateBand(this.current_location.getLength() + 1);
+			System.arraycopy(masses, 0, this.band_masses, 0, this.current_location.getLength() + 1);
+		}
+	}
+	
+	private void allocateBand(int rows_count)
+	{
+		if (this.band_masses == null || this.band_masses.length < rows_count)
+		{
+			this.band_masses = new double[rows_count];
+			this.band_first_columns = new int[rows_count];
+			this.band_last_columns = new int[rows_count];
+		}
+	}
+	
+	/*
+	 * Compute the band of each row for the current spectrum : the columns at most FINAL_TREATMENT_BAND columns away from the column whose mass is the closest to band_masses.
+	 * The masses of the columns and of the path increase, so the closest columns are found in a single pass.
+	 * Return false if the band would contain all the columns.
+	 */
+	private boolean computeBand(int column_count)
+	{
+		if (2*FINAL_TREATMENT_BAND + 1 >= column_count - 1)
+		{
+			return false;
+		}
+		int column = 0;
+		int closest_column;
+		double mass;
+		for (int row = 1; row <= this.current_location.getLength(); ++row)
+		{
+			mass = this.band_masses[row];
+			while (column + 1 < column_count && this.current_transformed_spectrum.getColumnMass(column + 1) <= mass)
+			{
+				++column;
+			}
+			closest_column = column;
+			if (column + 1 < column_count && this.current_transformed_spectrum.getColumnMass(column + 1) - mass < mass - this.current_transformed_spectrum.getColumnMass(column))
+			{
+				closest_column = column + 1;
+			}
+			this.band_first_columns[row] = Math.max(closest_column - FINAL_TREATMENT_BAND, 1);
+			this.band_last_columns[row] = Math.min(closest_column + FINAL_TREATMENT_BAND, column_count - 1);
+		}
+		return true;
+	}
+	
+	/*
+	 * Check if the result of a banded final treatment must be computed again on the full matrix : no alignment is found in the band, or the best path found
+	 * touches the edge of the band (the first and the last columns of the spectrum are not edges), i.e. one of its cells is on the edge, or it stays in the first
+	 * column of the band on the rows before one of its cells. A path lying entirely outside the band is still not detected, so the band is a heuristic.
+	 */
+	private boolean isBandSaturated(int column_count)
+	{
+		if (this.best_interpretation_backup.getScore() <= MIN_SCENARIO_SCORE)
+		{
+			return true;
+		}
+		int row = this.best_interpretation_backup.getLineNumber();
+		int column = this.best_interpretation_backup.getColumnNumber();
+		int cell;
+		while (column > 0)
+		{
+			cell = 3*(row*column_count + column);
+			if (this.band_first_columns[row] > 1 && (column == this.band_first_columns[row] || (this.traceback[cell + 1] > 0 && this.traceback[cell + 1] <= this.band_first_columns[row])))
+			{
+				return true;
+			}
+			if (column == this.band_last_columns[row] && column < column_count - 1)
+			{
+				return true;
+			}
+			row = this.traceback[cell];
+			column = this.traceback[cell + 1];
+		}
+		return false;
+	}
+
 	/*
 	 * Method used to print the score of a cell with a fixed quantity of characters.
 	 */
@@ -1648,47 +3030,62 @@ public final class SpecGlobThread implements Runnable
 	}
 
 	/**
-	 * This method is used to extends the height of the scenarios_matrix to the height in parameter
-	 * @param height: the expected height for the matrix 
+	 * Clear the alignments found a second time in another chunk of the same protein (see loaders.Proteins.updateChunks) : a location crossing the beginning of the overlap
+	 * of two chunks is kept in both chunks, and the final treatment gives the same alignment in both, or a shorter one with a shift in the chunk cutting the peptide.
+	 * Two alignments are the same if their amino acids overlap, once the lines of the chunks are mapped back to the lines of the whole protein.
+	 * The alignments bucket must be sorted, so the best of two duplicates is kept.
+	 * @return true if an alignment has been cleared
 	 */
-	private void expandMatriceHeight(int height)
+	private boolean clearChunksDuplicates()
 	{
-		int width = this.scenarios_matrice.get(0).size();
-		ArrayList<Scenario> line;
-		while (height > this.scenarios_matrice.size())
+		boolean cleared = false;
+		for (int i = 1; i < NB_LOCATIONS_SAVED && this.alignments_bucket[i].getScore() > MIN_SCENARIO_SCORE; ++i)
 		{
-			this.scenarios_matrice.add(new ArrayList<Scenario>(width));
-			line = this.scenarios_matrice.get(this.scenarios_matrice.size() - 1);
-			for (int column_number = 0; column_number < width; ++column_number)
+			for (int j = 0; j < i; ++j)
 			{
-				line.add(new Scenario());
+				if (SpecGlobThread.sameChunksAlignment(this.alignments_bucket[j], this.alignments_bucket[i]))
+				{
+					this.alignments_bucket[i].clear();
+					cleared = true;
+					break;
+				}
 			}
-			
 		}
+		return cleared;
 	}
 	
-	/**
-	 * This method is used to extends the width of the scenarios_matrix to the width in parameter
-	 * @param width: the expected width for the matrix  
+	/*
+	 * Two alignments in two different chunks of the same protein, whose lines overlap once mapped back to the whole protein
+	 */
+	private static boolean sameChunksAlignment(Alignment first, Alignment second)
+	{
+		Location first_location = first.getLocation();
+		Location second_location = second.getLocation();
+		if (first_location.getProtein() == second_location.getProtein() || !first_location.getProtein().getName().equals(second_location.getProtein().getName()))
+		{
+			return false;
+		}
+		int first_shift = first_location.getShift() + first_location.getBeginning();
+		int second_shift = second_location.getShift() + second_location.getBeginning();
+		return first_shift + SpecGlobThread.firstLine(first) < second_shift + second.getScenarios().get(0).getPreviousLineNumber()
+				&& second_shift + SpecGlobThread.firstLine(second) < first_shift + first.getScenarios().get(0).getPreviousLineNumber();
+	}
+	
+	/*
+	 * The line of the first cell of an alignment, i.e. the number of amino acids of its location before its first amino acid
 	 */
-	private void expandMatriceWidth(int width)
+	private static int firstLine(Alignment alignment)
 	{
-		int delta = width - this.scenarios_matrice.get(0).size();
-		if (delta > 0)
+		for (Scenario scenario : alignment.getScenarios())
 		{
-			ArrayList<Scenario> expansion;
-			for (int row_number = 0; row_number < this.scenarios_matrice.size(); ++row_number)
+			if (scenario.getPreviousColumnNumber() == 0)
 			{
-				expansion = new ArrayList<Scenario>(delta);
-				for (int i = 0; i < delta; ++i)
-				{
-					expansion.add(new Scenario());
-				}
-				this.scenarios_matrice.get(row_number).addAll(expansion);
+				return scenario.getPreviousLineNumber();
 			}
 		}
+		return 0;
 	}
-	
+
 	/**
 	 * This method is used to check if the current alignment has at least one peak used several times. If it's the case, new alignments are computed until no peak is used several times
 	 */
@@ -1774,6 +3171,7 @@ public final class SpecGlobThread implements Runnable
 			 */
 			if (current_group_number > 0)
 			{
+				this.setBand(this.current_alignment);
 				this.alignments_bucket[this.current_position_in_bucket].clear();
 				this.alignments_bucket[this.current_position_in_bucket + 1].clear();
 				this.tryAllRedundantGroups(0, current_group_number);
@@ -1808,12 +3206,12 @@ public final class SpecGlobThread implements Runnable
 			 * For a given combination, a new spectrum is built and a new alignment is performed on it and the current LssSM
 			 */
 			this.current_transformed_spectrum = this.transformed_spectra_bucket[this.current_position_in_bucket + 2];
-			this.current_native_spectrum.transform(this.current_transformed_spectrum, this.current_peak_mask, this.current_non_aligned_mass);
+			this.current_native_spectrum.transform(this.current_transformed_spectrum, this.current_peak_mask, this.current_non_aligned_mass, this.transform_workspace);
 			this.finalTreatment();
 			if (this.best_interpretation_backup.getScore() >= this.alignments_bucket[current_position_in_bucket + 1].getScore() && this.best_interpretation_backup.getScore() > MIN_SCENARIO_SCORE)
 			{
 				this.current_alignment = this.alignments_bucket[current_position_in_bucket + 2];
-				this.current_alignment.overwrite(this.best_interpretation_backup, this.current_transformed_spectrum, this.scenarios_matrice, this.current_location);
+				this.current_alignment.overwrite(this.best_interpretation_backup, this.current_transformed_spectrum, this.traceback, this.current_location);
 				if (this.current_alignment.compareTo(this.alignments_bucket[current_position_in_bucket + 1]) == -1)
 				{
 					/*
@@ -1877,6 +3275,7 @@ public final class SpecGlobThread implements Runnable
 		FOUND_WITH_SHIFT_MAIN = Parameters.FOUND_WITH_SHIFT_MAIN();
 		NOT_FOUND_MAIN = Parameters.NOT_FOUND_MAIN();
 		INITIALISATION_SCORE_MAIN = Parameters.INITIALISATION_SCORE_MAIN();
+		MAX_GAIN_MAIN = SpecGlobThread.maxGainMain();
 		
 		CERTAINLY_FOUND_POST = Parameters.CERTAINLY_FOUND_POST();
 		FOUND_POST = Parameters.FOUND_POST();
@@ -1888,11 +3287,23 @@ public final class SpecGlobThread implements Runnable
 		SHUT_DOWN_3_PEAKS_VERSION = Parameters.SHUT_DOWN_3_PEAKS_VERSION();
 		SHUT_DOWN_NON_ALIGNED_MASS = Parameters.SHUT_DOWN_NON_ALIGNED_MASS();
 		SHUT_DOWN_PEAKS_CLEANING = Parameters.SHUT_DOWN_PEAKS_CLEANING();
+		FINAL_TREATMENT_BAND = Parameters.FINAL_TREATMENT_BAND();
+		FINAL_TREATMENT_CACHE_SIZE = Parameters.FINAL_TREATMENT_CACHE_SIZE();
 		
 		SMALLEST_MASS = AminoAcid.SMALLESTMASS();
+		FIXED_POINT_MASSES = Parameters.FIXED_POINT_MASSES();
+		ACCURACY_UNITS = AminoAcid.toUnits(Parameters.ACCURACY());
+		SMALLEST_MASS_UNITS = AminoAcid.toUnits(AminoAcid.SMALLESTMASS());
 		SURPLUS = Parameters.SURPLUS();
+		NB_PROTEIN_SHARDS = Parameters.NB_PROTEIN_SHARDS();
+		NB_NON_ALIGNED_MASS_TASKS = Parameters.NB_NON_ALIGNED_MASS_TASKS();
+		NB_SPECTRA_PER_TILE = Parameters.NB_SPECTRA_PER_TILE();
+		MIN_TAG_COUNT = Parameters.MIN_TAG_COUNT();
+		PREFILTER_WINDOW = Parameters.PREFILTER_WINDOW();
+		PRELIMINARY_KERNEL = SpecGlobThread.selectKernel();
 
 		number_of_proteins = Proteins.getNumberOfProteins();
 		proteins = Proteins.get();
+		chunks_shift = Proteins.getChunksShift();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,397 @@
+package algorithms;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import constantes.Parameters;
+import loaders.Spectra;
+import main.Main;
+
+/**
+ * This class allows to split a search in several processes, on the same machine or on several machines sharing a file system.
+ * The coordinator splits the spectra file in contiguous shards, written in a work directory next to the results file ("<results file>.shards").
+ * Each shard is then aligned by a worker, a SpecPeptidOMS process launched with the option "--worker <work directory>", which claims the shards one after another.
+ * A shard is claimed by renaming its file "shard_i.todo" in "shard_i.running", this renaming is atomic so a shard is never treated twice.
+ * When all the shards are done, the coordinator merges the results files of the shards in the final results file, in the order of the shards,
+ * so this file is the same as the one obtained with a single process.
+ * Only the MGF spectra files can be split.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class SpectraShards {
+
+	private static final String READY_FILE = "ready";
+	private static final long POLLING_DELAY = 1000;
+	/*
+	 * The first columns of a row of a results file : title;scan;id;peptide;...
+	 * The title may contain some ';', but the peptide is only made of upper case letters, so the last match is the right one.
+	 */
+	private static final Pattern ROW_PATTERN = Pattern.compile("^(.*;-?\\d+;)(\\d+)(;[A-Z]+;.*)$");
+
+	/**
+	 * Split the spectra file, launch the local workers, wait for the end of all the shards and merge their results.
+	 * @param number_of_shards: the number of shards the spectra file is split in
+	 * @param number_of_local_workers: the number of workers launched on this machine, 0 if the workers are launched by the user (on other machines, for example)
+	 */
+	public static void coordinate(int number_of_shards, int number_of_local_workers) throws IOException, InterruptedException
+	{
+		if (!Parameters.SPECTRA_FILE().endsWith(".mgf"))
+		{
+			throw new IOException("Only the MGF spectra files can be split in shards.");
+		}
+		File directory = new File(Parameters.RESULTS_FOLDER_PATH() + "/" + Parameters.RESULTS_FILE() + ".shards");
+		SpectraShards.prepareDirectory(directory);
+		number_of_shards = SpectraShards.split(directory, number_of_shards);
+		for (int shard_number = 0; shard_number < number_of_shards; ++shard_number)
+		{
+			new File(directory, "shard_" + shard_number + ".todo").createNewFile();
+		}
+		new File(directory, READY_FILE).createNewFile();
+		System.out.println("The spectra file has been split in " + number_of_shards + " shards, in the directory \"" + directory.getPath() + "\".");
+
+		Process[] workers = new Process[number_of_local_workers];
+		for (int worker_number = 0; worker_number < number_of_local_workers; ++worker_number)
+		{
+			workers[worker_number] = SpectraShards.launchWorker(directory, worker_number);
+		}
+		try
+		{
+			SpectraShards.waitShards(directory, number_of_shards, workers);
+		}
+		finally
+		{
+			for (Process worker : workers)
+			{
+				worker.destroy();
+			}
+		}
+		SpectraShards.merge(directory, number_of_shards);
+		SpectraShards.deleteDirectory(directory);
+	}
+
+	/**
+	 * Align the shards of a work directory until none is left to claim. The directory must have been prepared by a coordinator, the worker waits for it otherwise.
+	 * @param directory_path: the path of the work directory
+	 */
+	public static void work(String directory_path) throws Exception
+	{
+		File directory = new File(directory_path);
+		while (!new File(directory, READY_FILE).exists())
+		{
+			Thread.sleep(POLLING_DELAY);
+		}
+		Parameters.setSpectra_folder_path(directory.getPath());
+		Parameters.setResults_folder_path(directory.getPath());
+		int shard_number;
+		boolean proteins_loaded = false;
+		while ((shard_number = SpectraShards.claim(directory)) != -1)
+		{
+			System.out.println("Shard " + shard_number + " claimed.");
+			// the proteins stay loaded between the shards, only the spectra of the previous shard are unloaded (the results and the checkpoint are created by SpecGlobExecutor.initialise)
+			Spectra.reset();
+			Parameters.setSpectra_file("shard_" + shard_number + ".mgf");
+			Parameters.setResults_file("shard_" + shard_number + ".csv");
+			try
+			{
+				proteins_loaded = Main.search(!proteins_loaded) || proteins_loaded;
+			}
+			catch (Exception e)
+			{
+				SpectraShards.writeStatus(directory, shard_number, ".failed", String.valueOf(e.getMessage()));
+				throw e;
+			}
+			SpectraShards.writeStatus(directory, shard_number, ".done", String.valueOf(Spectra.getNumberOfSpectra()));
+		}
+	}
+
+	/*
+	 * Create the work directory, or empty it if it remains from a previous search
+	 */
+	private static void prepareDirectory(File directory) throws IOException
+	{
+		if (directory.isDirectory())
+		{
+			for (File file : directory.listFiles())
+			{
+				file.delete();
+			}
+		}
+		else if (!directory.mkdirs())
+		{
+			throw new IOException("The work directory \"" + directory.getPath() + "\" can't be created.");
+		}
+	}
+
+	/*
+	 * Write the shards of the spectra file : each shard contains a contiguous block of spectra.
+	 * The lines placed before a "BEGIN IONS" stay with the following spectrum, and the lines after the last spectrum go in the last shard, so the shards are loaded exactly as the whole file.
+	 * Return the number of shards, lower than the requested number if there are not enough spectra.
+	 */
+	private static int split(File directory, int number_of_shards) throws IOException
+	{
+		String path = Parameters.SPECTRA_FOLDER_PATH() + "/" + Parameters.SPECTRA_FILE();
+		int number_of_spectra = 0;
+		String line;
+		BufferedReader input = SpectraShards.open(path);
+		try
+		{
+			while ((line = input.readLine()) != null)
+			{
+				if (line.startsWith("END IONS"))
+				{
+					++number_of_spectra;
+				}
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+		number_of_shards = Math.max(1, Math.min(number_of_shards, number_of_spectra));
+
+		input = SpectraShards.open(path);
+		try
+		{
+			int spectrum_number = 0;
+			for (int shard_number = 0; shard_number < number_of_shards; ++shard_number)
+			{
+				int last_spectrum = (int) ((long) number_of_spectra * (shard_number + 1) / number_of_shards);
+				PrintWriter output = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, "shard_" + shard_number + ".mgf"))));
+				try
+				{
+					while ((spectrum_number < last_spectrum || shard_number == number_of_shards - 1) && (line = input.readLine()) != null)
+					{
+						output.write(line + "\n");
+						if (line.startsWith("END IONS"))
+						{
+							++spectrum_number;
+						}
+					}
+				}
+				finally
+				{
+					output.close();
+				}
+				if (output.checkError())
+				{
+					throw new IOException("The program stopped due to an IOException during the writing of the spectra shards.");
+				}
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+		return number_of_shards;
+	}
+
+	/*
+	 * Launch a worker with the same java executable, class path, JVM options and parameters file as this process. Its output is redirected to 'worker_k.log' in the work directory.
+	 */
+	private static Process launchWorker(File directory, int worker_number) throws IOException
+	{
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Main.class.getName());
+		command.add("--c");
+		command.add("--paramFile");
+		command.add(Parameters.getParamFile());
+		command.add("--worker");
+		command.add(directory.getPath());
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(new File(directory, "worker_" + worker_number + ".log"));
+		return builder.start();
+	}
+
+	/*
+	 * Wait until all the shards are done. An exception is thrown as soon as a shard failed, or if all the local workers stopped before the end.
+	 */
+	private static void waitShards(File directory, int number_of_shards, Process[] workers) throws IOException, InterruptedException
+	{
+		int number_of_done_shards = 0;
+		while (number_of_done_shards < number_of_shards)
+		{
+			Thread.sleep(POLLING_DELAY);
+			int done = 0;
+			for (int shard_number = 0; shard_number < number_of_shards; ++shard_number)
+			{
+				if (new File(directory, "shard_" + shard_number + ".failed").exists())
+				{
+					throw new IOException("The shard " + shard_number + " failed: " + SpectraShards.readStatus(directory, shard_number, ".failed"));
+				}
+				if (new File(directory, "shard_" + shard_number + ".done").exists())
+				{
+					++done;
+				}
+			}
+			if (done != number_of_done_shards)
+			{
+				number_of_done_shards = done;
+				System.out.println(number_of_done_shards + "/" + number_of_shards + " shards done.");
+			}
+			else if (workers.length > 0 && number_of_done_shards < number_of_shards)
+			{
+				boolean alive = false;
+				for (Process worker : workers)
+				{
+					alive |= worker.isAlive();
+				}
+				if (!alive)
+				{
+					throw new IOException("All the workers stopped before the end of the search, see the files \"worker_k.log\" in \"" + directory.getPath() + "\".");
+				}
+			}
+		}
+	}
+
+	/*
+	 * Return the number of the claimed shard, -1 if there is no shard left
+	 */
+	private static int claim(File directory) throws IOException
+	{
+		for (int shard_number = 0; new File(directory, "shard_" + shard_number + ".mgf").exists(); ++shard_number)
+		{
+			try
+			{
+				Files.move(new File(directory, "shard_" + shard_number + ".todo").toPath(), new File(directory, "shard_" + shard_number + ".running").toPath(), StandardCopyOption.ATOMIC_MOVE);
+				return shard_number;
+			}
+			catch (NoSuchFileException e)
+			{
+				// already claimed by another worker
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				throw new IOException("The file system of the work directory doesn't support atomic renaming, the shards can't be claimed safely.");
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * The status file is written under a temporary name and then renamed, so the coordinator never reads an incomplete one
+	 */
+	private static void writeStatus(File directory, int shard_number, String status, String content) throws IOException
+	{
+		File temporary = new File(directory, "shard_" + shard_number + status + ".tmp");
+		PrintWriter output = new PrintWriter(new FileWriter(temporary));
+		output.write(content + "\n");
+		output.close();
+		if (output.checkError())
+		{
+			throw new IOException("The program stopped due to an IOException during the writing of the status of the shard " + shard_number + ".");
+		}
+		Files.move(temporary.toPath(), new File(directory, "shard_" + shard_number + status).toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String readStatus(File directory, int shard_number, String status) throws IOException
+	{
+		BufferedReader input = SpectraShards.open(new File(directory, "shard_" + shard_number + status).getPath());
+		try
+		{
+			return input.readLine();
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+
+	/*
+	 * Concatenate the results files of the shards in the final results file. The intern identifiers of the spectra are shifted by the number of spectra of the previous shards.
+	 */
+	private static void merge(File directory, int number_of_shards) throws IOException
+	{
+		String results_path = Parameters.RESULTS_FOLDER_PATH() + "/" + Parameters.RESULTS_FILE();
+		PrintWriter output = null;
+		int offset = 0;
+		try
+		{
+			for (int shard_number = 0; shard_number < number_of_shards; ++shard_number)
+			{
+				File shard_results = new File(directory, "shard_" + shard_number + ".csv");
+				// a shard without any spectrum to align has no results file
+				if (shard_results.exists())
+				{
+					BufferedReader input = SpectraShards.open(shard_results.getPath());
+					try
+					{
+						String line = input.readLine();
+						if (output == null)
+						{
+							output = new PrintWriter(new BufferedWriter(new FileWriter(results_path, false)));
+							output.write(line + "\n");
+						}
+						while ((line = input.readLine()) != null)
+						{
+							Matcher matcher = ROW_PATTERN.matcher(line);
+							if (!matcher.matches())
+							{
+								throw new IOException("The results file of the shard " + shard_number + " is corrupted.");
+							}
+							output.write(matcher.group(1) + (Integer.valueOf(matcher.group(2)) + offset) + matcher.group(3) + "\n");
+						}
+					}
+					finally
+					{
+						input.close();
+					}
+				}
+				offset += Integer.valueOf(SpectraShards.readStatus(directory, shard_number, ".done"));
+			}
+		}
+		finally
+		{
+			if (output != null)
+			{
+				output.close();
+			}
+		}
+		if (output != null && output.checkError())
+		{
+			throw new IOException("The program stopped due to an IOException during the merging of the results of the shards.");
+		}
+		File correspondance_file = new File(directory, "correspondanceFile.txt");
+		if (correspondance_file.exists())
+		{
+			Files.move(correspondance_file.toPath(), new File(Parameters.RESULTS_FOLDER_PATH(), "correspondanceFile.txt").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void deleteDirectory(File directory)
+	{
+		for (File file : directory.listFiles())
+		{
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static BufferedReader open(String path) throws IOException
+	{
+		try
+		{
+			return new BufferedReader(new FileReader(path));
+		}
+		catch (IOException e)
+		{
+			throw new IOException("The file \"" + path + "\" doesn't exists.");
+		}
+	}
+}
@@ -94,10 +94,11 @@ public class NativeSpectrum {
 	 * @param spectrum: the parent transformed spectrum
 	 * @param peak_mask: the peak mask to be apply on the peak list
 	 * @param non_aligned_mass: the supposed error on the precursor mass
+	 * @param workspace: the structures used during the transformation (see TransformedSpectrum.Workspace)
 	 * @return the transformed spectrum
 	 */
-	public void transform(TransformedSpectrum spectrum, int[] peak_mask, double non_aligned_mass)
+	public void transform(TransformedSpectrum spectrum, int[] peak_mask, double non_aligned_mass, TransformedSpectrum.Workspace workspace)
 	{
-		spectrum.overwrite(this.peaks, this.precursor_mass_charged, this.id, this.charge, peak_mask, non_aligned_mass);
+		spectrum.overwrite(this.peaks, this.precursor_mass_charged, this.id, this.charge, peak_mask, non_aligned_mass, workspace);
 	}
 }
@@ -1,6 +1,7 @@
 package bioobjects;
 
 import constantes.AminoAcid;
+import constantes.Parameters;
 
 import java.util.ArrayList;
 
@@ -13,6 +14,8 @@ public final class Protein {
 
 	private String real_sequence;
 	private int[] sequence;
+	private double[] prefix_masses; // prefix_masses[i] est la masse des i premiers AAs de la sequence (voir getMass)
+	private long[] prefix_units; // les memes masses en unites de AminoAcid.MASS_UNIT, seulement avec fixedPointMasses (en long : un int deborde au-dela de 214 kDa, environ 1950 AAs)
 	private String name;
 	private String protein_description;
 	
@@ -55,10 +58,34 @@ public final class Protein {
 		{
 			this.sequence[i] = sequence_temp.get(i);
 		}
+		this.updatePrefixMasses();
+	}
+	
+	/**
+	 * Compute the cumulative masses of the sequence with the current masses of the amino acids, so the mass of any subsequence is one subtraction
+	 */
+	public void updatePrefixMasses()
+	{
+		this.prefix_masses = new double[this.sequence.length + 1];
+		for (int i = 0; i < this.sequence.length; ++i)
+		{
+			this.prefix_masses[i + 1] = this.prefix_masses[i] + AminoAcid.get(this.sequence[i]).getMass();
+		}
+		this.prefix_units = null;
+		if (Parameters.FIXED_POINT_MASSES())
+		{
+			this.prefix_units = new long[this.sequence.length + 1];
+			for (int i = 0; i < this.sequence.length; ++i)
+			{
+				this.prefix_units[i + 1] = this.prefix_units[i] + AminoAcid.get(this.sequence[i]).getMassUnits();
+			}
+		}
 	}
 	
 	public String getName() {return this.name;}
 	
+	public String getDescription() {return this.protein_description;}
+	
 	/**
 	 * Getter of the protein length
 	 * @return protein sequence length
@@ -71,6 +98,26 @@ public final class Protein {
 	 */
 	public int[] getSequence() {return this.sequence;}
 	
+	/**
+	 * Return the cumulative masses of the sequence : the i-th one is the mass of the i first amino acids
+	 * @return the prefix masses, of length getLength() + 1
+	 */
+	public double[] getPrefixMasses() {return this.prefix_masses;}
+	
+	/**
+	 * Return the cumulative masses of the sequence in units of AminoAcid.MASS_UNIT
+	 * @return the prefix masses in units, null if the parameter fixedPointMasses is false
+	 */
+	public long[] getPrefixUnits() {return this.prefix_units;}
+	
+	/**
+	 * Return the mass of the amino acids from position 'start' (included) to position 'end' (excluded)
+	 * @param start: the beginning of the subsequence
+	 * @param end: the end of the subsequence, excluded
+	 * @return the mass of the subsequence
+	 */
+	public double getMass(int start ,int end) {return this.prefix_masses[end] - this.prefix_masses[start];}
+	
 	/**
 	 * Return  the string version of the protein sequence
 	 * @return protein sequence with characters
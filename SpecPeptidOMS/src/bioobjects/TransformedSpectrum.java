@@ -18,7 +18,8 @@ import loaders.Spectra;
 public class TransformedSpectrum {
 	
 	private static double ACCURACY = Parameters.ACCURACY();
-	private static int REAL_TIME_SAVE = Parameters.REAL_TIME_SAVE();
+	private static int MIN_TAG_COUNT = Parameters.MIN_TAG_COUNT();
+	private static int TAG_LENGTH = Parameters.TAG_LENGTH();
 	
 	private int[] peak_mask;
 	private double non_aligned_mass;
@@ -28,47 +29,69 @@ public class TransformedSpectrum {
 	private int middle_peak;
 	private AAPosition[][] amino_acids_positions;
 	private int[] amino_acids_positions_number; 
+	// Les positions des AAs a plat, pour les traitements preliminaires : les positions de l'AA k sont aux indices positions_offsets[k] a positions_offsets[k] + amino_acids_positions_number[k] - 1
+	private int[] positions_offsets;
+	private int[] positions_left_columns;
+	private int[] positions_right_columns;
+	private int[] positions_conditions;
+	private AAPosition[] positions; // les positions elles-memes, pour le chemin du traitement final (voir SpecGlobThread.finalTreatment)
+	private int amino_acids_mask; // le bit a est a 1 si l'AA a a au moins une position dans le spectre
 	private boolean[] double_column;
 	private double[] column_mass;
+	private int[] column_units; // les masses des colonnes en unites de AminoAcid.MASS_UNIT (parametre fixedPointMasses)
 	private double last_mass;
 	private int nb_complementary_peaks;
 	private int column_count;
+	private int[] tags; // les codes tries et distincts des tags du spectre, null si le filtre sur les tags n'est pas utilise
 	
 	
 	//private static int[][] peak_masks;
-	private static ComplementaryPeak[][] all_peaks;
-	private static boolean[][] checked;
+	private static Workspace first_workspace; // used by the first transformations (see the first constructor)
 	private static ArrayList<AAPosition>[] amino_acids_positions_temp;
-	private static int[][] ending;
-	private static boolean[][] selected_peaks;
-	private static int[][] column_correspondance;
 	
-	@SuppressWarnings("unchecked")
 	/**
-	 * This method initialize all the static attributes by giving then a fixed size that can be known after loading the spectrum file.
+	 * The structures used during the transformation of a spectrum only. Each thread transforming spectra uses its own Workspace,
+	 * so several transformations of the same spectrum can be performed at the same time (see SpecGlobThread.alignNonAlignedMasses).
 	 */
-	public static void initialize()
+	public static final class Workspace
 	{
-		int max_native_peak_count = Spectra.getMaxNativePeakCount();
-		//TransformedSpectrum.peak_masks = new int[REAL_TIME_SAVE][max_native_peak_count];
-		TransformedSpectrum.all_peaks = new ComplementaryPeak[REAL_TIME_SAVE][];
-		for (int i = 0; i < TransformedSpectrum.all_peaks.length; ++i)
+		private final ComplementaryPeak[] all_peaks;
+		private final boolean[] checked;
+		private final int[] ending;
+		private final boolean[] selected_peaks;
+		private final int[] column_correspondance;
+		
+		/**
+		 * The structures are sized for the spectra loaded, so the Workspace must be created after the loading of the spectra file.
+		 */
+		public Workspace()
 		{
-			TransformedSpectrum.all_peaks[i] = new ComplementaryPeak[(max_native_peak_count << 1) + 2];
-			for (int j = 0; j < TransformedSpectrum.all_peaks[i].length; ++j)
+			int max_native_peak_count = Spectra.getMaxNativePeakCount();
+			this.all_peaks = new ComplementaryPeak[(max_native_peak_count << 1) + 2];
+			for (int j = 0; j < this.all_peaks.length; ++j)
 			{
-				TransformedSpectrum.all_peaks[i][j] = new ComplementaryPeak();
+				this.all_peaks[j] = new ComplementaryPeak();
 			}
+			this.checked = new boolean[max_native_peak_count];
+			this.ending = new int[(max_native_peak_count << 1) + 2];
+			this.selected_peaks = new boolean[(max_native_peak_count << 1) + 2];
+			this.column_correspondance = new int[(max_native_peak_count << 1) + 2];
 		}
-		TransformedSpectrum.checked = new boolean[REAL_TIME_SAVE][max_native_peak_count];
+	}
+	
+	@SuppressWarnings("unchecked")
+	/**
+	 * This method initialize all the static attributes by giving then a fixed size that can be known after loading the spectrum file.
+	 * The first transformations have their own workspace, so the spectra can be transformed while others are aligned (see Spectra, streaming mode).
+	 */
+	public static void initialize()
+	{
+		TransformedSpectrum.first_workspace = new Workspace();
 		TransformedSpectrum.amino_acids_positions_temp = new ArrayList[AminoAcid.getCount()];
 		for (int i = 0; i < TransformedSpectrum.amino_acids_positions_temp.length; ++i)
 		{
 			TransformedSpectrum.amino_acids_positions_temp[i] = new ArrayList<AAPosition>();
 		}
-		TransformedSpectrum.ending = new int[REAL_TIME_SAVE][(Spectra.getMaxNativePeakCount() << 1) + 2];
-		TransformedSpectrum.selected_peaks = new boolean[REAL_TIME_SAVE][(Spectra.getMaxNativePeakCount() << 1) + 2];
-		TransformedSpectrum.column_correspondance = new int[REAL_TIME_SAVE][(Spectra.getMaxNativePeakCount() << 1) + 2];
 	}
 	
 	/**
@@ -81,6 +104,7 @@ public class TransformedSpectrum {
 	 */
 	public TransformedSpectrum(double[] peaks, double precursor_mass_charged, int id, int charge)
 	{
+		Workspace workspace = TransformedSpectrum.first_workspace;
 		this.non_aligned_mass = 0.0;
 		this.id = id;
 		this.precursor_mass = (precursor_mass_charged * charge) - (charge * AminoAcid.getHplusMass());
@@ -88,20 +112,20 @@ public class TransformedSpectrum {
 		double first_mass = AminoAcid.getCTermMass() + AminoAcid.getNTermMass() + AminoAcid.getHplusMass();
 		ComplementaryPeak peak_temp;
 		
-		Arrays.fill(TransformedSpectrum.checked[0], 0, peaks.length, false);
+		Arrays.fill(workspace.checked, 0, peaks.length, false);
 		int i;
 		int j = peaks.length - 1;
-		TransformedSpectrum.all_peaks[0][0].overwrite(first_mass, false ,0);
-		TransformedSpectrum.all_peaks[0][1].overwrite(this.last_mass, false ,peaks.length + 1);
+		workspace.all_peaks[0].overwrite(first_mass, false ,0);
+		workspace.all_peaks[1].overwrite(this.last_mass, false ,peaks.length + 1);
 		this.nb_complementary_peaks = 2;
 		int current_add_count;
 		double native_mass;
 		double complementary_mass;
 		for (i = 0; i < peaks.length; ++i)
 		{
-			if (!TransformedSpectrum.checked[0][i])
+			if (!workspace.checked[i])
 			{
-				TransformedSpectrum.checked[0][i] = true;
+				workspace.checked[i] = true;
 				native_mass = peaks[i];
 				complementary_mass = this.complementary(native_mass);
 				if (native_mass < complementary_mass)
@@ -115,49 +139,49 @@ public class TransformedSpectrum {
 				//0 -> les 2 / 1 -> le natif / -1 -> le complémentaire				
 				if (Math.abs(peaks[j] - complementary_mass) > ACCURACY)
 				{
-					TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks].overwrite(complementary_mass ,false ,i + 1);
-					TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks + 1].overwrite(native_mass ,false ,i + 1);
+					workspace.all_peaks[this.nb_complementary_peaks].overwrite(complementary_mass ,false ,i + 1);
+					workspace.all_peaks[this.nb_complementary_peaks + 1].overwrite(native_mass ,false ,i + 1);
 					current_add_count = 2;
 				}
 				//else if (checked[j])
-				else if (TransformedSpectrum.checked[0][j])
+				else if (workspace.checked[j])
 				{
 					if (j == i)
 					{
-						TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks].overwrite(native_mass ,false ,i + 1);
+						workspace.all_peaks[this.nb_complementary_peaks].overwrite(native_mass ,false ,i + 1);
 						current_add_count = 1;
 					}
 					else
 					{
-						TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks].overwrite(complementary_mass ,false ,i + 1);
-						TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks + 1].overwrite(native_mass ,false ,i + 1);
+						workspace.all_peaks[this.nb_complementary_peaks].overwrite(complementary_mass ,false ,i + 1);
+						workspace.all_peaks[this.nb_complementary_peaks + 1].overwrite(native_mass ,false ,i + 1);
 						current_add_count = 2;
 					}
 				}
 				else
 				{
-					TransformedSpectrum.checked[0][j] = true;
-					TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks].overwrite(complementary_mass ,true ,i + 1);
-					TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks + 1].overwrite(native_mass ,true ,i + 1);
+					workspace.checked[j] = true;
+					workspace.all_peaks[this.nb_complementary_peaks].overwrite(complementary_mass ,true ,i + 1);
+					workspace.all_peaks[this.nb_complementary_peaks + 1].overwrite(native_mass ,true ,i + 1);
 					current_add_count = 2;
 				}
 				if (current_add_count == 1)
 				{
-					if (TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks].get_mass() <= first_mass || this.last_mass <= TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks].get_mass())
+					if (workspace.all_peaks[this.nb_complementary_peaks].get_mass() <= first_mass || this.last_mass <= workspace.all_peaks[this.nb_complementary_peaks].get_mass())
 					{
 						current_add_count = 0;
 					}
 				}
 				else
 				{
-					if (TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks].get_mass() <= first_mass || this.last_mass <= TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks].get_mass())
+					if (workspace.all_peaks[this.nb_complementary_peaks].get_mass() <= first_mass || this.last_mass <= workspace.all_peaks[this.nb_complementary_peaks].get_mass())
 					{
-						peak_temp = TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks];
-						TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks] = TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks + 1];
-						TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks + 1] = peak_temp;
+						peak_temp = workspace.all_peaks[this.nb_complementary_peaks];
+						workspace.all_peaks[this.nb_complementary_peaks] = workspace.all_peaks[this.nb_complementary_peaks + 1];
+						workspace.all_peaks[this.nb_complementary_peaks + 1] = peak_temp;
 						--current_add_count;
 					}
-					if (TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks + current_add_count - 1].get_mass() <= first_mass || this.last_mass <= TransformedSpectrum.all_peaks[0][this.nb_complementary_peaks + current_add_count - 1].get_mass())
+					if (workspace.all_peaks[this.nb_complementary_peaks + current_add_count - 1].get_mass() <= first_mass || this.last_mass <= workspace.all_peaks[this.nb_complementary_peaks + current_add_count - 1].get_mass())
 					{
 						--current_add_count;
 					}
@@ -165,9 +189,9 @@ public class TransformedSpectrum {
 				this.nb_complementary_peaks += current_add_count;
 			}
 		}
-		Arrays.sort(TransformedSpectrum.all_peaks[0] ,0 ,this.nb_complementary_peaks);
-		Arrays.fill(TransformedSpectrum.ending[0], 0, this.nb_complementary_peaks, 0);
-		Arrays.fill(TransformedSpectrum.selected_peaks[0], 0, this.nb_complementary_peaks, false);
+		Arrays.sort(workspace.all_peaks ,0 ,this.nb_complementary_peaks);
+		Arrays.fill(workspace.ending, 0, this.nb_complementary_peaks, 0);
+		Arrays.fill(workspace.selected_peaks, 0, this.nb_complementary_peaks, false);
 		int nb_aa_founded = 0;
 		this.amino_acids_positions_number = new int[AminoAcid.getCount()];
 		int k;
@@ -184,16 +208,16 @@ public class TransformedSpectrum {
 			{
 				for (k = 0; k < AminoAcid.getCount(); ++k)
 				{
-					difference = (TransformedSpectrum.all_peaks[0][j].get_mass() - TransformedSpectrum.all_peaks[0][i].get_mass()) - AminoAcid.get(k).getMass();
+					difference = (workspace.all_peaks[j].get_mass() - workspace.all_peaks[i].get_mass()) - AminoAcid.get(k).getMass();
 					if (Math.abs(difference) <= Parameters.ACCURACY() && (this.amino_acids_positions_number[k] == 0 || TransformedSpectrum.amino_acids_positions_temp[k].get(this.amino_acids_positions_number[k] - 1).getRightColumn() < j))
 					{
 						++nb_aa_founded;
-						TransformedSpectrum.ending[0][j] |= 1 << (k + 2);
-						TransformedSpectrum.amino_acids_positions_temp[k].add(new AAPosition(j, i, TransformedSpectrum.all_peaks[0][j].getNativePeak(), TransformedSpectrum.all_peaks[0][i].getNativePeak(), TransformedSpectrum.all_peaks[0][j].get_mass(), TransformedSpectrum.all_peaks[0][i].get_mass()));
+						workspace.ending[j] |= 1 << (k + 2);
+						TransformedSpectrum.amino_acids_positions_temp[k].add(new AAPosition(j, i, workspace.all_peaks[j].getNativePeak(), workspace.all_peaks[i].getNativePeak(), workspace.all_peaks[j].get_mass(), workspace.all_peaks[i].get_mass()));
 						++this.amino_acids_positions_number[k];
-						if(!TransformedSpectrum.selected_peaks[0][j])
+						if(!workspace.selected_peaks[j])
 						{
-							TransformedSpectrum.selected_peaks[0][j] = true;
+							workspace.selected_peaks[j] = true;
 							++this.column_count;
 						}
 					}
@@ -219,30 +243,36 @@ public class TransformedSpectrum {
 					}
 					else
 					{
-						this.amino_acids_positions[k][i].setCondition(TransformedSpectrum.ending[0][this.amino_acids_positions[k][i].getLeftColumn()]);
+						this.amino_acids_positions[k][i].setCondition(workspace.ending[this.amino_acids_positions[k][i].getLeftColumn()]);
 					}
 				}
 			}
 			
+			if (MIN_TAG_COUNT > 0)
+			{
+				// Les tags sont extraits avant la mise a jour des colonnes : les colonnes des AAPositions sont encore les numeros des pics
+				this.extractTags();
+			}
+			
 			// Seul les pics utiles (a droite d'un AA dans le spectre) generent une colonne dans la matrice de score
-			Arrays.fill(TransformedSpectrum.column_correspondance[0], 0);
-			TransformedSpectrum.column_correspondance[0][0] = 1;
+			Arrays.fill(workspace.column_correspondance, 0);
+			workspace.column_correspondance[0] = 1;
 			this.double_column = new boolean[this.column_count];
 			// "this.column_mass" sert pour le calcul des shifts
 			this.column_mass = new double[this.column_count];
-			this.column_mass[0] = TransformedSpectrum.all_peaks[0][0].get_mass();
+			this.column_mass[0] = workspace.all_peaks[0].get_mass();
 			int column_index = 1;
 			i = 0;
 			while (column_index <= this.column_count - 1)
 			{
-				if (TransformedSpectrum.selected_peaks[0][i])
+				if (workspace.selected_peaks[i])
 				{
-					if (TransformedSpectrum.all_peaks[0][i].isDouble())
+					if (workspace.all_peaks[i].isDouble())
 					{
 						this.double_column[column_index] = true;
 					}
-					this.column_mass[column_index] = TransformedSpectrum.all_peaks[0][i].get_mass();
-					TransformedSpectrum.column_correspondance[0][i] = column_index + 1;
+					this.column_mass[column_index] = workspace.all_peaks[i].get_mass();
+					workspace.column_correspondance[i] = column_index + 1;
 					++column_index;
 				}
 				++i;
@@ -252,9 +282,22 @@ public class TransformedSpectrum {
 			{
 				for (i = 0; i < this.amino_acids_positions_number[k]; ++i)
 				{
-					this.amino_acids_positions[k][i].updateColumn(TransformedSpectrum.column_correspondance[0]);
+					this.amino_acids_positions[k][i].updateColumn(workspace.column_correspondance);
 				}
 			}
+			
+			this.positions_offsets = new int[AminoAcid.getCount()];
+			for (k = 1; k < AminoAcid.getCount(); ++k)
+			{
+				this.positions_offsets[k] = this.positions_offsets[k - 1] + this.amino_acids_positions_number[k - 1];
+			}
+			this.positions_left_columns = new int[nb_aa_founded];
+			this.positions_right_columns = new int[nb_aa_founded];
+			this.positions_conditions = new int[nb_aa_founded];
+			this.positions = new AAPosition[nb_aa_founded];
+			this.column_units = new int[this.column_count];
+			this.quantizeColumns();
+			this.flattenPositions();
 		}
 	}
 	
@@ -275,8 +318,20 @@ public class TransformedSpectrum {
 			}
 		}
 		this.amino_acids_positions_number = new int[AminoAcid.getCount()];
+		// Chaque AA dispose de la meme capacite que dans "this.amino_acids_positions"
+		int capacity = (Spectra.getMaxNativePeakCount() << 1) + 1;
+		this.positions_offsets = new int[AminoAcid.getCount()];
+		for (int k = 0; k < AminoAcid.getCount(); ++k)
+		{
+			this.positions_offsets[k] = k * capacity;
+		}
+		this.positions_left_columns = new int[AminoAcid.getCount() * capacity];
+		this.positions_right_columns = new int[AminoAcid.getCount() * capacity];
+		this.positions_conditions = new int[AminoAcid.getCount() * capacity];
+		this.positions = new AAPosition[AminoAcid.getCount() * capacity];
 		this.double_column = new boolean[(Spectra.getMaxNativePeakCount() << 1) + 2];
 		this.column_mass = new double[(Spectra.getMaxNativePeakCount() << 1) + 2];
+		this.column_units = new int[(Spectra.getMaxNativePeakCount() << 1) + 2];
 	}
 	
 	
@@ -293,8 +348,9 @@ public class TransformedSpectrum {
 	 * @param charge: the charge of the precursor
 	 * @param peak_mask
 	 * @param non_aligned_mass
+	 * @param workspace: the structures used during the transformation, own to the calling thread
 	 */
-	public void overwrite(double[] peaks, double precursor_mass_charged, int id, int charge, int[] peak_mask, double non_aligned_mass)
+	public void overwrite(double[] peaks, double precursor_mass_charged, int id, int charge, int[] peak_mask, double non_aligned_mass, Workspace workspace)
 	{
 		System.arraycopy(peak_mask, 0, this.peak_mask, 0, peak_mask.length);
 		this.non_aligned_mass = non_aligned_mass;
@@ -305,28 +361,27 @@ public class TransformedSpectrum {
 		double first_mass = AminoAcid.getCTermMass() + AminoAcid.getNTermMass() + AminoAcid.getHplusMass();
 		ComplementaryPeak peak_temp;
 		
-		int current_modulo_id = id % REAL_TIME_SAVE;
-		Arrays.fill(TransformedSpectrum.checked[current_modulo_id], false);
+		Arrays.fill(workspace.checked, false);
 		int i;
 		int j = peaks.length - 1;
 		while (j >= 0 && peaks[j] >= this.last_mass)
 		{
-			TransformedSpectrum.checked[current_modulo_id][j] = true;
+			workspace.checked[j] = true;
 			--j;
 		}
 		
-		TransformedSpectrum.all_peaks[current_modulo_id][0].overwrite(AminoAcid.getCTermMass() + AminoAcid.getNTermMass() + AminoAcid.getHplusMass(), false ,0);
-		TransformedSpectrum.all_peaks[current_modulo_id][1].overwrite(this.last_mass, false ,peaks.length + 1);
+		workspace.all_peaks[0].overwrite(AminoAcid.getCTermMass() + AminoAcid.getNTermMass() + AminoAcid.getHplusMass(), false ,0);
+		workspace.all_peaks[1].overwrite(this.last_mass, false ,peaks.length + 1);
 		this.nb_complementary_peaks = 2;
 		int current_add_count;
 		double native_mass;
 		double complementary_mass;
 		for (i = 0; i < peaks.length; ++i)
 		{
-			if (!TransformedSpectrum.checked[current_modulo_id][i])
+			if (!workspace.checked[i])
 			{
 				current_add_count = 0;
-				TransformedSpectrum.checked[current_modulo_id][i] = true;
+				workspace.checked[i] = true;
 				native_mass = peaks[i];
 				complementary_mass = this.complementary(native_mass);
 				if (native_mass < complementary_mass)
@@ -342,67 +397,67 @@ public class TransformedSpectrum {
 				{
 					if (this.peak_mask[i] <= 0)
 					{
-						TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks].overwrite(complementary_mass ,false ,i + 1);
+						workspace.all_peaks[this.nb_complementary_peaks].overwrite(complementary_mass ,false ,i + 1);
 						++current_add_count;
 					}
 					if (this.peak_mask[i] >= 0)
 					{
-						TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks + current_add_count].overwrite(native_mass ,false ,i + 1);
+						workspace.all_peaks[this.nb_complementary_peaks + current_add_count].overwrite(native_mass ,false ,i + 1);
 						++current_add_count;
 					}
 				}
-				else if (TransformedSpectrum.checked[current_modulo_id][j])
+				else if (workspace.checked[j])
 				{
 					if (j == i)
 					{
-						TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks].overwrite(native_mass ,false ,i + 1);
+						workspace.all_peaks[this.nb_complementary_peaks].overwrite(native_mass ,false ,i + 1);
 						++current_add_count;
 					}
 					else
 					{
 						if (this.peak_mask[i] <= 0)
 						{
-							TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks].overwrite(complementary_mass ,false ,i + 1);
+							workspace.all_peaks[this.nb_complementary_peaks].overwrite(complementary_mass ,false ,i + 1);
 							++this.nb_complementary_peaks;
 						}
 						if (this.peak_mask[i] >= 0)
 						{
-							TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks + current_add_count].overwrite(native_mass ,false ,i + 1);
+							workspace.all_peaks[this.nb_complementary_peaks + current_add_count].overwrite(native_mass ,false ,i + 1);
 							++current_add_count;
 						}
 					}
 				}
 				else
 				{
-					TransformedSpectrum.checked[current_modulo_id][j] = true;
+					workspace.checked[j] = true;
 					if (this.peak_mask[i] <= 0)
 					{
-						TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks].overwrite(complementary_mass ,true ,i + 1);
+						workspace.all_peaks[this.nb_complementary_peaks].overwrite(complementary_mass ,true ,i + 1);
 						++current_add_count;
 					}
 					if (this.peak_mask[i] >= 0)
 					{
-						TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks + current_add_count].overwrite(native_mass ,true ,i + 1);
+						workspace.all_peaks[this.nb_complementary_peaks + current_add_count].overwrite(native_mass ,true ,i + 1);
 						++current_add_count;
 					}
 				}
 				if (current_add_count == 1)
 				{
-					if (TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks].get_mass() <= first_mass || this.last_mass <= TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks].get_mass())
+					if (workspace.all_peaks[this.nb_complementary_peaks].get_mass() <= first_mass || this.last_mass <= workspace.all_peaks[this.nb_complementary_peaks].get_mass())
 					{
 						current_add_count = 0;
 					}
 				}
 				else
 				{
-					if (TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks].get_mass() <= first_mass || this.last_mass <= TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks].get_mass())
+					if (workspace.all_peaks[this.nb_complementary_peaks].get_mass() <= first_mass || this.last_mass <= workspace.all_peaks[this.nb_complementary_peaks].get_mass())
 					{
-						peak_temp = TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks];
-						TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks] = TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks + 1];
-						TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks + 1] = peak_temp;
+						peak_temp = workspace.all_peaks[this.nb_complementary_peaks];
+						workspace.all_peaks[this.nb_complementary_peaks] = workspace.all_peaks[this.nb_complementary_peaks + 1];
+						workspace.all_peaks[this.nb_complementary_peaks + 1] = peak_temp;
 						--current_add_count;
 					}
-					if (TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks + current_add_count - 1].get_mass() <= first_mass || this.last_mass <= TransformedSpectrum.all_peaks[current_modulo_id][this.nb_complementary_peaks + current_add_count - 1].get_mass())
+					if (workspace.all_peaks[this.nb_complementary_peaks + current_add_count - 1].get_mass() <= first_mass || this.last_mass <= workspace.all_peaks[this.nb_complementary_peaks + current_add_count - 1].get_mass())
 					{
 						--current_add_count;
 					}
@@ -410,10 +465,10 @@ public class TransformedSpectrum {
 				this.nb_complementary_peaks += current_add_count;
 			}
 		}
-		Arrays.sort(TransformedSpectrum.all_peaks[current_modulo_id] ,0 ,this.nb_complementary_peaks);
+		Arrays.sort(workspace.all_peaks ,0 ,this.nb_complementary_peaks);
 		
-		Arrays.fill(TransformedSpectrum.ending[current_modulo_id], 0, this.nb_complementary_peaks, 0);
-		Arrays.fill(TransformedSpectrum.selected_peaks[current_modulo_id], 0, this.nb_complementary_peaks, false);
+		Arrays.fill(workspace.ending, 0, this.nb_complementary_peaks, 0);
+		Arrays.fill(workspace.selected_peaks, 0, this.nb_complementary_peaks, false);
 		Arrays.fill(this.amino_acids_positions_number, 0);
 		this.column_count = 1;
 		int k;
@@ -424,15 +479,15 @@ public class TransformedSpectrum {
 			{
 				for (k = 0; k < AminoAcid.getCount(); ++k)
 				{
-					difference = (TransformedSpectrum.all_peaks[current_modulo_id][j].get_mass() - TransformedSpectrum.all_peaks[current_modulo_id][i].get_mass()) - AminoAcid.get(k).getMass();
+					difference = (workspace.all_peaks[j].get_mass() - workspace.all_peaks[i].get_mass()) - AminoAcid.get(k).getMass();
 					if (Math.abs(difference) <= Parameters.ACCURACY() && (this.amino_acids_positions_number[k] == 0 || this.amino_acids_positions[k][this.amino_acids_positions_number[k] - 1].getRightColumn() < j))
 					{
-						TransformedSpectrum.ending[current_modulo_id][j] |= 1 << (k + 2);
-						this.amino_acids_positions[k][this.amino_acids_positions_number[k]].overwrite(j, i, TransformedSpectrum.all_peaks[current_modulo_id][j].getNativePeak(), TransformedSpectrum.all_peaks[current_modulo_id][i].getNativePeak(), TransformedSpectrum.all_peaks[0][j].get_mass(), TransformedSpectrum.all_peaks[0][i].get_mass());
+						workspace.ending[j] |= 1 << (k + 2);
+						this.amino_acids_positions[k][this.amino_acids_positions_number[k]].overwrite(j, i, workspace.all_peaks[j].getNativePeak(), workspace.all_peaks[i].getNativePeak(), workspace.all_peaks[j].get_mass(), workspace.all_peaks[i].get_mass());
 						++this.amino_acids_positions_number[k];
-						if(!TransformedSpectrum.selected_peaks[current_modulo_id][j])
+						if(!workspace.selected_peaks[j])
 						{
-							TransformedSpectrum.selected_peaks[current_modulo_id][j] = true;
+							workspace.selected_peaks[j] = true;
 							++this.column_count;
 						}
 					}
@@ -451,30 +506,30 @@ public class TransformedSpectrum {
 				}
 				else
 				{
-					this.amino_acids_positions[k][i].setCondition(TransformedSpectrum.ending[current_modulo_id][this.amino_acids_positions[k][i].getLeftColumn()]);
+					this.amino_acids_positions[k][i].setCondition(workspace.ending[this.amino_acids_positions[k][i].getLeftColumn()]);
 				}
 			}
 		}
 		
 		// Seul les pics utiles (a droite d'un AA dans le spectre) generent une colonne dans la matrice de score
-		Arrays.fill(TransformedSpectrum.column_correspondance[current_modulo_id], 0);
-		TransformedSpectrum.column_correspondance[current_modulo_id][0] = 1;
+		Arrays.fill(workspace.column_correspondance, 0);
+		workspace.column_correspondance[0] = 1;
 		Arrays.fill(this.double_column, 0, this.column_count, false);
 		// "this.column_mass" sert pour le calcul des shifts
 		Arrays.fill(this.column_mass, 0, this.column_count, 0.0);
-		this.column_mass[0] = TransformedSpectrum.all_peaks[current_modulo_id][0].get_mass();
+		this.column_mass[0] = workspace.all_peaks[0].get_mass();
 		int column_index = 1;
 		i = 0;
 		while (column_index <= this.column_count - 1)
 		{
-			if (TransformedSpectrum.selected_peaks[current_modulo_id][i])
+			if (workspace.selected_peaks[i])
 			{
-				if (TransformedSpectrum.all_peaks[current_modulo_id][i].isDouble())
+				if (workspace.all_peaks[i].isDouble())
 				{
 					this.double_column[column_index] = true;
 				}
-				this.column_mass[column_index] = TransformedSpectrum.all_peaks[current_modulo_id][i].get_mass();
-				TransformedSpectrum.column_correspondance[current_modulo_id][i] = column_index + 1;
+				this.column_mass[column_index] = workspace.all_peaks[i].get_mass();
+				workspace.column_correspondance[i] = column_index + 1;
 				++column_index;
 			}
 			++i;
@@ -484,7 +539,136 @@ public class TransformedSpectrum {
 		{
 			for (i = 0; i < this.amino_acids_positions_number[k]; ++i)
 			{
-				this.amino_acids_positions[k][i].updateColumn(TransformedSpectrum.column_correspondance[current_modulo_id]);
+				this.amino_acids_positions[k][i].updateColumn(workspace.column_correspondance);
+			}
+		}
+		this.quantizeColumns();
+		this.flattenPositions();
+	}
+	
+	/*
+	 * Arrondit les masses des colonnes en unites de AminoAcid.MASS_UNIT (voir getShiftUnits)
+	 */
+	private void quantizeColumns()
+	{
+		for (int j = 0; j < this.column_count; ++j)
+		{
+			this.column_units[j] = AminoAcid.toUnits(this.column_mass[j]);
+		}
+	}
+	
+	/*
+	 * Extrait les tags du spectre : les suites de TAG_LENGTH AAs dont les positions se suivent (le pic droit de l'une est le pic gauche de la suivante).
+	 * Les pics etant ordonnes par masse, un tag se lit dans un sens ou dans l'autre de la proteine (ions b ou y), les deux sens sont donc gardes.
+	 * Le code d'un tag a(1)...a(n) est a(1)*c^(n-1) + ... + a(n) avec c le nombre d'AAs (le meme que dans l'index des proteines, voir Proteins.updateTagIndex).
+	 * Les tags sont construits par longueur croissante : une suite de longueur l est prolongee par chaque position commencant a son dernier pic.
+	 */
+	private void extractTags()
+	{
+		int aa_count = AminoAcid.getCount();
+		int positions_count = 0;
+		for (int k = 0; k < aa_count; ++k)
+		{
+			positions_count += this.amino_acids_positions_number[k];
+		}
+		// les positions commencant au pic p sont starting[p], next[starting[p]], ... (-1 a la fin)
+		int[] starting = new int[this.nb_complementary_peaks];
+		Arrays.fill(starting, -1);
+		int[] next = new int[positions_count];
+		int[] position_aa = new int[positions_count];
+		int[] position_right_peak = new int[positions_count];
+		int index = 0;
+		for (int k = 0; k < aa_count; ++k)
+		{
+			for (int i = 0; i < this.amino_acids_positions_number[k]; ++i)
+			{
+				position_aa[index] = k;
+				position_right_peak[index] = this.amino_acids_positions[k][i].getRightColumn();
+				next[index] = starting[this.amino_acids_positions[k][i].getLeftColumn()];
+				starting[this.amino_acids_positions[k][i].getLeftColumn()] = index;
+				++index;
+			}
+		}
+		
+		// les suites de longueur 1 : le dernier pic et le code de chaque position
+		int[] last_peaks = position_right_peak.clone();
+		int[] codes = position_aa.clone();
+		int count = positions_count;
+		for (int length = 1; length < TAG_LENGTH; ++length)
+		{
+			int new_count = 0;
+			for (int i = 0; i < count; ++i)
+			{
+				for (int position = starting[last_peaks[i]]; position != -1; position = next[position])
+				{
+					++new_count;
+				}
+			}
+			int[] new_last_peaks = new int[new_count];
+			int[] new_codes = new int[new_count];
+			new_count = 0;
+			for (int i = 0; i < count; ++i)
+			{
+				for (int position = starting[last_peaks[i]]; position != -1; position = next[position])
+				{
+					new_last_peaks[new_count] = position_right_peak[position];
+					new_codes[new_count] = codes[i] * aa_count + position_aa[position];
+					++new_count;
+				}
+			}
+			last_peaks = new_last_peaks;
+			codes = new_codes;
+			count = new_count;
+		}
+		
+		// ajout des tags lus dans l'autre sens, puis tri et suppression des doublons
+		int[] all_codes = Arrays.copyOf(codes, count << 1);
+		for (int i = 0; i < count; ++i)
+		{
+			int code = codes[i];
+			int reversed_code = 0;
+			for (int length = 0; length < TAG_LENGTH; ++length)
+			{
+				reversed_code = reversed_code * aa_count + code % aa_count;
+				code /= aa_count;
+			}
+			all_codes[count + i] = reversed_code;
+		}
+		Arrays.sort(all_codes);
+		int distinct = 0;
+		for (int i = 0; i < all_codes.length; ++i)
+		{
+			if (i == 0 || all_codes[i] != all_codes[i - 1])
+			{
+				all_codes[distinct++] = all_codes[i];
+			}
+		}
+		this.tags = Arrays.copyOf(all_codes, distinct);
+	}
+	
+	/*
+	 * Copie les colonnes et les conditions des AAPositions (une fois les colonnes mises a jour) dans les tableaux a plat
+	 */
+	private void flattenPositions()
+	{
+		AAPosition position;
+		int index;
+		this.amino_acids_mask = 0;
+		for (int k = 0; k < AminoAcid.getCount(); ++k)
+		{
+			if (this.amino_acids_positions_number[k] > 0)
+			{
+				this.amino_acids_mask |= 1 << k;
+			}
+			index = this.positions_offsets[k];
+			for (int i = 0; i < this.amino_acids_positions_number[k]; ++i)
+			{
+				position = this.amino_acids_positions[k][i];
+				this.positions_left_columns[index] = position.getLeftColumn();
+				this.positions_right_columns[index] = position.getRightColumn();
+				this.positions_conditions[index] = position.getCondition();
+				this.positions[index] = position;
+				++index;
 			}
 		}
 	}
@@ -529,6 +713,67 @@ public class TransformedSpectrum {
 	 */
 	public int[] getAminoAcidsPositionsNumber() {return this.amino_acids_positions_number;}
 	
+	/**
+	 * Return the sequence tags of the spectrum : the codes of the sequences of TAG_LENGTH() amino acids read between consecutive peaks, in both directions, sorted and distinct.
+	 * The code of the tag a(1)...a(n) is a(1)*c^(n-1) + ... + a(n), where a(i) is the number of an amino acid and c the number of amino acids (see loaders.Proteins.updateTagIndex).
+	 * @return the codes of the tags, null if they are not used (MIN_TAG_COUNT() = 0) or for a TransformedSpectrum built by the second constructor
+	 */
+	public int[] getTags() {return this.tags;}
+	
+	/**
+	 * Return, for each amino acid, the index of its first position in the flat tables of positions (getPositionsLeftColumns, getPositionsRightColumns and getPositionsConditions).
+	 * The positions of the amino acid k are at the indexes getPositionsOffsets()[k] to getPositionsOffsets()[k] + getAminoAcidsPositionsNumber()[k] - 1, in the same order as in getAminoAcidsPositions()[k].
+	 * @return the offsets of the amino acids
+	 */
+	public int[] getPositionsOffsets() {return this.positions_offsets;}
+	
+	/**
+	 * Return the amino acid position at the given index of the flat tables of positions (see getPositionsOffsets)
+	 * @param index: the index of the position
+	 * @return the position
+	 */
+	public AAPosition getPosition(int index) {return this.positions[index];}
+	
+	/**
+	 * Return the left column of all the amino acid positions (see getPositionsOffsets)
+	 * @return the left columns
+	 */
+	public int[] getPositionsLeftColumns() {return this.positions_left_columns;}
+	
+	/**
+	 * Return the right column of all the amino acid positions (see getPositionsOffsets)
+	 * @return the right columns
+	 */
+	public int[] getPositionsRightColumns() {return this.positions_right_columns;}
+	
+	/**
+	 * Return the condition of all the amino acid positions (see getPositionsOffsets and AAPosition.getCondition)
+	 * @return the conditions
+	 */
+	public int[] getPositionsConditions() {return this.positions_conditions;}
+	
+	/**
+	 * Return the amino acids having at least one position in the spectrum (see loaders.Proteins.getWindowsMasks)
+	 * @return the mask whose bit a is set if the amino acid a has a position
+	 */
+	public int getAminoAcidsMask() {return this.amino_acids_mask;}
+	
+	/**
+	 * Return an estimation of the time needed to align the spectrum on a protein, used to schedule the spectra (see SpecGlobExecutor).
+	 * For each row of the preliminary alignment, the positions of the current amino acid are visited and the shift scan covers at most all the columns,
+	 * so the cost of a row is proportional to the number of columns plus the average number of positions of an amino acid.
+	 * @return the estimated cost, multiplied by the number of amino acids
+	 */
+	public int getEstimatedCost()
+	{
+		int cost = this.column_count * this.amino_acids_positions_number.length;
+		for (int positions_number : this.amino_acids_positions_number)
+		{
+			cost += positions_number;
+		}
+		return cost;
+	}
+	
 	// Beaucoup appelée !
 	/**
 	 * Compute and return the mass shift between the 'left_column' and the left peak of the amino acid 'aa' given that the right peak of 'aa' correspond to the 'right_column'.
@@ -542,6 +787,18 @@ public class TransformedSpectrum {
 		return this.column_mass[right_column] - aa.getMass() - this.column_mass[left_column];
 	}
 	
+	/**
+	 * Same as getShift, with the masses rounded to units of AminoAcid.MASS_UNIT (parameter fixedPointMasses)
+	 * @param left_column: beginning of the shift
+	 * @param right_column: end of the shift plus 'aa'
+	 * @param aa: the amino acid considered in the computation of the shift
+	 * @return the shift value, in units of AminoAcid.MASS_UNIT
+	 */
+	public int getShiftUnits(int left_column ,int right_column ,AminoAcid aa)
+	{
+		return this.column_units[right_column] - aa.getMassUnits() - this.column_units[left_column];
+	}
+	
 	/**
 	 * Return the mass shift between the 'last_column' and the hypothetical last y-ion peak 
 	 * @param last_column: the beginning of the shift
@@ -603,7 +860,7 @@ public class TransformedSpectrum {
 	 */
 	public int massCount(double mass)
 	{
-		double[] peaks = Spectra.getNatives()[this.id].getPeaks();
+		double[] peaks = Spectra.getNative(this.id).getPeaks();
 		int left = - 1;
 		int right = peaks.length;
 		int counter = 0;
@@ -660,6 +917,7 @@ public class TransformedSpectrum {
 	public static void reset()
 	{
 		ACCURACY = Parameters.ACCURACY();
-		REAL_TIME_SAVE = Parameters.REAL_TIME_SAVE();
+		MIN_TAG_COUNT = Parameters.MIN_TAG_COUNT();
+		TAG_LENGTH = Parameters.TAG_LENGTH();
 	}
 }
@@ -66,30 +66,33 @@ public class Alignment implements Comparable<Alignment> {
 	}
 	*/
 	
-	public void overwrite(InterpretationBackup interpretation_backup, TransformedSpectrum transformed_spectrum, ArrayList<ArrayList<Scenario>> scenarios_matrice, Location location)
+	/*
+	 * le chemin de l'alignement est lu dans la matrice de retour du traitement final : la case (ligne, colonne) contient, a partir de l'indice
+	 * 3*(ligne*(nombre de colonnes du spectre) + colonne), la ligne et la colonne precedentes et l'indice de l'AAPosition (voir TransformedSpectrum.getPosition)
+	 */
+	public void overwrite(InterpretationBackup interpretation_backup, TransformedSpectrum transformed_spectrum, int[] traceback, Location location)
 	{
 		int current_line_number = interpretation_backup.getLineNumber();
 		int current_column_number = interpretation_backup.getColumnNumber();
-		//Scenario current_scenario = new Scenario(current_line_number ,current_column_number);
-		//this.scenarios = new ArrayList<Scenario>();
-		//this.scenarios.add(current_scenario);
-		Scenario current_scenario;
+		int column_count = transformed_spectrum.getColumnCount();
+		int cell;
+		AAPosition aa_position;
 		this.scenarios.get(0).update(current_line_number, current_column_number);
 		int position = 1;
 		while (current_column_number > 0)
 		{
-			current_scenario = scenarios_matrice.get(current_line_number).get(current_column_number);
-			//this.scenarios.add(new Scenario(current_scenario));
+			cell = 3*(current_line_number*column_count + current_column_number);
+			aa_position = transformed_spectrum.getPosition(traceback[cell + 2]);
 			if (position >= this.scenarios.size())
 			{
-				this.scenarios.add(new Scenario(current_scenario));
+				this.scenarios.add(new Scenario(traceback[cell], traceback[cell + 1], aa_position));
 			}
 			else
 			{
-				this.scenarios.get(position).update(current_scenario);
+				this.scenarios.get(position).update(traceback[cell], traceback[cell + 1], aa_position);
 			}
-			current_line_number = current_scenario.getPreviousLineNumber();
-			current_column_number = current_scenario.getPreviousColumnNumber();
+			current_line_number = traceback[cell];
+			current_column_number = traceback[cell + 1];
 			++position;
 		}
 		this.transformed_spectrum = transformed_spectrum;
@@ -285,11 +288,7 @@ public class Alignment implements Comparable<Alignment> {
 		int counter = 2;
 		while (previous_column_number > 0)
 		{
-			double mass_sum = 0.0;
-			for (int j = current_line_number - 1; j > previous_line_number; --j)
-			{
-				mass_sum += AminoAcid.get(this.location.get(j - 1)).getMass();
-			}
+			double mass_sum = this.location.getMass(previous_line_number, current_line_number - 1);
 			
 			shift = this.transformed_spectrum.getShift(previous_column_number ,current_column_number, AminoAcid.get(this.location.get(current_line_number - 1)));
 			if (shift - mass_sum > ACCURACY)
@@ -500,10 +499,9 @@ public class Alignment implements Comparable<Alignment> {
 			real_sequence2.append(AminoAcid.getLetter(this.location.get(current_line_number - 1)));
 			//String not_found_plus_shift = "";
 			not_found_plus_shift2.setLength(0);
-			double mass_sum = 0.0;
+			double mass_sum = this.location.getMass(previous_line_number, current_line_number - 1);
 			for (int j = current_line_number - 1; j > previous_line_number; --j)
 			{
-				mass_sum += AminoAcid.get(this.location.get(j - 1)).getMass();
 				//not_found_plus_shift = String.format("%s[%c]", not_found_plus_shift, AminoAcid.getLetter(this.location.get(j - 1)));
 				not_found_plus_shift2.append('[');
 				not_found_plus_shift2.append(AminoAcid.getLetter(this.location.get(j - 1)));
@@ -702,11 +700,7 @@ public class Alignment implements Comparable<Alignment> {
 				shift = this.transformed_spectrum.getShift(previous_column_number ,current_column_number, AminoAcid.get(this.location.get(current_line_number - 1)));			
 				if (shift > ACCURACY)
 				{
-					masses_sum = 0.0;
-					for (int j = current_line_number - 1; j > previous_line_number; --j)
-					{
-						masses_sum += AminoAcid.get(this.location.get(j - 1)).getMass();
-					}
+					masses_sum = this.location.getMass(previous_line_number, current_line_number - 1);
 					this.nb_peaks_in_common += this.transformed_spectrum.massCount(this.transformed_spectrum.getColumnMass(current_column_number) - AminoAcid.get(this.location.get(current_line_number - 1)).getMass());
 					if (Math.abs(shift - masses_sum) <= ACCURACY)
 					{
@@ -741,11 +735,7 @@ public class Alignment implements Comparable<Alignment> {
 			shift = this.transformed_spectrum.getShift(previous_column_number ,current_column_number, AminoAcid.get(this.location.get(current_line_number - 1)));			
 			if (shift > ACCURACY)
 			{
-				masses_sum = 0.0;
-				for (int j = current_line_number - 1; j > previous_line_number; --j)
-				{
-					masses_sum += AminoAcid.get(this.location.get(j - 1)).getMass();
-				}
+				masses_sum = this.location.getMass(previous_line_number, current_line_number - 1);
 				this.nb_peaks_in_common += this.transformed_spectrum.massCount(this.transformed_spectrum.getColumnMass(current_column_number) - AminoAcid.get(this.location.get(current_line_number - 1)).getMass());
 				if (Math.abs(shift - masses_sum) <= ACCURACY)
 				{
@@ -1,12 +1,15 @@
 package components;
 
+import bioobjects.Protein;
 import constantes.AminoAcid;
 
 public class Location {
 	
 	private int[] protein_sequence;
+	private Protein protein;
 	private int beginning;
 	private int length;
+	private int shift; // le nombre d'AAs de la proteine entiere apres la proteine alignee, non nul seulement pour les morceaux (voir loaders.Proteins.getChunksShift)
 
 	/*
 	public Location(int[] protein_sequence, int beginning, int end)
@@ -17,19 +20,34 @@ public class Location {
 	}
 	*/
 	
-	public void overwrite(int[] protein_sequence, int beginning, int end)
+	public void overwrite(Protein protein, int beginning, int end, int shift)
 	{
-		this.protein_sequence = protein_sequence;
+		this.protein = protein;
+		this.shift = shift;
+		this.protein_sequence = protein.getSequence();
 		this.beginning = Math.max(0, beginning);
-		this.length = Math.min(protein_sequence.length - 1 ,end) - this.beginning + 1;
+		this.length = Math.min(this.protein_sequence.length - 1 ,end) - this.beginning + 1;
 	}
 	
 	public int getLength() {return this.length;}
 	
+	public Protein getProtein() {return this.protein;}
+	
+	public int getBeginning() {return this.beginning;}
+	
+	public int getShift() {return this.shift;}
+	
 	public int get(int position) {
 		return this.protein_sequence[position + this.beginning];
 	}
 	
+	/*
+	 * la masse des AAs des positions 'start' (incluse) a 'end' (exclue) de la location
+	 */
+	public double getMass(int start, int end) {
+		return this.protein.getMass(start + this.beginning, end + this.beginning);
+	}
+	
 	@Override
 	public String toString()
 	{
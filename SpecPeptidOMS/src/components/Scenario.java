@@ -20,6 +20,13 @@ public final class Scenario {
 		this.previous_line_number = previous_line_number;
 		this.previous_column_number = previous_column_number;
 	}
+	
+	public Scenario(int previous_line_number ,int previous_column_number ,AAPosition position)
+	{
+		this.previous_line_number = previous_line_number;
+		this.previous_column_number = previous_column_number;
+		this.position = position;
+	}
 
 	public void update(Scenario scenario)
 	{
@@ -80,15 +80,29 @@ public final class AminoAcid
 	
 	private static final double smallest_mass = 57.021463721083;
 	
+	/*
+	 * L'unite des masses en virgule fixe (parametre fixedPointMasses) : 1e-4 Da, une masse de 200 000 Da tient encore dans un entier
+	 */
+	public static final double MASS_UNIT = 1e-4;
+	
 	private double mass;
+	private int mass_units; // la masse en unites de MASS_UNIT
 	
 	public AminoAcid(double mass ,double modification)
 	{
 		this.mass = mass + modification;
+		this.mass_units = AminoAcid.toUnits(this.mass);
 	}
 	
 	public double getMass() {return this.mass;}
 	
+	public int getMassUnits() {return this.mass_units;}
+	
+	/*
+	 * Retourne la masse en parametre arrondie a l'unite MASS_UNIT la plus proche
+	 */
+	public static int toUnits(double mass) {return (int)Math.round(mass / MASS_UNIT);}
+	
 	/*
 	 * Retourne le nombre total d'AA
 	 */
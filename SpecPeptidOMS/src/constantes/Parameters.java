@@ -6,6 +6,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
 import java.util.regex.Pattern;
 
 public final class Parameters {
@@ -33,10 +40,18 @@ public final class Parameters {
 	// General settings
 	static private double accuracy = 0.02; // la precision concernant la masse des pics
 	static private int nb_threads = 1; // le nombre de threads utilises
-	static private int max_realignment_size = 4; // la taille maximum d'un realignement
-	static private int max_realignment_size_first_column = 4;
+	static private int nb_protein_shards = 1; // le nombre de parties de la banque de proteines alignees en parallele pour un meme spectre (1 : pas de decoupage)
+	static private int nb_non_aligned_mass_tasks = 1; // le nombre de taches evaluant en parallele les masses non alignees candidates d'une interpretation (1 : une seule tache)
+	static private int max_realignment_size = 4; // la taille maximum d'un realignement (une valeur negative : pas de limite)
+	static private int max_realignment_size_first_column = 4; // la taille maximum d'un realignement sur la premiere colonne (une valeur negative : pas de limite)
 	static private int nb_peaks_max = 500; // le taille réservé en mémoire pour chaque spectre brut (nombre de pics). Un spectre plus gros demandera une réallacation mémoire
+	static private int nb_spectra_per_chunk = 0; // le nombre de spectres lus et transformes a l'avance pendant l'alignement (0 : tout le fichier est charge avant l'alignement)
 	static private int surplus = 5;
+	static private int min_tag_count = 0; // le nombre minimum de tags du spectre qu'une proteine doit contenir pour etre alignee lors du traitement preliminaire (0 : pas de filtre)
+	static private int tag_length = 3; // la taille des tags (suites d'AAs lues dans le spectre) recherches dans les proteines
+	static private int prefilter_window = 0; // la taille des fenetres des proteines sautees par le traitement preliminaire si aucun de leurs AAs n'a de position dans le spectre (0 : pas de prefiltre)
+	static private int protein_chunk_length = 0; // les proteines plus longues sont alignees en morceaux de cette taille (0 : pas de decoupage)
+	static private int protein_chunk_overlap = 200; // le chevauchement des morceaux, au moins la taille maximum d'une LssSM (masse du precurseur / masse de G + 2*surplus)
 	
 	// Debug mode
 	
@@ -44,9 +59,15 @@ public final class Parameters {
 	static private boolean shut_down_peaks_cleaning = false;
 	static private boolean shut_down_non_aligned_mass = false;
 	static private int version_preliminary_treatment = 0;
+	static private int nb_spectra_per_tile = 8; // le nombre de spectres alignes ensemble sur chaque proteine par le traitement preliminaire version 3
+	static private boolean vector_kernel = false; // la recherche du meilleur decalage utilise l'API Vector si ce noyau est compile (profil Maven "vector") et si le module jdk.incubator.vector est present (voir ShiftMaxKernel)
+	static private boolean fixed_point_masses = false; // le traitement preliminaire version 1 compare les masses en entiers (unites de AminoAcid.MASS_UNIT Da) plutot qu'en doubles
+	static private int final_treatment_band = 0; // la demi-largeur (en colonnes) de la bande autour du chemin de l'alignement precedent calculee par le traitement final (0 : matrice complete)
+	static private int final_treatment_cache_size = 0; // le nombre de resultats du traitement final conserves par thread pour le spectre courant (0 : pas de cache)
 	
 	// Results
 	static private int real_time_save = 500; // le nombre de spectre traites entre chaque sauvegarde
+	static private boolean export_metrics = false; // les temps passes dans chaque etape sont exportes a cote du fichier de resultats (voir PipelineMetrics)
 	static private int nb_locations_saved = 1; // le nombre de localisations potentielles retenues par spectre
 	static private int nb_interpretations_saved = 1; // le nombre d'interpretations retenus par spectre 
 	static private int min_scenario_score = 10; // le score minimum que doit atteindre un scenario pour etre considere
@@ -108,272 +129,9 @@ public final class Parameters {
 			inputBuffer = new BufferedReader(inputStream);
 			try
 			{
-				String middle_pattern = "\\s*=\\s*";
-				String end_pattern = "(\\s*|\\s+%.*)";
-				
-				String path_pattern = ".*";
-				String int_pattern = "(-)?\\d+";
-				String double_pattern = "\\d+(\\.\\d+)?";
-				String boolean_pattern = "(true|false)";
-				String filter_pattern = "mostIntense";
-
-				String line;
-				while ((line = inputBuffer.readLine()) != null)
-				{
-					// Datasets paths
-					if (Pattern.matches("proteinsFolderPath" + middle_pattern + path_pattern + end_pattern, line))
-					{
-						Parameters.proteins_folder_path = line.split(middle_pattern)[1].split("\\s+")[0];
-					}
-					else if (Pattern.matches("proteinsFile" + middle_pattern + path_pattern + end_pattern, line))
-					{
-						Parameters.proteins_file = line.split(middle_pattern)[1].split("\\s+")[0];
-					}
-					else if (Pattern.matches("spectraFolderPath" + middle_pattern + path_pattern + end_pattern, line))
-					{
-						Parameters.spectra_folder_path = line.split(middle_pattern)[1].split("\\s+")[0];
-					}
-					else if (Pattern.matches("spectraFile" + middle_pattern + path_pattern + end_pattern, line))
-					{
-						Parameters.spectra_file = line.split(middle_pattern)[1].split("\\s+")[0];
-					}
-					else if (Pattern.matches("resultsFolderPath" + middle_pattern + path_pattern + end_pattern, line))
-					{
-						Parameters.results_folder_path = line.split(middle_pattern)[1].split("\\s+")[0];
-					}
-					else if (Pattern.matches("resultsFile" + middle_pattern + path_pattern + end_pattern, line))
-					{
-						Parameters.results_file = line.split(middle_pattern)[1].split("\\s+")[0];
-					}
-					
-					// Spectra selection
-					else if (Pattern.matches("nbPeaksMin" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.nb_peaks_min = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("nbMinAAFound" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.nb_min_aa_found = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					
-					// Used filter
-					else if (Pattern.matches("usedFilter" + middle_pattern + filter_pattern + end_pattern, line))
-					{
-						Parameters.used_filter = line.split(middle_pattern)[1].split("\\s+")[0];
-					}
-					else if (Pattern.matches("nbSelectedPeaks" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.nb_selected_peaks = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					
-					// General settings						
-					else if (Pattern.matches("accuracy" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.accuracy = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("nbThreads" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.nb_threads = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("tolPeakMissing" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.max_realignment_size = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("tolPeakMissingFirstCol " + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.max_realignment_size_first_column = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("nbPeaksMax" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.nb_peaks_max = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("surplus" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.surplus = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					
-					// Debug mode
-					else if (Pattern.matches("shutDown3PeaksVersion" + middle_pattern + boolean_pattern + end_pattern, line))
-					{
-						Parameters.shut_down_3_peaks_version = Boolean.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("shutDownPeaksCleaning" + middle_pattern + boolean_pattern + end_pattern, line))
-					{
-						Parameters.shut_down_peaks_cleaning = Boolean.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("shutDownNonAlignedMass" + middle_pattern + boolean_pattern + end_pattern, line))
-					{
-						Parameters.shut_down_non_aligned_mass = Boolean.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("versionPreliminaryTreatment" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.version_preliminary_treatment = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					
-					// Results
-					else if (Pattern.matches("nbResultsAtOnce" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.real_time_save = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("nbLssSMSaved" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.nb_locations_saved = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("nbResultsReturned" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.nb_interpretations_saved = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("minScenarioScore" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.min_scenario_score = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("filterLssSMOnScore" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.locations_score_threshold = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					
-					// Score main traitement
-					else if (Pattern.matches("certainlyFoundMain" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.certainly_found_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("foundMain" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.found_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("certainlyFoundWithShiftMain" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.certainly_found_with_shift_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("foundWithShiftMain" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.found_with_shift_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("notFoundMain" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.not_found_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					
-					// Score post traitement
-					else if (Pattern.matches("certainlyFoundPost" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.certainly_found_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("foundPost" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.found_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("certainlyFoundWithShiftPost" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.certainly_found_with_shift_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("foundWithShiftPost" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.found_with_shift_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("notFoundPost" + middle_pattern + int_pattern + end_pattern, line))
-					{
-						Parameters.not_found_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					
-					// Modifications
-					else if (Pattern.matches("GModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.GModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("AModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.AModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("SModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.SModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("PModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.PModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("VModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.VModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("TModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.TModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("CModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.CModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("IModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.IModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("LModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.LModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("NModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.NModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("DModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.DModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("QModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.QModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("KModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.KModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("EModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.EModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("MModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.MModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("HModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.HModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("FModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.FModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("RModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.RModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("YModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.YModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("WModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.WModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("UModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.UModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("OModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.OModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("NTERModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.NTERModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-					else if (Pattern.matches("CTERModif" + middle_pattern + double_pattern + end_pattern, line))
-					{
-						Parameters.CTERModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
-					}
-				}
+				// le fichier de resultats est deduit du fichier de spectres s'il n'est pas donne, y compris quand les parametres sont recharges
+				Parameters.results_file = null;
+				Parameters.read(inputBuffer);
 				Parameters.Initialize();
 			}
 			finally
@@ -387,6 +145,351 @@ public final class Parameters {
 		}
 	}
 	
+	/*
+	 * Methode appliquant des parametres au format du fichier de parametres, apres son chargement (utilisee par le mode daemon pour les parametres propres a un travail)
+	 * si le fichier de spectres change et que le fichier de resultats n'est pas donne, celui-ci est deduit du fichier de spectres
+	 */
+	static public void override(String parameters) throws IOException
+	{
+		String previous_spectra_file = Parameters.spectra_file;
+		String previous_results_file = Parameters.results_file;
+		Parameters.read(new BufferedReader(new StringReader(parameters)));
+		if (!Objects.equals(previous_spectra_file, Parameters.spectra_file) && Objects.equals(previous_results_file, Parameters.results_file))
+		{
+			Parameters.results_file = null;
+		}
+		Parameters.Initialize();
+	}
+	
+	/*
+	 * Lecture des parametres ligne par ligne, les lignes qui ne correspondent a aucun parametre sont ignorees
+	 */
+	static private void read(BufferedReader inputBuffer) throws IOException
+	{
+		String middle_pattern = "\\s*=\\s*";
+		String end_pattern = "(\\s*|\\s+%.*)";
+		
+		String path_pattern = ".*";
+		String int_pattern = "(-)?\\d+";
+		String double_pattern = "\\d+(\\.\\d+)?";
+		String boolean_pattern = "(true|false)";
+		String filter_pattern = "mostIntense";
+
+		String line;
+		while ((line = inputBuffer.readLine()) != null)
+		{
+			// Datasets paths
+			if (Pattern.matches("proteinsFolderPath" + middle_pattern + path_pattern + end_pattern, line))
+			{
+				Parameters.proteins_folder_path = line.split(middle_pattern)[1].split("\\s+")[0];
+			}
+			else if (Pattern.matches("proteinsFile" + middle_pattern + path_pattern + end_pattern, line))
+			{
+				Parameters.proteins_file = line.split(middle_pattern)[1].split("\\s+")[0];
+			}
+			else if (Pattern.matches("spectraFolderPath" + middle_pattern + path_pattern + end_pattern, line))
+			{
+				Parameters.spectra_folder_path = line.split(middle_pattern)[1].split("\\s+")[0];
+			}
+			else if (Pattern.matches("spectraFile" + middle_pattern + path_pattern + end_pattern, line))
+			{
+				Parameters.spectra_file = line.split(middle_pattern)[1].split("\\s+")[0];
+			}
+			else if (Pattern.matches("resultsFolderPath" + middle_pattern + path_pattern + end_pattern, line))
+			{
+				Parameters.results_folder_path = line.split(middle_pattern)[1].split("\\s+")[0];
+			}
+			else if (Pattern.matches("resultsFile" + middle_pattern + path_pattern + end_pattern, line))
+			{
+				Parameters.results_file = line.split(middle_pattern)[1].split("\\s+")[0];
+			}
+			
+			// Spectra selection
+			else if (Pattern.matches("nbPeaksMin" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_peaks_min = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("nbMinAAFound" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_min_aa_found = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			
+			// Used filter
+			else if (Pattern.matches("usedFilter" + middle_pattern + filter_pattern + end_pattern, line))
+			{
+				Parameters.used_filter = line.split(middle_pattern)[1].split("\\s+")[0];
+			}
+			else if (Pattern.matches("nbSelectedPeaks" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_selected_peaks = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			
+			// General settings						
+			else if (Pattern.matches("accuracy" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.accuracy = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("nbThreads" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_threads = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("nbProteinShards" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_protein_shards = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("nbNonAlignedMassTasks" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_non_aligned_mass_tasks = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("tolPeakMissing" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.max_realignment_size = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("tolPeakMissingFirstCol" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.max_realignment_size_first_column = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("nbPeaksMax" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_peaks_max = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("nbSpectraPerChunk" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_spectra_per_chunk = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("surplus" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.surplus = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("minTagCount" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.min_tag_count = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("tagLength" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.tag_length = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("prefilterWindow" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.prefilter_window = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("proteinChunkLength" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.protein_chunk_length = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("proteinChunkOverlap" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.protein_chunk_overlap = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			
+			// Debug mode
+			else if (Pattern.matches("shutDown3PeaksVersion" + middle_pattern + boolean_pattern + end_pattern, line))
+			{
+				Parameters.shut_down_3_peaks_version = Boolean.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("shutDownPeaksCleaning" + middle_pattern + boolean_pattern + end_pattern, line))
+			{
+				Parameters.shut_down_peaks_cleaning = Boolean.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("shutDownNonAlignedMass" + middle_pattern + boolean_pattern + end_pattern, line))
+			{
+				Parameters.shut_down_non_aligned_mass = Boolean.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("versionPreliminaryTreatment" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.version_preliminary_treatment = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("nbSpectraPerTile" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_spectra_per_tile = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("vectorKernel" + middle_pattern + boolean_pattern + end_pattern, line))
+			{
+				Parameters.vector_kernel = Boolean.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("fixedPointMasses" + middle_pattern + boolean_pattern + end_pattern, line))
+			{
+				Parameters.fixed_point_masses = Boolean.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("finalTreatmentBand" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.final_treatment_band = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("finalTreatmentCacheSize" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.final_treatment_cache_size = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			
+			// Results
+			else if (Pattern.matches("nbResultsAtOnce" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.real_time_save = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("exportMetrics" + middle_pattern + boolean_pattern + end_pattern, line))
+			{
+				Parameters.export_metrics = Boolean.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("nbLssSMSaved" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_locations_saved = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("nbResultsReturned" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.nb_interpretations_saved = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("minScenarioScore" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.min_scenario_score = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("filterLssSMOnScore" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.locations_score_threshold = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			
+			// Score main traitement
+			else if (Pattern.matches("certainlyFoundMain" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.certainly_found_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("foundMain" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.found_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("certainlyFoundWithShiftMain" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.certainly_found_with_shift_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("foundWithShiftMain" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.found_with_shift_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("notFoundMain" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.not_found_main = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			
+			// Score post traitement
+			else if (Pattern.matches("certainlyFoundPost" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.certainly_found_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("foundPost" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.found_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("certainlyFoundWithShiftPost" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.certainly_found_with_shift_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("foundWithShiftPost" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.found_with_shift_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("notFoundPost" + middle_pattern + int_pattern + end_pattern, line))
+			{
+				Parameters.not_found_post = Integer.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			
+			// Modifications
+			else if (Pattern.matches("GModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.GModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("AModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.AModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("SModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.SModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("PModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.PModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("VModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.VModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("TModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.TModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("CModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.CModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("IModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.IModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("LModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.LModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("NModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.NModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("DModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.DModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("QModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.QModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("KModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.KModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("EModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.EModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("MModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.MModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("HModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.HModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("FModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.FModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("RModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.RModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("YModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.YModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("WModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.WModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("UModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.UModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("OModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.OModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("NTERModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.NTERModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+			else if (Pattern.matches("CTERModif" + middle_pattern + double_pattern + end_pattern, line))
+			{
+				Parameters.CTERModif = Double.valueOf(line.split(middle_pattern)[1].split("\\s+")[0]);
+			}
+		}
+	}
+	
 	/*
 	 * Methode appelee une fois les parametres charges pour effectuer certains traitements
 	 */
@@ -399,7 +502,67 @@ public final class Parameters {
 			Parameters.results_file = Parameters.spectra_file.split("\\.")[0] + ".csv";
 		}
 		Parameters.nb_threads = Math.min(Parameters.nb_threads ,Parameters.real_time_save);
+		Parameters.nb_protein_shards = Math.max(Parameters.nb_protein_shards, 1);
+		Parameters.nb_non_aligned_mass_tasks = Math.max(Parameters.nb_non_aligned_mass_tasks, 1);
+		Parameters.nb_spectra_per_tile = Math.max(Math.min(Parameters.nb_spectra_per_tile ,Parameters.real_time_save), 1);
+		Parameters.nb_spectra_per_chunk = Math.max(Parameters.nb_spectra_per_chunk, 0);
+		Parameters.min_tag_count = Math.max(Parameters.min_tag_count, 0);
+		// l'index des tags contient (nombre d'AAs)^tagLength entrees
+		Parameters.tag_length = Math.max(Math.min(Parameters.tag_length, 5), 1);
+		Parameters.prefilter_window = Math.max(Parameters.prefilter_window, 0);
+		Parameters.protein_chunk_overlap = Math.max(Parameters.protein_chunk_overlap, 0);
+		if (Parameters.protein_chunk_length > 0)
+		{
+			// deux morceaux consecutifs avancent au moins du chevauchement
+			Parameters.protein_chunk_length = Math.max(Parameters.protein_chunk_length, 2*Parameters.protein_chunk_overlap);
+		}
+		Parameters.protein_chunk_length = Math.max(Parameters.protein_chunk_length, 0);
+		Parameters.final_treatment_band = Math.max(Parameters.final_treatment_band, 0);
+		Parameters.final_treatment_cache_size = Math.max(Parameters.final_treatment_cache_size, 0);
+		if (Parameters.version_preliminary_treatment == 3 || Parameters.version_preliminary_treatment == 4)
+		{
+			// les tuiles de spectres, l'arbre des prefixes et le decoupage de la banque de proteines ne sont pas combines
+			Parameters.nb_protein_shards = 1;
+		}
 		Parameters.min_scenario_score = Math.max(Parameters.min_scenario_score, 0);
+		// les masses des realignements sont lues dans les masses cumulees des proteines, leur taille n'a donc pas besoin d'etre limitee pour le temps de calcul
+		if (Parameters.max_realignment_size < 0)
+		{
+			Parameters.max_realignment_size = Integer.MAX_VALUE;
+		}
+		if (Parameters.max_realignment_size_first_column < 0)
+		{
+			Parameters.max_realignment_size_first_column = Integer.MAX_VALUE;
+		}
+	}
+	
+	// les parametres qui ne modifient pas les resultats (les fichiers d'entree sont verifies par leur contenu, voir Checkpoint)
+	static private final List<String> NOT_IN_FINGERPRINT = Arrays.asList("file_name", "proteins_folder_path", "proteins_file", "spectra_folder_path", "spectra_file", "results_folder_path", "results_file", "nb_threads", "nb_non_aligned_mass_tasks", "nb_spectra_per_tile", "nb_spectra_per_chunk", "export_metrics", "vector_kernel");
+	
+	/*
+	 * Methode retournant la valeur de tous les parametres pouvant modifier les resultats, sous la forme "nom=valeur;..."
+	 * Elle sert a verifier qu'une recherche interrompue est reprise avec les memes parametres
+	 */
+	public static String fingerprint()
+	{
+		StringBuilder fingerprint = new StringBuilder();
+		Field[] fields = Parameters.class.getDeclaredFields();
+		Arrays.sort(fields, Comparator.comparing(Field::getName));
+		for (Field field : fields)
+		{
+			if (Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers()) && !NOT_IN_FINGERPRINT.contains(field.getName()))
+			{
+				try
+				{
+					fingerprint.append(field.getName()).append('=').append(field.get(null)).append(';');
+				}
+				catch (IllegalAccessException e)
+				{
+					// impossible, les champs appartiennent a cette classe
+				}
+			}
+		}
+		return fingerprint.toString();
 	}
 	
 	public static String PROTEINS_FOLDER_PATH() {return Parameters.proteins_folder_path;}
@@ -422,6 +585,10 @@ public final class Parameters {
 	
 	public static int NB_THREADS() {return Parameters.nb_threads;}
 	
+	public static int NB_PROTEIN_SHARDS() {return Parameters.nb_protein_shards;}
+	
+	public static int NB_NON_ALIGNED_MASS_TASKS() {return Parameters.nb_non_aligned_mass_tasks;}
+	
 	public static int MAX_REALIGNMENT_SIZE() {return Parameters.max_realignment_size;}
 	
 	public static int MAX_REALIGNMENT_SIZE_FIRST_COLUMN() {return Parameters.max_realignment_size_first_column;}
@@ -430,6 +597,16 @@ public final class Parameters {
 	
 	public static int SURPLUS() {return Parameters.surplus;}
 	
+	public static int MIN_TAG_COUNT() {return Parameters.min_tag_count;}
+	
+	public static int TAG_LENGTH() {return Parameters.tag_length;}
+	
+	public static int PREFILTER_WINDOW() {return Parameters.prefilter_window;}
+	
+	public static int PROTEIN_CHUNK_LENGTH() {return Parameters.protein_chunk_length;}
+	
+	public static int PROTEIN_CHUNK_OVERLAP() {return Parameters.protein_chunk_overlap;}
+	
 	public static boolean SHUT_DOWN_3_PEAKS_VERSION() {return Parameters.shut_down_3_peaks_version;}
 	
 	public static boolean SHUT_DOWN_PEAKS_CLEANING() {return Parameters.shut_down_peaks_cleaning;}
@@ -438,12 +615,26 @@ public final class Parameters {
 	
 	public static int VERSION_PRELIMINARY_TREATMENT() {return Parameters.version_preliminary_treatment;}
 	
+	public static int NB_SPECTRA_PER_TILE() {return Parameters.nb_spectra_per_tile;}
+	
+	public static boolean VECTOR_KERNEL() {return Parameters.vector_kernel;}
+	
+	public static boolean FIXED_POINT_MASSES() {return Parameters.fixed_point_masses;}
+	
+	public static int FINAL_TREATMENT_BAND() {return Parameters.final_treatment_band;}
+	
+	public static int FINAL_TREATMENT_CACHE_SIZE() {return Parameters.final_treatment_cache_size;}
+	
+	public static int NB_SPECTRA_PER_CHUNK() {return Parameters.nb_spectra_per_chunk;}
+	
 	public static String USED_FILTER() {return Parameters.used_filter;}
 	
 	public static int NB_SELECTED_PEAKS() {return Parameters.nb_selected_peaks;}
 	
 	public static int REAL_TIME_SAVE() {return Parameters.real_time_save;}
 	
+	public static boolean EXPORT_METRICS() {return Parameters.export_metrics;}
+	
 	public static int NB_LOCATIONS_SAVED() {return Parameters.nb_locations_saved;}
 
 	public static int NB_INTERPRETATIONS_SAVED() {return Parameters.nb_interpretations_saved;}
@@ -0,0 +1,208 @@
+package datastructures;
+
+import bioobjects.Protein;
+import bioobjects.TransformedSpectrum;
+import components.InterpretationBackup;
+import components.Location;
+import constantes.Parameters;
+
+/*
+ * l'objet "FinalTreatmentCache" conserve les resultats des derniers traitements finaux d'un spectre (voir SpecGlobThread.finalTreatment) : le nettoyage des pics utilises
+ * plusieurs fois et la recherche des masses non alignees refont souvent le meme alignement (meme location, meme masque des pics, meme masse non alignee).
+ * Chaque entree est identifiee par la location (proteine, debut, longueur), le masque des pics (compare apres son empreinte), la masse non alignee exacte
+ * (deux masses proches donnent des spectres transformes differents, elles ne sont donc pas arrondies) et le fait que le spectre soit la premiere transformation du spectre natif ou non.
+ * Elle contient la meilleure interpretation (score, ligne, colonne) et les cases de la matrice de retour (voir SpecGlobThread.traceback) sur son chemin,
+ * qui sont recopiees dans la matrice de retour lorsque l'entree est retrouvee. Les entrees sont remplacees a tour de role.
+ * Le cache est vide a chaque nouveau spectre : les colonnes d'un spectre transforme ne dependent alors que de la cle.
+ */
+public final class FinalTreatmentCache {
+
+	private static int MIN_SCENARIO_SCORE = Parameters.MIN_SCENARIO_SCORE();
+
+	private final int capacity;
+	private int size; // le nombre d'entrees remplies
+	private int next_slot; // la prochaine entree remplacee
+
+	// les cles
+	private final Protein[] proteins;
+	private final int[] beginnings;
+	private final int[] lengths;
+	private final boolean[] first_transformations;
+	private final double[] non_aligned_masses;
+	private final int[] masks_hashes;
+	private final int[][] masks;
+	private final int[] column_counts;
+
+	// les resultats
+	private final int[] scores;
+	private final int[] line_numbers;
+	private final int[] column_numbers;
+	private final int[][] paths; // 5 entiers par case du chemin : la ligne, la colonne et les 3 entiers de la case dans la matrice de retour
+	private final int[] paths_lengths;
+
+	public FinalTreatmentCache(int capacity)
+	{
+		this.capacity = capacity;
+		this.proteins = new Protein[capacity];
+		this.beginnings = new int[capacity];
+		this.lengths = new int[capacity];
+		this.first_transformations = new boolean[capacity];
+		this.non_aligned_masses = new double[capacity];
+		this.masks_hashes = new int[capacity];
+		this.masks = new int[capacity][0];
+		this.column_counts = new int[capacity];
+		this.scores = new int[capacity];
+		this.line_numbers = new int[capacity];
+		this.column_numbers = new int[capacity];
+		this.paths = new int[capacity][0];
+		this.paths_lengths = new int[capacity];
+	}
+
+	/*
+	 * vide le cache avant le traitement d'un nouveau spectre
+	 */
+	public void clear()
+	{
+		this.size = 0;
+		this.next_slot = 0;
+		for (int slot = 0; slot < this.capacity; ++slot)
+		{
+			this.proteins[slot] = null;
+		}
+	}
+
+	/*
+	 * recherche l'alignement de la location sur le spectre transforme. S'il a deja ete calcule, la meilleure interpretation est recopiee dans 'backup'
+	 * et le chemin dans 'traceback', et la methode retourne vrai.
+	 * 'native_peak_count' est le nombre de pics du spectre natif, c'est-a-dire la partie utile du masque des pics (un masque null ne retire aucun pic)
+	 */
+	public boolean restore(Location location, TransformedSpectrum spectrum, boolean first_transformation, int native_peak_count, int[] traceback, InterpretationBackup backup)
+	{
+		int slot = this.find(location, spectrum, first_transformation, native_peak_count);
+		if (slot == -1)
+		{
+			return false;
+		}
+		backup.reinit();
+		backup.tryImprove(this.scores[slot], this.line_numbers[slot], this.column_numbers[slot]);
+		int column_count = this.column_counts[slot];
+		int[] path = this.paths[slot];
+		int cell;
+		for (int i = 0; i < this.paths_lengths[slot]; i += 5)
+		{
+			cell = 3*(path[i]*column_count + path[i + 1]);
+			traceback[cell] = path[i + 2];
+			traceback[cell + 1] = path[i + 3];
+			traceback[cell + 2] = path[i + 4];
+		}
+		return true;
+	}
+
+	/*
+	 * conserve l'alignement de la location sur le spectre transforme qui vient d'etre calcule : la meilleure interpretation 'backup' et son chemin dans 'traceback'
+	 */
+	public void save(Location location, TransformedSpectrum spectrum, boolean first_transformation, int native_peak_count, int[] traceback, InterpretationBackup backup)
+	{
+		int slot = this.next_slot;
+		this.next_slot = (this.next_slot + 1) % this.capacity;
+		this.size = Math.min(this.size + 1, this.capacity);
+
+		int[] peak_mask = spectrum.getPeakMask();
+		if (this.masks[slot].length < native_peak_count)
+		{
+			this.masks[slot] = new int[native_peak_count];
+		}
+		for (int i = 0; i < native_peak_count; ++i)
+		{
+			this.masks[slot][i] = peak_mask == null ? 0 : peak_mask[i];
+		}
+		this.proteins[slot] = location.getProtein();
+		this.beginnings[slot] = location.getBeginning();
+		this.lengths[slot] = location.getLength();
+		this.first_transformations[slot] = first_transformation;
+		this.non_aligned_masses[slot] = spectrum.getNonAlignedMass();
+		this.masks_hashes[slot] = FinalTreatmentCache.hash(peak_mask, native_peak_count);
+		this.column_counts[slot] = spectrum.getColumnCount();
+
+		this.scores[slot] = backup.getScore();
+		this.line_numbers[slot] = backup.getLineNumber();
+		this.column_numbers[slot] = backup.getColumnNumber();
+		this.paths_lengths[slot] = 0;
+		if (backup.getScore() <= MIN_SCENARIO_SCORE)
+		{
+			// aucune case n'a ete trouvee, la ligne et la colonne de la meilleure interpretation ne sont pas significatives
+			return;
+		}
+		// le chemin compte au plus une case par ligne de la location, plus la case de la colonne 0
+		if (this.paths[slot].length < 5*(location.getLength() + 2))
+		{
+			this.paths[slot] = new int[5*(location.getLength() + 2)];
+		}
+		int[] path = this.paths[slot];
+		int column_count = spectrum.getColumnCount();
+		int row = backup.getLineNumber();
+		int column = backup.getColumnNumber();
+		int cell;
+		int length = 0;
+		while (column > 0)
+		{
+			cell = 3*(row*column_count + column);
+			path[length] = row;
+			path[length + 1] = column;
+			path[length + 2] = traceback[cell];
+			path[length + 3] = traceback[cell + 1];
+			path[length + 4] = traceback[cell + 2];
+			length += 5;
+			row = traceback[cell];
+			column = traceback[cell + 1];
+		}
+		this.paths_lengths[slot] = length;
+	}
+
+	/*
+	 * l'entree correspondant a la cle, -1 si elle n'est pas dans le cache
+	 */
+	private int find(Location location, TransformedSpectrum spectrum, boolean first_transformation, int native_peak_count)
+	{
+		int[] peak_mask = spectrum.getPeakMask();
+		double non_aligned_mass = spectrum.getNonAlignedMass();
+		int mask_hash = FinalTreatmentCache.hash(peak_mask, native_peak_count);
+		for (int slot = 0; slot < this.size; ++slot)
+		{
+			if (this.proteins[slot] == location.getProtein() && this.beginnings[slot] == location.getBeginning() && this.lengths[slot] == location.getLength()
+					&& this.first_transformations[slot] == first_transformation && this.non_aligned_masses[slot] == non_aligned_mass && this.masks_hashes[slot] == mask_hash
+					&& this.column_counts[slot] == spectrum.getColumnCount() && FinalTreatmentCache.sameMask(this.masks[slot], peak_mask, native_peak_count))
+			{
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private static int hash(int[] peak_mask, int native_peak_count)
+	{
+		int hash = 1;
+		for (int i = 0; i < native_peak_count; ++i)
+		{
+			hash = 31*hash + (peak_mask == null ? 0 : peak_mask[i]);
+		}
+		return hash;
+	}
+
+	private static boolean sameMask(int[] saved_mask, int[] peak_mask, int native_peak_count)
+	{
+		for (int i = 0; i < native_peak_count; ++i)
+		{
+			if (saved_mask[i] != (peak_mask == null ? 0 : peak_mask[i]))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static void reset()
+	{
+		MIN_SCENARIO_SCORE = Parameters.MIN_SCENARIO_SCORE();
+	}
+}
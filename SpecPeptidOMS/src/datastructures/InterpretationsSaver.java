@@ -1,14 +1,15 @@
 package datastructures;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
 import components.Alignment;
 import components.LocationBackup;
 import constantes.Parameters;
 import loaders.Proteins;
 import bioobjects.NativeSpectrum;
 
-import java.io.PrintWriter;
-import java.text.DecimalFormat;
-
 /*
  * l'objet "ScenarioSaver" sert a stocker les 'x' meilleurs interpretations d'un spectre en dynamique, c'est à dire que ces 'x' meilleures peuvent changer en direct ('x' est a définir dans les parametres).
  * Un "ScenarioSaver" est principalement compose d'un tas binaire permettant d'effectuer en temps logarithmique en 'x', la modification dynamique des meilleures interpretations.
@@ -20,8 +21,8 @@ public final class InterpretationsSaver {
 	private static double LOCATIONS_SCORE_THRESHOLD = Parameters.LOCATIONS_SCORE_THRESHOLD();
 	private static int NB_LOCATIONS_SAVED = Parameters.NB_LOCATIONS_SAVED();
 	private static int NB_INTERPRETATIONS_SAVED = Parameters.NB_INTERPRETATIONS_SAVED();
-	
-	private static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("0.00");
+	// ordre des localisations rendues par getLocations : score croissant, puis numero de proteine et positions croissants
+	private static final Comparator<LocationBackup> LOCATIONS_ORDER = Comparator.comparingInt(LocationBackup::getScore).thenComparingInt(LocationBackup::getProteinId).thenComparingInt(LocationBackup::getStartLine).thenComparingInt(LocationBackup::getEndLine);
 
 	private LocationBackup[] locations_heap; // le tas binaire
 	private LocationBackup current_heap_element;
@@ -29,6 +30,8 @@ public final class InterpretationsSaver {
 	private int max_score_location;
 	private double locations_score_threshold;
 	
+	private int[] chunks_shift; // voir Proteins.getChunksShift, null si aucune proteine n'est decoupee
+	private int chunk_overlap;
 	private int[] trees_position; // une liste permettant de connaitre la position d'une interpretation dans le tas en fonction de son numero d'arbre
 	private int current_protein_number; // permet de retenir le numero de la protein sur laquelle est effectue l'alignement courant
 	private NativeSpectrum current_spectrum; // permet de retenir le numero du spectre sur lequel est effectue l'alignement courant 
@@ -56,6 +59,8 @@ public final class InterpretationsSaver {
 		}
 		this.min_score_location = MIN_SCENARIO_SCORE;
 		this.max_score_location = MIN_SCENARIO_SCORE;
+		this.chunks_shift = Proteins.getChunksShift();
+		this.chunk_overlap = Proteins.getChunkOverlap();
 		simple_alignment_hits_modified = new String[NB_INTERPRETATIONS_SAVED];
 		simple_alignment_sequences = new String[NB_INTERPRETATIONS_SAVED];
 		simple_alignment_scores = new int[NB_INTERPRETATIONS_SAVED];
@@ -70,11 +75,13 @@ public final class InterpretationsSaver {
 	
 	/*
 	 * methode appelee lorsque l'on change de spectre (on pointe alors vers l'objet "trees_position" du nouveau spectre)
+	 * le tas est vide : les localisations du spectre precedent ne doivent pas prendre la place de celles du nouveau spectre
 	 */
 	public void updateSpectrum(int[] trees_position ,NativeSpectrum spectrum)
 	{
 		this.trees_position = trees_position;
 		this.current_spectrum = spectrum;
+		this.clearLocations();
 	}
 	
 	/*
@@ -92,6 +99,14 @@ public final class InterpretationsSaver {
 	 */
 	public int tryAddLocation(int start_line ,int end_line ,int score ,int tree_id)
 	{
+		if (this.chunks_shift != null && this.chunks_shift[this.current_protein_number] > 0 && end_line <= this.chunk_overlap)
+		{
+			/*
+			 * la localisation est entierement contenue dans la fin du morceau qui chevauche le morceau suivant : elle est aussi trouvee dans le morceau suivant, ou l'alignement
+			 * (qui parcourt les sequences a l'envers) a deja lu les AAs qui la suivent dans la proteine comme sans decoupage. Elle ne doit pas occuper une seconde place du tas
+			 */
+			return this.min_score_location;
+		}
 		if (this.trees_position[tree_id] != -1 && this.locations_heap[this.trees_position[tree_id]].getProteinId() == this.current_protein_number)
 		{
 			if (this.locations_heap[this.trees_position[tree_id]].getScore() < score)
@@ -178,10 +193,61 @@ public final class InterpretationsSaver {
 		this.trees_position[this.current_heap_element.getTreeID()] = position;
 	}
 	
+	/*
+	 * vide le tas
+	 */
+	private void clearLocations()
+	{
+		for (LocationBackup location : this.locations_heap)
+		{
+			location.update(0, 0, MIN_SCENARIO_SCORE, 0, -1, -1);
+		}
+		this.min_score_location = MIN_SCENARIO_SCORE;
+		this.max_score_location = MIN_SCENARIO_SCORE;
+	}
+
+	/*
+	 * ajoute dans le tas les localisations du spectre courant retenues par un autre "InterpretationsSaver" sur une autre partie de la banque de proteines.
+	 * Les parties etant disjointes, deux localisations ne peuvent pas appartenir au meme arbre : une localisation prend simplement la place de la moins bonne si son score est superieur.
+	 * Les localisations sont ajoutees par score decroissant puis par numero de proteine croissant, comme si les proteines avaient ete alignees dans l'ordre.
+	 */
+	public void mergeLocations(InterpretationsSaver[] savers)
+	{
+		ArrayList<LocationBackup> candidates = new ArrayList<LocationBackup>();
+		for (InterpretationsSaver saver : savers)
+		{
+			for (LocationBackup location : saver.getLocations())
+			{
+				if (location.getSpectrumId() == this.current_spectrum.getID() && location.getScore() > MIN_SCENARIO_SCORE)
+				{
+					candidates.add(location);
+				}
+			}
+		}
+		candidates.sort(Comparator.comparingInt(LocationBackup::getScore).reversed().thenComparingInt(LocationBackup::getProteinId));
+		this.current_protein_number = -1;
+		for (LocationBackup location : candidates)
+		{
+			if (location.getScore() <= this.min_score_location)
+			{
+				break;
+			}
+			this.locations_heap[0].update(location.getStartLine(), location.getEndLine(), location.getScore(), location.getTreeID(), location.getProteinId(), location.getSpectrumId());
+			this.max_score_location = Math.max(this.max_score_location, location.getScore());
+			this.repositionLocation(0);
+		}
+	}
+
+	/*
+	 * rend les localisations retenues pour le spectre courant, triees par score croissant puis par numero de proteine et positions croissants (un tableau trie reste un tas valide).
+	 * La disposition du tas depend de l'ordre dans lequel les localisations y sont entrees : sans ce tri, deux localisations de meme score ne seraient pas traitees dans le meme ordre
+	 * selon que les proteines ont ete alignees dans l'ordre ou par parties (nbProteinShards), et l'interpretation retenue pour le spectre pourrait changer.
+	 */
 	public LocationBackup[] getLocations()
 	{
 		this.locations_score_threshold = this.max_score_location * LOCATIONS_SCORE_THRESHOLD;
 		this.max_score_location = MIN_SCENARIO_SCORE;
+		Arrays.sort(this.locations_heap, LOCATIONS_ORDER);
 		return this.locations_heap;
 	}
 	
@@ -227,28 +293,13 @@ public final class InterpretationsSaver {
 	}
 	
 	/*
-	 * methode appelee lorsque les resultats courant doivent etre sauvegardes dans le fichier de resultat
+	 * methode appelee lorsque le spectre courant est traite : une copie immuable des resultats est construite pour etre ecrite dans le fichier de resultat
+	 * par le ResultsWriter, ce qui permet de reutiliser immediatement ce "InterpretationsSaver" pour un autre spectre
 	 */
-	
-	public void save(PrintWriter output)
+	public SpectrumResult getResult()
 	{
-		for (int interpretation_number = 0; interpretation_number < NB_INTERPRETATIONS_SAVED; ++interpretation_number)
-		{
-			if (this.simple_alignment_hits_modified[interpretation_number] != null)
-			{
-				output.write(String.format("%s;%d;%d", this.current_spectrum.getTitle(), this.current_spectrum.getScan(), this.current_spectrum.getID()));
-				output.write(String.format(";%s;%s;%s;%d;%d", this.simple_alignment_sequences[interpretation_number], Proteins.foundPeptide(this.simple_alignment_sequences[interpretation_number]), this.simple_alignment_hits_modified[interpretation_number], this.simple_alignment_scores[interpretation_number], this.simple_alignment_nb_common_peaks[interpretation_number]));
-				//if (this.non_aligned_mass_nb_common_peaks[interpretation_number] >= this.simple_alignment_nb_common_peaks[interpretation_number] + 3)
-				if (this.non_aligned_mass_hits_modified[interpretation_number] != null)
-				{
-					output.write(String.format(";%s;%s;%s;%s;%d;%d\n", DECIMAL_FORMAT.format(this.non_aligned_masses[interpretation_number]), this.non_aligned_mass_sequences[interpretation_number], Proteins.foundPeptide(this.non_aligned_mass_sequences[interpretation_number]), this.non_aligned_mass_hits_modified[interpretation_number], this.non_aligned_mass_scores[interpretation_number], this.non_aligned_mass_nb_common_peaks[interpretation_number]));
-				}
-				else
-				{
-					output.write(";;;;;;;\n");
-				}
-			}
-		}
+		return new SpectrumResult(this.current_spectrum.getTitle(), this.current_spectrum.getScan(), this.current_spectrum.getID(), this.simple_alignment_hits_modified, this.simple_alignment_sequences, this.simple_alignment_scores, this.simple_alignment_nb_common_peaks,
+				this.non_aligned_mass_hits_modified, this.non_aligned_mass_sequences, this.non_aligned_mass_scores, this.non_aligned_mass_nb_common_peaks, this.non_aligned_masses);
 	}
 	
 	public static void reset()
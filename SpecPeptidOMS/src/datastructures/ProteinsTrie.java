@@ -0,0 +1,172 @@
+package datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import bioobjects.Protein;
+
+/*
+ * l'objet "ProteinsTrie" est l'arbre des prefixes (compresse) des sequences des proteines, telles qu'elles sont stockees (c'est-a-dire inversees, voir Protein).
+ * Les proteines partageant un meme debut de sequence (isoformes, paralogues, doublons) partagent les noeuds correspondants : les lignes de la matrice d'alignement
+ * de ce debut ne sont calculees qu'une fois (voir SpecGlobThread.preliminaryTreatmentv4).
+ * Chaque noeud correspond aux lignes getParentDepth(n) a getDepth(n) - 1 (numerotees a partir de 0) des proteines passant par lui, la racine (noeud 0) ne contient aucune ligne.
+ * Les noeuds sont numerotes dans l'ordre d'un parcours en profondeur (prefixe) : les descendants du noeud n sont les noeuds n + 1 a getSubtreeEnd(n) - 1.
+ * Une proteine se termine sur un noeud (une feuille, ou un noeud interne si sa sequence est le debut d'une autre), elle est formee des noeuds de la racine a celui-ci.
+ */
+public final class ProteinsTrie {
+
+	private int[] parent;
+	private int[] depth;
+	private int[] protein; // une proteine passant par le noeud, dont la sequence donne les AAs des lignes du noeud
+	private int[] subtree_end;
+	private int[] terminal; // le noeud sur lequel se termine chaque proteine
+	private int rows_count; // le nombre de lignes de l'arbre (la somme des longueurs des noeuds)
+	private int max_nodes_depth; // le nombre maximum de noeuds entre la racine (exclue) et le noeud d'une proteine (inclus)
+
+	/*
+	 * construction de l'arbre : les proteines sont triees par sequence, chacune partage alors avec la precedente le plus long debut commun (lcp)
+	 * qu'elle peut partager avec les proteines deja inserees. La pile contient les noeuds du chemin de la proteine precedente.
+	 * L'arbre est construit avec des listes d'enfants puis renumerote dans l'ordre prefixe.
+	 */
+	public ProteinsTrie(Protein[] proteins)
+	{
+		Integer[] order = new Integer[proteins.length];
+		for (int i = 0; i < order.length; ++i)
+		{
+			order[i] = i;
+		}
+		Arrays.sort(order, (first, second) -> Arrays.compare(proteins[first].getSequence(), proteins[second].getSequence()));
+
+		ArrayList<Integer> parent_temp = new ArrayList<Integer>();
+		ArrayList<Integer> depth_temp = new ArrayList<Integer>();
+		ArrayList<Integer> protein_temp = new ArrayList<Integer>();
+		ArrayList<ArrayList<Integer>> children = new ArrayList<ArrayList<Integer>>();
+		int[] terminal_temp = new int[proteins.length];
+		parent_temp.add(-1);
+		depth_temp.add(0);
+		protein_temp.add(-1);
+		children.add(new ArrayList<Integer>());
+
+		int[] stack = new int[proteins.length + 2];
+		int stack_size = 1; // la racine
+		int[] previous_sequence = null;
+		for (int protein_number : order)
+		{
+			int[] sequence = proteins[protein_number].getSequence();
+			int lcp = 0;
+			if (previous_sequence != null)
+			{
+				while (lcp < sequence.length && lcp < previous_sequence.length && sequence[lcp] == previous_sequence[lcp])
+				{
+					++lcp;
+				}
+			}
+			int last_popped = -1;
+			while (depth_temp.get(stack[stack_size - 1]) > lcp)
+			{
+				last_popped = stack[--stack_size];
+			}
+			int top = stack[stack_size - 1];
+			if (depth_temp.get(top) < lcp)
+			{
+				// le noeud 'last_popped' est coupe en deux a la profondeur lcp
+				int middle = depth_temp.size();
+				parent_temp.add(top);
+				depth_temp.add(lcp);
+				protein_temp.add(protein_temp.get(last_popped));
+				children.add(new ArrayList<Integer>());
+				children.get(top).set(children.get(top).size() - 1, middle);
+				children.get(middle).add(last_popped);
+				parent_temp.set(last_popped, middle);
+				stack[stack_size++] = middle;
+				top = middle;
+			}
+			if (sequence.length > lcp)
+			{
+				int leaf = depth_temp.size();
+				parent_temp.add(top);
+				depth_temp.add(sequence.length);
+				protein_temp.add(protein_number);
+				children.add(new ArrayList<Integer>());
+				children.get(top).add(leaf);
+				stack[stack_size++] = leaf;
+				top = leaf;
+			}
+			terminal_temp[protein_number] = top;
+			previous_sequence = sequence;
+		}
+
+		// renumerotation dans l'ordre prefixe
+		int node_count = depth_temp.size();
+		int[] new_number = new int[node_count];
+		this.parent = new int[node_count];
+		this.depth = new int[node_count];
+		this.protein = new int[node_count];
+		this.subtree_end = new int[node_count];
+		int[] nodes_stack = new int[node_count];
+		int[] path_length = new int[node_count];
+		int nodes_stack_size = 0;
+		int next_number = 0;
+		nodes_stack[nodes_stack_size++] = 0;
+		while (nodes_stack_size > 0)
+		{
+			int node = nodes_stack[--nodes_stack_size];
+			int number = next_number++;
+			new_number[node] = number;
+			this.depth[number] = depth_temp.get(node);
+			this.protein[number] = protein_temp.get(node);
+			this.parent[number] = node == 0 ? -1 : new_number[parent_temp.get(node)];
+			path_length[number] = node == 0 ? 0 : path_length[this.parent[number]] + 1;
+			this.max_nodes_depth = Math.max(this.max_nodes_depth, path_length[number]);
+			if (node != 0)
+			{
+				this.rows_count += this.depth[number] - this.depth[this.parent[number]];
+			}
+			// les enfants sont empiles a l'envers pour etre numerotes dans l'ordre
+			ArrayList<Integer> node_children = children.get(node);
+			for (int i = node_children.size() - 1; i >= 0; --i)
+			{
+				nodes_stack[nodes_stack_size++] = node_children.get(i);
+			}
+		}
+		for (int number = node_count - 1; number >= 0; --number)
+		{
+			this.subtree_end[number] = Math.max(this.subtree_end[number], number + 1);
+			if (this.parent[number] != -1)
+			{
+				this.subtree_end[this.parent[number]] = Math.max(this.subtree_end[this.parent[number]], this.subtree_end[number]);
+			}
+		}
+		this.terminal = new int[proteins.length];
+		for (int protein_number = 0; protein_number < proteins.length; ++protein_number)
+		{
+			this.terminal[protein_number] = new_number[terminal_temp[protein_number]];
+		}
+	}
+
+	public int getNodeCount() {return this.depth.length;}
+
+	public int getParent(int node) {return this.parent[node];}
+
+	public int getDepth(int node) {return this.depth[node];}
+
+	public int getParentDepth(int node) {return this.depth[this.parent[node]];}
+
+	public int getProtein(int node) {return this.protein[node];}
+
+	public int getSubtreeEnd(int node) {return this.subtree_end[node];}
+
+	public int getTerminal(int protein_number) {return this.terminal[protein_number];}
+
+	public int getRowsCount() {return this.rows_count;}
+
+	public int getMaxNodesDepth() {return this.max_nodes_depth;}
+
+	/*
+	 * retourne vrai si le noeud a au moins deux enfants (l'etat de l'alignement a la fin de ses lignes doit alors etre conserve pour chacun d'eux)
+	 */
+	public boolean isBranching(int node)
+	{
+		return node + 1 < this.subtree_end[node] && this.subtree_end[node + 1] < this.subtree_end[node];
+	}
+}
@@ -0,0 +1,87 @@
+package datastructures;
+
+import java.io.PrintWriter;
+import java.text.DecimalFormat;
+
+import loaders.Proteins;
+
+/**
+ * This class is an immutable copy of the interpretations kept for a spectrum by an InterpretationsSaver.
+ * It is built by the SpecGlobThread that treated the spectrum and then given to the ResultsWriter, so the InterpretationsSaver can immediately be reused for another spectrum.
+ * The formatting of the line(s) of the results file is performed by the ResultsWriter, not by the SpecGlobThread.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class SpectrumResult {
+
+	private static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("0.00");
+
+	/**
+	 * Given to the ResultsWriter after the last spectrum, it is never written
+	 */
+	public static final SpectrumResult END_OF_RESULTS = new SpectrumResult(null, 0, -1, new String[0], new String[0], new int[0], new int[0], new String[0], new String[0], new int[0], new int[0], new double[0]);
+
+	private final String title;
+	private final int scan;
+	private final int id;
+
+	private final String[] simple_alignment_hits_modified;
+	private final String[] simple_alignment_sequences;
+	private final int[] simple_alignment_scores;
+	private final int[] simple_alignment_nb_common_peaks;
+
+	private final String[] non_aligned_mass_hits_modified;
+	private final String[] non_aligned_mass_sequences;
+	private final int[] non_aligned_mass_scores;
+	private final int[] non_aligned_mass_nb_common_peaks;
+	private final double[] non_aligned_masses;
+
+	/**
+	 * The arrays in parameter are copied.
+	 */
+	SpectrumResult(String title, int scan, int id, String[] simple_alignment_hits_modified, String[] simple_alignment_sequences, int[] simple_alignment_scores, int[] simple_alignment_nb_common_peaks,
+			String[] non_aligned_mass_hits_modified, String[] non_aligned_mass_sequences, int[] non_aligned_mass_scores, int[] non_aligned_mass_nb_common_peaks, double[] non_aligned_masses)
+	{
+		this.title = title;
+		this.scan = scan;
+		this.id = id;
+		this.simple_alignment_hits_modified = simple_alignment_hits_modified.clone();
+		this.simple_alignment_sequences = simple_alignment_sequences.clone();
+		this.simple_alignment_scores = simple_alignment_scores.clone();
+		this.simple_alignment_nb_common_peaks = simple_alignment_nb_common_peaks.clone();
+		this.non_aligned_mass_hits_modified = non_aligned_mass_hits_modified.clone();
+		this.non_aligned_mass_sequences = non_aligned_mass_sequences.clone();
+		this.non_aligned_mass_scores = non_aligned_mass_scores.clone();
+		this.non_aligned_mass_nb_common_peaks = non_aligned_mass_nb_common_peaks.clone();
+		this.non_aligned_masses = non_aligned_masses.clone();
+	}
+
+	/**
+	 * Getter of the intern identifier of the spectrum
+	 * @return the intern identifier
+	 */
+	public int getID() {return this.id;}
+
+	/**
+	 * Write the line(s) corresponding to the spectrum in the results file
+	 * @param output: the results file
+	 */
+	public void save(PrintWriter output)
+	{
+		for (int interpretation_number = 0; interpretation_number < this.simple_alignment_hits_modified.length; ++interpretation_number)
+		{
+			if (this.simple_alignment_hits_modified[interpretation_number] != null)
+			{
+				output.write(String.format("%s;%d;%d", this.title, this.scan, this.id));
+				output.write(String.format(";%s;%s;%s;%d;%d", this.simple_alignment_sequences[interpretation_number], Proteins.foundPeptide(this.simple_alignment_sequences[interpretation_number]), this.simple_alignment_hits_modified[interpretation_number], this.simple_alignment_scores[interpretation_number], this.simple_alignment_nb_common_peaks[interpretation_number]));
+				if (this.non_aligned_mass_hits_modified[interpretation_number] != null)
+				{
+					output.write(String.format(";%s;%s;%s;%s;%d;%d\n", DECIMAL_FORMAT.format(this.non_aligned_masses[interpretation_number]), this.non_aligned_mass_sequences[interpretation_number], Proteins.foundPeptide(this.non_aligned_mass_sequences[interpretation_number]), this.non_aligned_mass_hits_modified[interpretation_number], this.non_aligned_mass_scores[interpretation_number], this.non_aligned_mass_nb_common_peaks[interpretation_number]));
+				}
+				else
+				{
+					output.write(";;;;;;;\n");
+				}
+			}
+		}
+	}
+}
@@ -1,10 +1,14 @@
 package loaders;
 
+import constantes.AminoAcid;
 import constantes.Parameters;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import bioobjects.Protein;
+import datastructures.ProteinsTrie;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileInputStream;
@@ -21,11 +25,34 @@ import GUI.SpecProtGUI;
  */
 public final class Proteins {
 
-	private static Protein[] list; // la liste des proteines
+	private static Protein[] list; // la liste des proteines alignees : une seule par sequence, les plus longues etant remplacees par leurs morceaux (voir updateChunks)
+	private static Protein[] distinct; // une proteine par sequence, la premiere entree ayant cette sequence
+	private static Protein[] entries; // toutes les entrees du fichier, dans l'ordre, doublons compris (pour les colonnes des positions des peptides)
+	private static int[] entries_protein; // le numero dans 'distinct' de la proteine de chaque entree
 	private static int max_length = 0; // la taille de la plus grande proteine stockee (sert pour la construction de(s) matrice(s) d'alignement)
+	
+	// le decoupage des proteines de plus de proteinChunkLength AAs en morceaux se chevauchant de proteinChunkOverlap AAs, -1 si 'list' n'est pas construite
+	private static int chunk_length = -1;
+	private static int chunk_overlap = -1;
+	private static int[] chunks_shift; // le nombre d'AAs de la proteine entiere apres la fin de chaque proteine de 'list' (0 hors morceaux et pour le dernier), null sans decoupage
 	private static Pattern pattern = Pattern.compile("\\|.+\\|");
 	private static Matcher matcher;
 	
+	// l'index des tags : les proteines contenant le tag de code c sont tags_proteins[tags_offsets[c]] a tags_proteins[tags_offsets[c + 1] - 1] (voir TransformedSpectrum.getTags pour le code d'un tag)
+	private static int indexed_tag_length = 0; // la taille des tags indexes, 0 si l'index n'est pas construit
+	private static int[] tags_offsets;
+	private static int[] tags_proteins;
+	
+	// la composition des proteines : la proteine p contient compositions[p*(nombre d'AAs) + a] fois l'AA a (voir countResidues)
+	private static int[] compositions;
+	
+	// les masques des fenetres de prefilterWindow AAs : le bit a du masque de la fenetre w de la proteine p, windows_masks[windows_offsets[p] + w], est a 1 si l'AA a est dans la fenetre
+	private static int masked_window = 0; // la taille des fenetres des masques, 0 s'ils ne sont pas construits
+	private static int[] windows_offsets;
+	private static int[] windows_masks;
+	
+	private static ProteinsTrie trie = null; // l'arbre des prefixes des sequences, construit pour la version 4 du traitement preliminaire
+	
 	public static void load() throws FileNotFoundException ,IOException
 	{
 		String path = Parameters.PROTEINS_FOLDER_PATH() + "/" + Parameters.PROTEINS_FILE();
@@ -57,6 +84,276 @@ public final class Proteins {
 				input_buffer.close();
 			}
 		}
+		Proteins.updateChunks();
+		Proteins.updateTagIndex();
+		Proteins.updateWindowsMasks();
+		Proteins.updateTrie();
+	}
+	
+	/*
+	 * construit la liste des proteines alignees si le decoupage a change : les proteines de plus de proteinChunkLength AAs y sont remplacees par des morceaux de
+	 * proteinChunkLength AAs, chacun commencant proteinChunkLength - proteinChunkOverlap AAs apres le precedent. Le chevauchement etant au moins la taille d'une LssSM,
+	 * chaque LssSM est entierement contenue dans un morceau. Les morceaux gardent le nom de leur proteine et les positions des peptides sont recherchees dans les
+	 * sequences entieres (voir foundPeptide) : les resultats restent dans les coordonnees des proteines. Une LssSM contenue dans le chevauchement de deux morceaux n'est gardee
+	 * que dans le second (voir InterpretationsSaver.tryAddLocation) et un alignement trouve dans deux morceaux n'est rendu qu'une fois (voir SpecGlobThread.clearChunksDuplicates).
+	 * Les structures construites sur 'list' (compositions, index des tags, masques des fenetres, arbre des prefixes) sont alors reconstruites.
+	 */
+	public static void updateChunks()
+	{
+		int length = Parameters.PROTEIN_CHUNK_LENGTH();
+		int overlap = Parameters.PROTEIN_CHUNK_OVERLAP();
+		if (length == Proteins.chunk_length && (length == 0 || overlap == Proteins.chunk_overlap))
+		{
+			return;
+		}
+		ArrayList<Protein> list_temp = new ArrayList<Protein>(Proteins.distinct.length);
+		ArrayList<Integer> shift_temp = new ArrayList<Integer>(Proteins.distinct.length);
+		int chunked_count = 0;
+		Proteins.max_length = 0;
+		for (Protein protein : Proteins.distinct)
+		{
+			String sequence = protein.getRealSequence();
+			if (length == 0 || sequence.length() <= length)
+			{
+				list_temp.add(protein);
+				shift_temp.add(0);
+				Proteins.max_length = Math.max(Proteins.max_length, sequence.length());
+				continue;
+			}
+			++chunked_count;
+			for (int start = 0; ; start += length - overlap)
+			{
+				int end = Math.min(start + length, sequence.length());
+				list_temp.add(new Protein(sequence.substring(start, end), protein.getName(), protein.getDescription()));
+				shift_temp.add(sequence.length() - end);
+				if (end == sequence.length())
+				{
+					break;
+				}
+			}
+			Proteins.max_length = Math.max(Proteins.max_length, length);
+		}
+		Proteins.list = new Protein[list_temp.size()];
+		Proteins.chunks_shift = chunked_count > 0 ? new int[list_temp.size()] : null;
+		for (int i = 0; i < Proteins.list.length; ++i)
+		{
+			Proteins.list[i] = list_temp.get(i);
+			if (Proteins.chunks_shift != null)
+			{
+				Proteins.chunks_shift[i] = shift_temp.get(i);
+			}
+		}
+		Proteins.chunk_length = length;
+		Proteins.chunk_overlap = overlap;
+		if (chunked_count > 0)
+		{
+			System.out.println(chunked_count + " proteins longer than " + length + " amino acids are aligned in " + (Proteins.list.length - Proteins.distinct.length + chunked_count) + " overlapping chunks.");
+		}
+		Proteins.updateCompositions();
+		Proteins.indexed_tag_length = 0;
+		Proteins.masked_window = 0;
+		Proteins.trie = null;
+	}
+	
+	/*
+	 * construit les masques des AAs des fenetres des proteines si le prefiltre est utilise (prefilterWindow > 0) et s'ils ne sont pas deja construits pour cette taille de fenetre
+	 * les AAs sont moins de 32, un masque tient dans un entier
+	 */
+	public static void updateWindowsMasks()
+	{
+		int window = Parameters.PREFILTER_WINDOW();
+		if (window == 0)
+		{
+			Proteins.masked_window = 0;
+			Proteins.windows_offsets = null;
+			Proteins.windows_masks = null;
+			return;
+		}
+		if (Proteins.masked_window == window)
+		{
+			return;
+		}
+		Proteins.windows_offsets = new int[Proteins.list.length + 1];
+		for (int protein_number = 0; protein_number < Proteins.list.length; ++protein_number)
+		{
+			Proteins.windows_offsets[protein_number + 1] = Proteins.windows_offsets[protein_number] + (Proteins.list[protein_number].getLength() + window - 1) / window;
+		}
+		Proteins.windows_masks = new int[Proteins.windows_offsets[Proteins.list.length]];
+		for (int protein_number = 0; protein_number < Proteins.list.length; ++protein_number)
+		{
+			int[] sequence = Proteins.list[protein_number].getSequence();
+			for (int position = 0; position < sequence.length; ++position)
+			{
+				Proteins.windows_masks[Proteins.windows_offsets[protein_number] + position / window] |= 1 << sequence[position];
+			}
+		}
+		Proteins.masked_window = window;
+	}
+	
+	public static int[] getWindowsOffsets()
+	{
+		return Proteins.windows_offsets;
+	}
+	
+	public static int[] getWindowsMasks()
+	{
+		return Proteins.windows_masks;
+	}
+	
+	private static void updateCompositions()
+	{
+		Proteins.compositions = new int[Proteins.list.length * AminoAcid.getCount()];
+		for (int protein_number = 0; protein_number < Proteins.list.length; ++protein_number)
+		{
+			int offset = protein_number * AminoAcid.getCount();
+			for (int aa_number : Proteins.list[protein_number].getSequence())
+			{
+				++Proteins.compositions[offset + aa_number];
+			}
+		}
+	}
+	
+	/*
+	 * retourne la somme sur les AAs du minimum entre leur nombre dans la proteine et leur nombre de positions dans le spectre ('aa_positions_number',
+	 * voir TransformedSpectrum.getAminoAcidsPositionsNumber) : c'est le nombre maximum de lignes sur lesquelles le score d'un alignement peut augmenter (voir SpecGlobThread.isWithinReach)
+	 */
+	public static int countResidues(int protein_number, int[] aa_positions_number)
+	{
+		int count = 0;
+		int offset = protein_number * AminoAcid.getCount();
+		for (int aa_number = 0; aa_number < AminoAcid.getCount(); ++aa_number)
+		{
+			count += Math.min(Proteins.compositions[offset + aa_number], aa_positions_number[aa_number]);
+		}
+		return count;
+	}
+	
+	/*
+	 * recalcule les masses cumulees des sequences (voir Protein.getMass), qui dependent des modifications des AAs et du parametre fixedPointMasses
+	 */
+	public static void updatePrefixMasses()
+	{
+		for (Protein protein : Proteins.list)
+		{
+			protein.updatePrefixMasses();
+		}
+	}
+	
+	/*
+	 * construit l'arbre des prefixes des sequences si la version 4 du traitement preliminaire est utilisee et s'il n'est pas deja construit
+	 */
+	public static void updateTrie()
+	{
+		if (Parameters.VERSION_PRELIMINARY_TREATMENT() != 4)
+		{
+			Proteins.trie = null;
+			return;
+		}
+		if (Proteins.trie == null)
+		{
+			Proteins.trie = new ProteinsTrie(Proteins.list);
+			long length = 0;
+			for (Protein protein : Proteins.list)
+			{
+				length += protein.getLength();
+			}
+			System.out.println("The prefix tree of the proteins contains " + Proteins.trie.getRowsCount() + " amino acids out of " + length + ".");
+		}
+	}
+	
+	public static ProteinsTrie getTrie()
+	{
+		return Proteins.trie;
+	}
+	
+	/*
+	 * construit l'index des tags si le filtre sur les tags est utilise (minTagCount > 0) et s'il n'est pas deja construit pour la taille de tags courante
+	 * l'index est construit en deux passes : le nombre de proteines par tag, puis les proteines
+	 */
+	public static void updateTagIndex()
+	{
+		if (Parameters.MIN_TAG_COUNT() == 0)
+		{
+			Proteins.indexed_tag_length = 0;
+			Proteins.tags_offsets = null;
+			Proteins.tags_proteins = null;
+			return;
+		}
+		if (Proteins.indexed_tag_length == Parameters.TAG_LENGTH())
+		{
+			return;
+		}
+		int tag_length = Parameters.TAG_LENGTH();
+		int number_of_codes = 1;
+		for (int i = 0; i < tag_length; ++i)
+		{
+			number_of_codes *= AminoAcid.getCount();
+		}
+		int[] last_protein = new int[number_of_codes]; // la derniere proteine comptee pour chaque tag, une proteine n'est comptee qu'une fois par tag
+		Proteins.tags_offsets = new int[number_of_codes + 1];
+		for (int pass = 0; pass < 2; ++pass)
+		{
+			Arrays.fill(last_protein, -1);
+			for (int protein_number = 0; protein_number < Proteins.list.length; ++protein_number)
+			{
+				int[] sequence = Proteins.list[protein_number].getSequence();
+				int code = 0;
+				for (int position = 0; position < sequence.length; ++position)
+				{
+					// le code du tag se terminant a cette position, l'AA le plus ancien sort du code par le modulo
+					code = (code * AminoAcid.getCount() + sequence[position]) % number_of_codes;
+					if (position >= tag_length - 1 && last_protein[code] != protein_number)
+					{
+						last_protein[code] = protein_number;
+						if (pass == 0)
+						{
+							++Proteins.tags_offsets[code + 1];
+						}
+						else
+						{
+							Proteins.tags_proteins[Proteins.tags_offsets[code]++] = protein_number;
+						}
+					}
+				}
+			}
+			if (pass == 0)
+			{
+				for (int code = 0; code < number_of_codes; ++code)
+				{
+					Proteins.tags_offsets[code + 1] += Proteins.tags_offsets[code];
+				}
+				Proteins.tags_proteins = new int[Proteins.tags_offsets[number_of_codes]];
+			}
+		}
+		// la seconde passe a avance chaque debut jusqu'a la fin de son tag, c'est-a-dire jusqu'au debut du suivant
+		System.arraycopy(Proteins.tags_offsets, 0, Proteins.tags_offsets, 1, number_of_codes);
+		Proteins.tags_offsets[0] = 0;
+		Proteins.indexed_tag_length = tag_length;
+	}
+	
+	/*
+	 * compte pour chaque proteine le nombre de tags (codes tries et distincts, voir TransformedSpectrum.getTags) qu'elle contient dans 'tags_counts'
+	 * retourne le nombre de proteines contenant au moins minTagCount tags, c'est-a-dire alignees lors du traitement preliminaire
+	 */
+	public static int countTags(int[] tags, int[] tags_counts)
+	{
+		Arrays.fill(tags_counts, 0);
+		for (int code : tags)
+		{
+			for (int index = Proteins.tags_offsets[code]; index < Proteins.tags_offsets[code + 1]; ++index)
+			{
+				++tags_counts[Proteins.tags_proteins[index]];
+			}
+		}
+		int selected = 0;
+		for (int count : tags_counts)
+		{
+			if (count >= Parameters.MIN_TAG_COUNT())
+			{
+				++selected;
+			}
+		}
+		return selected;
 	}
 	
 	public static int getMaxLength()
@@ -64,6 +361,21 @@ public final class Proteins {
 		return Proteins.max_length;
 	}
 	
+	/*
+	 * le nombre d'AAs de la proteine entiere qui suivent chaque proteine alignee, null si aucune proteine n'est decoupee. Les sequences etant stockees a l'envers,
+	 * la ligne 'l' de l'alignement d'un morceau est la ligne l + ce nombre de la proteine entiere. Un morceau dont ce nombre n'est pas nul a un morceau suivant,
+	 * qui contient aussi ses getChunkOverlap() derniers AAs (ses lignes 1 a getChunkOverlap())
+	 */
+	public static int[] getChunksShift()
+	{
+		return Proteins.chunks_shift;
+	}
+	
+	public static int getChunkOverlap()
+	{
+		return Proteins.chunk_overlap;
+	}
+	
 	public static int getNumberOfProteins()
 	{
 		return Proteins.list.length;
@@ -77,6 +389,33 @@ public final class Proteins {
 	public static Protein getProtein(int index) {
 		return Proteins.list[index];
 	}
+
+	/*
+	 * decoupe la banque de proteines en 'number_of_shards' parties contigues contenant a peu pres le meme nombre d'acides amines
+	 * la partie i contient les proteines de numero boundaries[i] (inclus) a boundaries[i + 1] (exclu)
+	 */
+	public static int[] getShardsBoundaries(int number_of_shards)
+	{
+		long total_length = 0;
+		for (Protein protein : Proteins.list)
+		{
+			total_length += protein.getLength();
+		}
+		int[] boundaries = new int[number_of_shards + 1];
+		long current_length = 0;
+		int protein_number = 0;
+		for (int shard_number = 1; shard_number < number_of_shards; ++shard_number)
+		{
+			while (protein_number < Proteins.list.length && current_length * number_of_shards < total_length * shard_number)
+			{
+				current_length += Proteins.list[protein_number].getLength();
+				++protein_number;
+			}
+			boundaries[shard_number] = protein_number;
+		}
+		boundaries[number_of_shards] = Proteins.list.length;
+		return boundaries;
+	}
 	
 	public static void GenerateCorrespondanceFile() throws IOException
 	{
@@ -91,7 +430,7 @@ public final class Proteins {
 		}
 		BufferedWriter buffer = new BufferedWriter(writer);
 		PrintWriter output = new PrintWriter(buffer);
-		for (Protein protein : Proteins.list)
+		for (Protein protein : Proteins.entries)
 		{
 			output.write(protein.getName() + "\n");
 		}
@@ -116,7 +455,6 @@ public final class Proteins {
 					{
 						protein = new Protein(protein_sequence, name ,protein_reference);
 						list_temp.add(protein);
-						Proteins.max_length = Math.max(Proteins.max_length, protein_sequence.length());
 						protein_sequence = "";
 					}
 					protein_reference = line;
@@ -135,99 +473,146 @@ public final class Proteins {
 		}
 		protein = new Protein(protein_sequence, name ,protein_reference);
 		list_temp.add(protein);
-		Proteins.max_length = Math.max(Proteins.max_length, protein_sequence.length());
 		input_buffer.close();
-		Proteins.list = new Protein[list_temp.size()];
-		for (int i = 0; i < Proteins.list.length; ++i)
+		
+		/*
+		 * les sequences identiques ne sont alignees qu'une fois : la premiere entree de chaque sequence la represente dans 'distinct',
+		 * les autres entrees sont retrouvees par 'entries_protein' lors de l'ecriture des resultats (voir foundPeptide)
+		 */
+		HashMap<String, Integer> sequences = new HashMap<String, Integer>();
+		ArrayList<Protein> unique_temp = new ArrayList<Protein>();
+		Proteins.entries = new Protein[list_temp.size()];
+		Proteins.entries_protein = new int[list_temp.size()];
+		for (int i = 0; i < Proteins.entries.length; ++i)
 		{
-			Proteins.list[i] = list_temp.get(i);
+			protein = list_temp.get(i);
+			Integer protein_number = sequences.putIfAbsent(protein.getRealSequence(), unique_temp.size());
+			if (protein_number == null)
+			{
+				protein_number = unique_temp.size();
+				unique_temp.add(protein);
+			}
+			Proteins.entries[i] = protein;
+			Proteins.entries_protein[i] = protein_number;
+		}
+		Proteins.distinct = new Protein[unique_temp.size()];
+		for (int i = 0; i < Proteins.distinct.length; ++i)
+		{
+			Proteins.distinct[i] = unique_temp.get(i);
 		}
 		
-		System.out.println(Proteins.getNumberOfProteins() + " proteins have been loaded.");
+		System.out.println(Proteins.entries.length + " proteins have been loaded.");
+		if (Proteins.distinct.length < Proteins.entries.length)
+		{
+			System.out.println((Proteins.entries.length - Proteins.distinct.length) + " of them have the sequence of a previous protein and are aligned with it.");
+		}
 	}
 
+	/*
+	 * retourne les proteines contenant le peptide avec ses positions (au plus 3 proteines et 3 positions par proteine), dans l'ordre des entrees du fichier
+	 * les sequences identiques n'ont ete alignees qu'une fois mais toutes leurs entrees sont donnees : les positions d'une entree dupliquee sont celles
+	 * de la premiere entree ayant sa sequence, qui la precede et n'est recherchee qu'une fois
+	 */
 	public static String foundPeptide(String peptide) {
 		String answer = "";
-		String protein_sequence;
 		String current_positions;
-		int current_position;
-		int positions_counter = 0;
 		int proteins_counter = 0;
-		//for (int i = 0; i < list.length; ++i)
-		int i = 0;
-		protein_sequence = list[0].getRealSequence();
-		current_position = protein_sequence.indexOf(peptide);
-		if (current_position != -1)
+		HashMap<Integer, String> found_positions = new HashMap<Integer, String>(); // les positions dans les proteines de 'distinct' contenant le peptide
+		for (int i = 0; i < Proteins.entries.length; ++i)
 		{
-			++proteins_counter;
-		}
-		while (i < Proteins.list.length && proteins_counter <= 3)
-		{
-			current_positions = "";
-			if (current_position != -1)
+			int protein_number = Proteins.entries_protein[i];
+			if (Proteins.distinct[protein_number] == Proteins.entries[i])
 			{
-				positions_counter = 1;
-				while (current_position != -1 && positions_counter <= 3)
+				current_positions = Proteins.positionsOf(Proteins.entries[i].getRealSequence(), peptide);
+				if (current_positions != null)
 				{
-					if (current_positions.length() == 0)
-					{
-						current_positions = String.format("[%d,%d]", current_position ,current_position + peptide.length() - 1);
-					}
-					else
-					{
-						current_positions = String.format("%s,[%d,%d]", current_positions ,current_position ,current_position + peptide.length() - 1);
-					}
-					current_position = protein_sequence.indexOf(peptide ,current_position + 1);
-					if (current_position != -1)
-					{
-						++positions_counter;
-					}
-				}
-				if (positions_counter > 0)
-				{
-					if (positions_counter > 1)
-					{
-						if (current_position != -1)
-						{
-							current_positions = String.format("(%s,...)", current_positions);
-						}
-						else
-						{
-							current_positions = String.format("(%s)", current_positions);
-						}
-					}
-					if (answer.length() == 0)
-					{
-						answer = String.format("%s%s", Proteins.list[i].getName() ,current_positions);
-						//answer = String.format("%s%s", i ,current_positions);
-					}
-					else
-					{
-						answer = String.format("%s,%s%s", answer, Proteins.list[i].getName() ,current_positions);
-						//answer = String.format("%s,%s%s", answer, i ,current_positions);
-					}
+					found_positions.put(protein_number, current_positions);
 				}
 			}
-			++i;
-			if (i < Proteins.list.length)
+			else
+			{
+				current_positions = found_positions.get(protein_number);
+			}
+			if (current_positions != null)
 			{
-				protein_sequence = list[i].getRealSequence();
-				current_position = protein_sequence.indexOf(peptide);
-				if (current_position != -1)
+				++proteins_counter;
+				if (proteins_counter > 3)
 				{
-					++proteins_counter;
+					answer = answer.concat(", ...");
+					break;
+				}
+				if (answer.length() == 0)
+				{
+					answer = String.format("%s%s", Proteins.entries[i].getName() ,current_positions);
+				}
+				else
+				{
+					answer = String.format("%s,%s%s", answer, Proteins.entries[i].getName() ,current_positions);
 				}
 			}
 		}
-		if (i < Proteins.list.length)
+		return answer;
+	}
+	
+	/*
+	 * retourne les 3 premieres positions du peptide dans la sequence (suivies de "..." s'il y en a d'autres), null si la sequence ne le contient pas
+	 */
+	private static String positionsOf(String protein_sequence, String peptide)
+	{
+		int current_position = protein_sequence.indexOf(peptide);
+		if (current_position == -1)
 		{
-			answer = answer.concat(", ...");
+			return null;
 		}
-		return answer;
+		String current_positions = "";
+		int positions_counter = 1;
+		while (current_position != -1 && positions_counter <= 3)
+		{
+			if (current_positions.length() == 0)
+			{
+				current_positions = String.format("[%d,%d]", current_position ,current_position + peptide.length() - 1);
+			}
+			else
+			{
+				current_positions = String.format("%s,[%d,%d]", current_positions ,current_position ,current_position + peptide.length() - 1);
+			}
+			current_position = protein_sequence.indexOf(peptide ,current_position + 1);
+			if (current_position != -1)
+			{
+				++positions_counter;
+			}
+		}
+		if (positions_counter > 1)
+		{
+			if (current_position != -1)
+			{
+				current_positions = String.format("(%s,...)", current_positions);
+			}
+			else
+			{
+				current_positions = String.format("(%s)", current_positions);
+			}
+		}
+		return current_positions;
 	}
 	
 	public static void reset()
 	{
 		max_length = 0;
+		list = null;
+		distinct = null;
+		chunk_length = -1;
+		chunk_overlap = -1;
+		chunks_shift = null;
+		entries = null;
+		entries_protein = null;
+		compositions = null;
+		masked_window = 0;
+		windows_offsets = null;
+		windows_masks = null;
+		indexed_tag_length = 0;
+		tags_offsets = null;
+		tags_proteins = null;
+		trie = null;
 	}
 }
@@ -9,13 +9,17 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import GUI.SpecProtGUI;
+import algorithms.PipelineMetrics;
 import bioobjects.NativeSpectrum;
 import bioobjects.TransformedSpectrum;
 import components.SimplePeak;
@@ -33,10 +37,14 @@ import uk.ac.ebi.pride.tools.jmzreader.model.Spectrum;
 
 /*
  * cette classe sert a charger un fichier de spectre au format 'mgf'. Les spectres sont pretraite puis stocke ici
+ * en mode flux (nbSpectraPerChunk > 0), les spectres sont lus et transformes par un thread de lecture pendant l'alignement : seuls les nbSpectraPerChunk spectres lus a l'avance
+ * et les REAL_TIME_SAVE spectres en cours d'alignement sont gardes en memoire
  */
 public final class Spectra {
 	
 	private static int NB_PEAKS_MIN = Parameters.NB_PEAKS_MIN();
+	private static int NB_SPECTRA_PER_CHUNK = Parameters.NB_SPECTRA_PER_CHUNK();
+	private static int REAL_TIME_SAVE = Parameters.REAL_TIME_SAVE();
 
 	private static ArrayList<NativeSpectrum> first_native_list = new ArrayList<NativeSpectrum>(1000);
 	private static NativeSpectrum[] native_list; // liste des spectres
@@ -46,7 +54,55 @@ public final class Spectra {
 	private static Pattern scan_pattern = Pattern.compile("scan=\\d+");
 	private static Matcher matcher;
 	
+	// mode flux
+	private static final StreamedSpectrum END_OF_STREAM = new StreamedSpectrum(null, null);
+	private static ArrayBlockingQueue<StreamedSpectrum> stream; // les spectres lus et transformes a l'avance (null si le fichier est charge en entier)
+	private static Thread reader;
+	private static volatile Exception reader_exception;
+	private static volatile int number_of_read_spectra;
+	private static CountDownLatch first_spectrum_read;
+	private static boolean end_of_stream;
+	private static NativeSpectrum[] native_window; // les spectres en cours d'alignement, le spectre 'id' est a la position id % REAL_TIME_SAVE
+	private static TransformedSpectrum[] transformed_window;
+	
+	/*
+	 * un spectre lu par le thread de lecture, avec sa premiere transformation
+	 */
+	private static final class StreamedSpectrum
+	{
+		private final NativeSpectrum native_spectrum;
+		private final TransformedSpectrum transformed_spectrum;
+		
+		private StreamedSpectrum(NativeSpectrum native_spectrum, TransformedSpectrum transformed_spectrum)
+		{
+			this.native_spectrum = native_spectrum;
+			this.transformed_spectrum = transformed_spectrum;
+		}
+	}
+	
 	public static void load() throws FileNotFoundException ,IOException, JMzReaderException
+	{
+		if (NB_SPECTRA_PER_CHUNK > 0)
+		{
+			Spectra.openStream();
+			return;
+		}
+		long start = PipelineMetrics.start();
+		Spectra.read();
+		PipelineMetrics.record(PipelineMetrics.Stage.SPECTRA_LOADING, start);
+		Spectra.computeTransformedSpectra();
+		if (Main.commandMode)
+		    System.out.println(Spectra.native_list.length + " spectra have been loaded.");
+		else {
+			String info = Spectra.native_list.length + " spectra have been loaded.\n";
+			SpecProtGUI.LOG.append(info);
+		}
+	}
+	
+	/*
+	 * lecture du fichier de spectres, chaque spectre ayant assez de pics est donne a la methode keep
+	 */
+	private static void read() throws FileNotFoundException ,IOException, JMzReaderException
 	{
 		String path = Parameters.SPECTRA_FOLDER_PATH() + "/" + Parameters.SPECTRA_FILE();
 		if (path.endsWith(".mgf"))
@@ -95,15 +151,147 @@ public final class Spectra {
 				throw e;
 			}
 		}
-		Spectra.computeTransformedSpectra();
+	}
+	
+	/*
+	 * garde un spectre lu : il est ajoute a la liste des spectres charges ou, en mode flux, il est transforme et mis dans la file des spectres lus a l'avance
+	 * (le thread de lecture attend si la file est pleine)
+	 */
+	private static void keep(NativeSpectrum native_spectrum) throws InterruptedIOException
+	{
+		if (Spectra.stream == null)
+		{
+			Spectra.first_native_list.add(native_spectrum);
+			Spectra.max_native_peak_count = Math.max(Spectra.max_native_peak_count, native_spectrum.getNumberOfNativePeaks());
+			return;
+		}
+		native_spectrum.setID(Spectra.number_of_read_spectra);
+		long start = PipelineMetrics.start();
+		TransformedSpectrum transformed_spectrum = native_spectrum.firstTransformation();
+		PipelineMetrics.record(PipelineMetrics.Stage.SPECTRUM_TRANSFORMATION, start);
+		if (transformed_spectrum.isUsefull())
+		{
+			try
+			{
+				Spectra.stream.put(new StreamedSpectrum(native_spectrum, transformed_spectrum));
+			}
+			catch (InterruptedException e)
+			{
+				throw new InterruptedIOException();
+			}
+			++Spectra.number_of_read_spectra;
+			Spectra.first_spectrum_read.countDown();
+		}
+	}
+	
+	/*
+	 * mode flux : les structures sont dimensionnees pour le plus gros spectre possible (nbSelectedPeaks pics) puisque les spectres ne sont pas connus a l'avance,
+	 * puis le thread de lecture est lance. La methode rend la main quand le premier spectre est lu (ou le fichier fini)
+	 */
+	private static void openStream() throws FileNotFoundException ,IOException
+	{
+		String path = Parameters.SPECTRA_FOLDER_PATH() + "/" + Parameters.SPECTRA_FILE();
+		if (!new File(path).exists())
+		{
+			throw new FileNotFoundException("The spectra file \"" + path + "\" doesn't exists.");
+		}
+		Spectra.max_native_peak_count = Parameters.NB_SELECTED_PEAKS();
+		Spectra.max_column_count = (Parameters.NB_SELECTED_PEAKS() << 1) + 2;
+		TransformedSpectrum.initialize();
+		Spectra.stream = new ArrayBlockingQueue<StreamedSpectrum>(NB_SPECTRA_PER_CHUNK);
+		Spectra.reader_exception = null;
+		Spectra.number_of_read_spectra = 0;
+		Spectra.first_spectrum_read = new CountDownLatch(1);
+		Spectra.end_of_stream = false;
+		Spectra.native_window = new NativeSpectrum[REAL_TIME_SAVE];
+		Spectra.transformed_window = new TransformedSpectrum[REAL_TIME_SAVE];
+		Spectra.reader = new Thread(() -> {
+			try
+			{
+				Spectra.read();
+				Spectra.stream.put(END_OF_STREAM);
+			}
+			catch (InterruptedIOException | InterruptedException e)
+			{
+				// le thread de lecture est arrete par reset()
+			}
+			catch (Exception e)
+			{
+				Spectra.reader_exception = e;
+				Spectra.stream.offer(END_OF_STREAM);
+			}
+			finally
+			{
+				Spectra.first_spectrum_read.countDown();
+			}
+		});
+		Spectra.reader.setDaemon(true);
+		Spectra.reader.start();
+		try
+		{
+			Spectra.first_spectrum_read.await();
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException();
+		}
+		if (Spectra.number_of_read_spectra == 0 && Spectra.reader_exception != null)
+		{
+			throw new IOException("The program stopped due to an IOException during the loading of the spectra file.");
+		}
 		if (Main.commandMode)
-		    System.out.println(Spectra.native_list.length + " spectra have been loaded.");
+		    System.out.println("The spectra are read by chunks of " + NB_SPECTRA_PER_CHUNK + " spectra during the alignment.");
 		else {
-			String info = Spectra.native_list.length + " spectra have been loaded.\n";
-			SpecProtGUI.LOG.append(info);
+			SpecProtGUI.LOG.append("The spectra are read by chunks of " + NB_SPECTRA_PER_CHUNK + " spectra during the alignment.\n");
 		}
 	}
 	
+	/**
+	 * Make the spectrum 'id' available through getNative and getTransformed. The spectra must be admitted in the order of their identifiers.
+	 * In streaming mode, the spectrum is taken from the spectra read in advance and replaces the spectrum id - REAL_TIME_SAVE, which must be published.
+	 * The spectra read before 'id' are skipped (resumed search).
+	 * @param id: the identifier of the spectrum
+	 * @return false if there is no spectrum with this identifier
+	 */
+	public static boolean admit(int id) throws IOException
+	{
+		if (Spectra.stream == null)
+		{
+			return id < Spectra.native_list.length;
+		}
+		StreamedSpectrum spectrum = END_OF_STREAM;
+		while (!Spectra.end_of_stream)
+		{
+			try
+			{
+				spectrum = Spectra.stream.take();
+			}
+			catch (InterruptedException e)
+			{
+				throw new InterruptedIOException();
+			}
+			if (spectrum == END_OF_STREAM)
+			{
+				Spectra.end_of_stream = true;
+			}
+			else if (spectrum.native_spectrum.getID() >= id)
+			{
+				break;
+			}
+		}
+		if (Spectra.end_of_stream)
+		{
+			if (Spectra.reader_exception != null)
+			{
+				throw new IOException("The program stopped due to an IOException during the loading of the spectra file.");
+			}
+			return false;
+		}
+		Spectra.native_window[id % REAL_TIME_SAVE] = spectrum.native_spectrum;
+		Spectra.transformed_window[id % REAL_TIME_SAVE] = spectrum.transformed_spectrum;
+		return true;
+	}
+	
 	private static void computeTransformedSpectra()
 	{
 		TransformedSpectrum.initialize();
@@ -113,7 +301,9 @@ public final class Spectra {
 		for (int spectrum_number = 0; spectrum_number < Spectra.first_native_list.size(); ++spectrum_number)
 		{
 			Spectra.first_native_list.get(spectrum_number).setID(counter);
+			long start = PipelineMetrics.start();
 			transformed_spectrum = Spectra.first_native_list.get(spectrum_number).firstTransformation();
+			PipelineMetrics.record(PipelineMetrics.Stage.SPECTRUM_TRANSFORMATION, start);
 			if (transformed_spectrum.isUsefull())
 			{
 				if ((counter%1000 == 0) && (counter >0))
@@ -144,15 +334,16 @@ public final class Spectra {
 		}
 	}
 	
-	public static NativeSpectrum[] getNatives() {return Spectra.native_list;}
+	public static NativeSpectrum getNative(int id) {return Spectra.stream == null ? Spectra.native_list[id] : Spectra.native_window[id % REAL_TIME_SAVE];}
 	
-	public static TransformedSpectrum[] getTransformed() {return Spectra.transformed_list;}
+	public static TransformedSpectrum getTransformed(int id) {return Spectra.stream == null ? Spectra.transformed_list[id] : Spectra.transformed_window[id % REAL_TIME_SAVE];}
 	
 	public static int getMaxNativePeakCount() {return Spectra.max_native_peak_count;}
 	
 	public static int getMaxColumnCount() {return Spectra.max_column_count;}
 	
-	public static int getNumberOfSpectra() {return Spectra.native_list.length;}
+	// en mode flux, le nombre de spectres lus jusqu'ici (le nombre total une fois l'alignement fini)
+	public static int getNumberOfSpectra() {return Spectra.stream == null ? Spectra.native_list.length : Spectra.number_of_read_spectra;}
 
 	private static void loadFromMGF(BufferedReader inputBuffer) throws IOException
 	{
@@ -211,8 +402,7 @@ public final class Spectra {
 					native_spectrum = new NativeSpectrum(Parameters.SPECTRA_FOLDER_PATH() + "/" + Parameters.SPECTRA_FILE() ,title, scan ,peaks ,precursor_mass_charge ,charge);
 					if (peaks.size() >= NB_PEAKS_MIN)
 					{
-						Spectra.first_native_list.add(native_spectrum);
-						Spectra.max_native_peak_count = Math.max(Spectra.max_native_peak_count, native_spectrum.getNumberOfNativePeaks());
+						Spectra.keep(native_spectrum);
 					}
 
 					peaks.clear();
@@ -235,7 +425,7 @@ public final class Spectra {
 	}
 	
 	//private static void LoadFromMZML(MzXMLFile file) throws MzXMLParsingException
-	private static void LoadFromMZML(MzMlWrapper wrapper)
+	private static void LoadFromMZML(MzMlWrapper wrapper) throws InterruptedIOException
 	{
 		NativeSpectrum native_spectrum;
 		ArrayList<SimplePeak> peaks = new ArrayList<SimplePeak>(Parameters.NB_PEAKS_MAX());		
@@ -251,8 +441,7 @@ public final class Spectra {
             	native_spectrum = new NativeSpectrum(Parameters.SPECTRA_FOLDER_PATH() + "/" + Parameters.SPECTRA_FILE() ,spectrum.toString(), Integer.valueOf(spectrum.getId().split("scan=")[1]) ,peaks ,spectrum.getPrecursorMZ() ,spectrum.getPrecursorCharge());
 				if (peaks.size() >= NB_PEAKS_MIN)
 				{
-					Spectra.first_native_list.add(native_spectrum);
-					Spectra.max_native_peak_count = Math.max(Spectra.max_native_peak_count, native_spectrum.getNumberOfNativePeaks());
+					Spectra.keep(native_spectrum);
 				}
 				peaks.clear();
             }
@@ -265,6 +454,25 @@ public final class Spectra {
 	public static void reset()
 	{
 		NB_PEAKS_MIN = Parameters.NB_PEAKS_MIN();	
+		NB_SPECTRA_PER_CHUNK = Parameters.NB_SPECTRA_PER_CHUNK();
+		REAL_TIME_SAVE = Parameters.REAL_TIME_SAVE();
 		first_native_list.clear();
+		if (reader != null)
+		{
+			// le thread de lecture est arrete s'il n'a pas fini (alignement interrompu)
+			reader.interrupt();
+			try
+			{
+				reader.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			reader = null;
+		}
+		stream = null;
+		native_window = null;
+		transformed_window = null;
 	}
 }
@@ -1,13 +1,18 @@
 package main;
 
 import constantes.*;
+import datastructures.FinalTreatmentCache;
 import datastructures.InterpretationsSaver;
 import exceptions.ThreadException;
 import loaders.Proteins;
 import loaders.Spectra;
 import algorithms.PeakFilters;
+import algorithms.PipelineMetrics;
+import algorithms.SearchDaemon;
+import algorithms.ShiftMaxKernel;
 import algorithms.SpecGlobExecutor;
 import algorithms.SpecGlobThread;
+import algorithms.SpectraShards;
 import bioobjects.TransformedSpectrum;
 import components.Alignment;
 import components.InterpretationBackup;
@@ -66,6 +71,11 @@ import GUI.SpecProtGUI;
 public class Main {
 	
 	public static boolean commandMode = false;
+	public static boolean resumeMode = false;
+	private static int number_of_shards = 1;
+	private static int number_of_local_workers = -1;
+	private static String worker_directory = null;
+	private static int daemon_port = -1;
 
 	public static void main(String[] args) throws FileNotFoundException
 	{
@@ -74,6 +84,28 @@ public class Main {
 			if (args[i].equals("--c")) {
 				commandMode = true;
 			}
+			// resume an interrupted search from its checkpoint file (command mode only)
+			if (args[i].equals("--resume")) {
+				resumeMode = true;
+			}
+			// split the spectra file in several shards treated by other processes (command mode only)
+			if (args[i].equals("--shards")) {
+				i++;
+				number_of_shards = Integer.valueOf(args[i]);
+			}
+			if (args[i].equals("--localWorkers")) {
+				i++;
+				number_of_local_workers = Integer.valueOf(args[i]);
+			}
+			if (args[i].equals("--worker")) {
+				i++;
+				worker_directory = args[i];
+			}
+			// stay resident and align the jobs received on a local port (command mode only)
+			if (args[i].equals("--daemon")) {
+				i++;
+				daemon_port = Integer.valueOf(args[i]);
+			}
 		    if (args[i].equals("--paramFile")){
 		    	i++;
 		    	Parameters.setParamFile(args[i]);
@@ -88,13 +120,21 @@ public class Main {
 			{
 				double x = System.currentTimeMillis();
 				Parameters.load();
-				Spectra.load();
-				if (Spectra.getNumberOfSpectra() > 0)
+				if (daemon_port != -1)
+				{
+					SearchDaemon.serve(daemon_port);
+				}
+				else if (worker_directory != null)
+				{
+					SpectraShards.work(worker_directory);
+				}
+				else if (number_of_shards > 1)
+				{
+					SpectraShards.coordinate(number_of_shards, number_of_local_workers == -1 ? number_of_shards : number_of_local_workers);
+					System.out.println("Job done in " + (System.currentTimeMillis() - x)/1000.0 + " secondes. ");
+				}
+				else if (Main.search())
 				{
-					Proteins.load();
-					Proteins.GenerateCorrespondanceFile();
-					SpecGlobExecutor.initialise(Parameters.NB_THREADS());
-					SpecGlobExecutor.run();
 					System.out.println("Job done in " + (System.currentTimeMillis() - x)/1000.0 + " secondes. ");
 				}			
 			}
@@ -137,8 +177,53 @@ public class Main {
 
 	}
 	
+	/**
+	 * Align the spectra file on the proteins file given by the parameters and write the results file.
+	 * @return false if the spectra file doesn't contain any spectrum to align
+	 */
+	public static boolean search() throws Exception
+	{
+		return Main.search(true);
+	}
+	
+	/**
+	 * Align the spectra file on the proteins file given by the parameters and write the results file.
+	 * @param load_proteins: false if the proteins are already loaded with the same parameters (the following shards of a worker, see SpectraShards.work)
+	 * @return false if the spectra file doesn't contain any spectrum to align
+	 */
+	public static boolean search(boolean load_proteins) throws Exception
+	{
+		PipelineMetrics.reset();
+		Spectra.load();
+		if (Spectra.getNumberOfSpectra() > 0)
+		{
+			if (load_proteins)
+			{
+				long start = PipelineMetrics.start();
+				Proteins.load();
+				PipelineMetrics.record(PipelineMetrics.Stage.PROTEINS_LOADING, start);
+				Proteins.GenerateCorrespondanceFile();
+			}
+			SpecGlobExecutor.initialise(Parameters.NB_THREADS());
+			SpecGlobExecutor.run();
+			return true;
+		}
+		return false;
+	}
+	
 	public static void resetAll()
 	{
+		Main.resetParameters();
+		Proteins.reset();
+		Spectra.reset();
+	}
+	
+	/**
+	 * Refresh the parameters kept in the static attributes of the classes, without unloading the proteins. The amino acids are refreshed first as their masses are used by the other classes.
+	 */
+	public static void resetParameters()
+	{
+		AminoAcid.reset();
 		PeakFilters.reset();
 		SpecGlobExecutor.reset();
 		SpecGlobThread.reset();
@@ -146,10 +231,9 @@ public class Main {
 		Alignment.reset();
 		InterpretationBackup.reset();
 		LocationBackup.reset();
-		AminoAcid.reset();
 		InterpretationsSaver.reset();
-		Proteins.reset();
-		Spectra.reset();
+		FinalTreatmentCache.reset();
+		ShiftMaxKernel.reset();
 	}
 }
 
@@ -0,0 +1,248 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import main.Main;
+
+/**
+ * This class compares the results files of the search under several configurations, so the claims "the results are identical" of the options can be checked again.
+ * The search is run on a SyntheticDataset, once with the reference parameters (REFERENCE) and once with each configuration of CONFIGURATIONS, which adds some parameters to them.
+ * Each search is a separate SpecPeptidOMS process, launched with the same java executable, class path and JVM options as the harness
+ * (launch the harness with "--add-modules jdk.incubator.vector", on a build with the Maven profile "vector", to check the Vector API kernel).<br/>
+ *  - The exact configurations only change how the search is performed (threads, shards, kernels, ...) : their results file must be identical to the reference one.<br/>
+ *  - The other configurations are heuristics or other algorithms : the number of their rows found in the reference results file (their agreement) is only reported.<br/>
+ * The reference results file is also compared to an expected results file if one is given, "regression/expected_results.csv" in the repository.
+ * Usage : java -cp &lt;class path&gt; tools.RegressionHarness &lt;work directory&gt; [&lt;expected results file&gt; [--update]]
+ * With --update, the expected results file is replaced by the reference results file. The exit status is 1 if an exact configuration or the expected results differ.
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class RegressionHarness {
+
+	private static final int NUMBER_OF_PROTEINS = 300;
+	private static final int NUMBER_OF_SPECTRA = 120;
+	private static final String RESULTS_FILE = "results.csv";
+
+	/*
+	 * The parameters of the reference search, the paths are added by writeParameters
+	 */
+	private static final String[] REFERENCE = {
+			"nbPeaksMin= 10",
+			"nbMinAAFound= 10",
+			"usedFilter= mostIntense",
+			"nbSelectedPeaks= 60",
+			"accuracy= 0.02",
+			"nbThreads= 4",
+			"nbLssSMSaved= 5",
+			"nbResultsReturned= 2",
+			"tolPeakMissing= 4",
+			"tolPeakMissingFirstCol= 4",
+			"minScenarioScore= 30",
+			"nbResultsAtOnce= 7",
+			"nbPeaksMax= 500",
+			"surplus= 5",
+			"versionPreliminaryTreatment= 1",
+			"CModif= 57.021464"};
+
+	/*
+	 * A configuration : the parameters added to the reference ones, the options added to those of the JVM and whether its results must be identical to the reference results
+	 */
+	private static final class Configuration
+	{
+		private final boolean exact;
+		private final String[] jvm_options;
+		private final String[] parameters;
+
+		private Configuration(boolean exact, String... parameters)
+		{
+			this(exact, new String[0], parameters);
+		}
+
+		private Configuration(boolean exact, String[] jvm_options, String... parameters)
+		{
+			this.exact = exact;
+			this.jvm_options = jvm_options;
+			this.parameters = parameters;
+		}
+
+		private String name()
+		{
+			String name = String.join(", ", this.parameters);
+			return this.jvm_options.length == 0 ? name : name + " (" + String.join(" ", this.jvm_options) + ")";
+		}
+	}
+
+	private static final Configuration[] CONFIGURATIONS = {
+			new Configuration(true, "nbThreads= 1"),
+			new Configuration(true, "nbResultsAtOnce= 3"),
+			new Configuration(true, "nbProteinShards= 3"),
+			new Configuration(true, "versionPreliminaryTreatment= 3", "nbSpectraPerTile= 4"),
+			new Configuration(true, "versionPreliminaryTreatment= 4"),
+			new Configuration(true, "nbSpectraPerChunk= 10"),
+			new Configuration(true, "vectorKernel= false"),
+			new Configuration(true, "vectorKernel= true"),
+			new Configuration(true, "prefilterWindow= 6"),
+			new Configuration(true, "finalTreatmentCacheSize= 0"),
+			new Configuration(true, "finalTreatmentCacheSize= 32"),
+			new Configuration(true, "proteinChunkLength= 150", "proteinChunkOverlap= 40"),
+			// the tasks of the non-aligned masses only run on the free cores, whose number is set so they are used on any machine
+			new Configuration(true, new String[] {"-XX:ActiveProcessorCount=8"}, "nbNonAlignedMassTasks= 4"),
+			new Configuration(false, "versionPreliminaryTreatment= 0"),
+			new Configuration(false, "versionPreliminaryTreatment= 2"),
+			new Configuration(false, "fixedPointMasses= true"),
+			new Configuration(false, "minTagCount= 1", "tagLength= 3"),
+			new Configuration(false, "finalTreatmentBand= 3"),
+			new Configuration(false, "tolPeakMissing= -1", "tolPeakMissingFirstCol= -1")};
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length < 1)
+		{
+			System.out.println("Usage : java -cp <class path> tools.RegressionHarness <work directory> [<expected results file> [--update]]");
+			System.exit(2);
+		}
+		File directory = new File(args[0]).getAbsoluteFile();
+		File expected = args.length > 1 ? new File(args[1]) : null;
+		boolean update = args.length > 2 && args[2].equals("--update");
+
+		SyntheticDataset.write(directory, NUMBER_OF_PROTEINS, NUMBER_OF_SPECTRA, SyntheticDataset.DEFAULT_SEED);
+		File reference_results = RegressionHarness.search(directory, "reference", new String[0], new String[0]);
+		List<String> reference_rows = Files.readAllLines(reference_results.toPath(), StandardCharsets.UTF_8);
+		System.out.println("reference : " + (reference_rows.size() - 1) + " rows");
+		boolean failed = false;
+
+		if (expected != null)
+		{
+			if (update)
+			{
+				Files.copy(reference_results.toPath(), expected.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				System.out.println("expected results : updated (" + expected.getPath() + ")");
+			}
+			else
+			{
+				List<String> expected_rows = Files.readAllLines(expected.toPath(), StandardCharsets.UTF_8);
+				boolean same = expected_rows.equals(reference_rows);
+				failed |= !same;
+				System.out.println("expected results : " + (same ? "OK" : "DIFFERENT, " + RegressionHarness.agreement(reference_rows, expected_rows) + " rows of the reference found in " + expected.getPath()));
+			}
+		}
+
+		for (int configuration_number = 0; configuration_number < CONFIGURATIONS.length; ++configuration_number)
+		{
+			Configuration configuration = CONFIGURATIONS[configuration_number];
+			File results = RegressionHarness.search(directory, "configuration_" + configuration_number, configuration.jvm_options, configuration.parameters);
+			List<String> rows = Files.readAllLines(results.toPath(), StandardCharsets.UTF_8);
+			int agreement = RegressionHarness.agreement(rows, reference_rows);
+			String report = agreement + "/" + (rows.size() - 1) + " rows found in the reference";
+			if (configuration.exact)
+			{
+				boolean same = rows.equals(reference_rows);
+				failed |= !same;
+				System.out.println(configuration.name() + " : " + (same ? "OK" : "DIFFERENT, " + report));
+			}
+			else
+			{
+				System.out.println(configuration.name() + " : " + report);
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/*
+	 * Run a search in its own directory of the work directory, with the reference parameters completed by the given ones, and return its results file.
+	 * The output of the process is written in "search.log" in that directory. Also used by benchmarks.PreliminaryTreatmentTimes (Maven profile "jmh").
+	 */
+	public static File search(File directory, String name, String[] jvm_options, String[] parameters) throws IOException, InterruptedException
+	{
+		File search_directory = new File(directory, name);
+		if (!search_directory.isDirectory() && !search_directory.mkdirs())
+		{
+			throw new IOException("The directory \"" + search_directory.getPath() + "\" can't be created.");
+		}
+		File results = new File(search_directory, RESULTS_FILE);
+		results.delete();
+		new File(search_directory, RESULTS_FILE + ".checkpoint").delete();
+		File parameters_file = RegressionHarness.writeParameters(directory, search_directory, parameters);
+
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.addAll(Arrays.asList(jvm_options));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Main.class.getName());
+		command.add("--c");
+		command.add("--paramFile");
+		command.add(parameters_file.getPath());
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(new File(search_directory, "search.log"));
+		int status = builder.start().waitFor();
+		if (status != 0 || !results.exists())
+		{
+			throw new IOException("The search \"" + name + "\" failed, see " + new File(search_directory, "search.log").getPath());
+		}
+		return results;
+	}
+
+	static File writeParameters(File directory, File search_directory, String[] parameters) throws IOException
+	{
+		File parameters_file = new File(search_directory, "parameters.ini");
+		PrintWriter output = new PrintWriter(parameters_file, StandardCharsets.UTF_8);
+		try
+		{
+			output.println("proteinsFolderPath= " + directory.getPath());
+			output.println("proteinsFile= " + SyntheticDataset.PROTEINS_FILE);
+			output.println("spectraFolderPath= " + directory.getPath());
+			output.println("spectraFile= " + SyntheticDataset.SPECTRA_FILE);
+			output.println("resultsFolderPath= " + search_directory.getPath());
+			output.println("resultsFile= " + RESULTS_FILE);
+			for (String parameter : REFERENCE)
+			{
+				output.println(parameter);
+			}
+			// the parameters read last replace the reference ones
+			for (String parameter : parameters)
+			{
+				output.println(parameter);
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+		return parameters_file;
+	}
+
+	/*
+	 * The number of rows of a results file (its header excluded) that are found in another one, each row of the other file being used at most once
+	 */
+	private static int agreement(List<String> rows, List<String> other_rows)
+	{
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 1; i < other_rows.size(); ++i)
+		{
+			counts.merge(other_rows.get(i), 1, Integer::sum);
+		}
+		int agreement = 0;
+		for (int i = 1; i < rows.size(); ++i)
+		{
+			Integer count = counts.get(rows.get(i));
+			if (count != null && count > 0)
+			{
+				counts.put(rows.get(i), count - 1);
+				++agreement;
+			}
+		}
+		return agreement;
+	}
+}
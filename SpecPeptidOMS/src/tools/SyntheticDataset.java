@@ -0,0 +1,151 @@
+package tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class writes a small synthetic dataset used by the RegressionHarness and by benchmarks.PreliminaryTreatmentTimes : a proteins file of random sequences
+ * (with a few duplicated entries) and a MGF spectra file of peptides taken in these proteins.
+ * The spectra contain most of the b and y ions of their peptide and some noise peaks, and one spectrum out of three carries a modification of unknown mass on one amino acid.
+ * The dataset only depends on the seed and on the sizes given, so the same files are written on any machine (java.util.Random is fully specified).
+ * @author 	BENOIST Emile, TESSIER Dominique
+ */
+public final class SyntheticDataset {
+
+	public static final String PROTEINS_FILE = "proteins.fasta";
+	public static final String SPECTRA_FILE = "spectra.mgf";
+	public static final long DEFAULT_SEED = 7;
+
+	private static final String AMINO_ACIDS = "GASPVTCILNDQKEMHFRYW";
+	// monoisotopic masses of the amino acids above, the cysteines being carbamidomethylated (CModif= 57.021464 in the parameters)
+	private static final double[] MASSES = {57.021463721083, 71.037113785565, 87.032028405125, 97.052763850047, 99.068413914529, 101.047678469607, 103.009184785565 + 57.021464,
+			113.084063979011, 113.084063979011, 114.042927442166, 115.026943024685, 128.058577506648, 128.094963016052, 129.042593089167, 131.040484914529, 137.058911859647,
+			147.068413914529, 156.101111025652, 163.063328534089, 186.07931295157};
+	private static final double[] MODIFICATIONS = {0, 0, 0, 0, 15.9949, 42.0106, -18.0106};
+	private static final double PROTON = 1.007276;
+	private static final double WATER = 18.010565;
+	private static final int NUMBER_OF_DUPLICATES = 5;
+
+	/**
+	 * Write the proteins file and the spectra file in a directory.
+	 * @param directory: the directory receiving the files, created if needed
+	 * @param number_of_proteins: the number of random proteins (NUMBER_OF_DUPLICATES of them are written twice, under another accession)
+	 * @param number_of_spectra: the number of spectra
+	 * @param seed: the seed of the random generator
+	 */
+	public static void write(File directory, int number_of_proteins, int number_of_spectra, long seed) throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("The directory \"" + directory.getPath() + "\" can't be created.");
+		}
+		Random random = new Random(seed);
+		ArrayList<String> proteins = new ArrayList<String>();
+		PrintWriter output = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, PROTEINS_FILE))));
+		try
+		{
+			for (int protein_number = 0; protein_number < number_of_proteins; ++protein_number)
+			{
+				int length = 80 + random.nextInt(521);
+				StringBuilder sequence = new StringBuilder(length);
+				for (int i = 0; i < length; ++i)
+				{
+					sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+				}
+				proteins.add(sequence.toString());
+				SyntheticDataset.writeProtein(output, String.format(Locale.ROOT, ">sp|P%05d|PROT%d_HUMAN synthetic", protein_number, protein_number), sequence.toString());
+			}
+			for (int protein_number = 0; protein_number < Math.min(NUMBER_OF_DUPLICATES, number_of_proteins); ++protein_number)
+			{
+				SyntheticDataset.writeProtein(output, String.format(Locale.ROOT, ">sp|D%05d|DUP%d_HUMAN duplicate", protein_number, protein_number), proteins.get(protein_number));
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+
+		output = new PrintWriter(new BufferedWriter(new FileWriter(new File(directory, SPECTRA_FILE))));
+		try
+		{
+			for (int spectrum_number = 0; spectrum_number < number_of_spectra; ++spectrum_number)
+			{
+				SyntheticDataset.writeSpectrum(output, random, proteins.get(random.nextInt(proteins.size())), spectrum_number);
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+		if (output.checkError())
+		{
+			throw new IOException("The synthetic dataset can't be written in \"" + directory.getPath() + "\".");
+		}
+	}
+
+	private static void writeProtein(PrintWriter output, String header, String sequence)
+	{
+		output.write(header + "\n");
+		for (int i = 0; i < sequence.length(); i += 60)
+		{
+			output.write(sequence.substring(i, Math.min(i + 60, sequence.length())) + "\n");
+		}
+	}
+
+	/*
+	 * Write the spectrum of a peptide of 8 to 16 amino acids of the protein : 85% of its b and y ions and 10 to 40 noise peaks.
+	 */
+	private static void writeSpectrum(PrintWriter output, Random random, String protein, int spectrum_number)
+	{
+		int length = 8 + random.nextInt(9);
+		int start = random.nextInt(protein.length() - length + 1);
+		String peptide = protein.substring(start, start + length);
+		double modification = spectrum_number % 3 == 0 ? MODIFICATIONS[random.nextInt(MODIFICATIONS.length)] : 0;
+		int modified_position = 1 + random.nextInt(length - 1);
+		double[] masses = new double[length];
+		double precursor_mass = WATER;
+		for (int i = 0; i < length; ++i)
+		{
+			masses[i] = MASSES[AMINO_ACIDS.indexOf(peptide.charAt(i))] + (i == modified_position ? modification : 0);
+			precursor_mass += masses[i];
+		}
+
+		ArrayList<double[]> peaks = new ArrayList<double[]>();
+		double b_mass = 0;
+		for (int i = 0; i < length - 1; ++i)
+		{
+			b_mass += masses[i];
+			if (random.nextDouble() < 0.85)
+			{
+				peaks.add(new double[] {b_mass + PROTON, 100 + random.nextInt(9901)});
+			}
+			if (random.nextDouble() < 0.85)
+			{
+				peaks.add(new double[] {precursor_mass - b_mass + PROTON, 100 + random.nextInt(9901)});
+			}
+		}
+		int number_of_noise_peaks = 10 + random.nextInt(31);
+		for (int i = 0; i < number_of_noise_peaks; ++i)
+		{
+			peaks.add(new double[] {100 + random.nextDouble() * (precursor_mass - 100), 10 + random.nextInt(2991)});
+		}
+		peaks.sort((peak1, peak2) -> Double.compare(peak1[0], peak2[0]));
+
+		output.write("BEGIN IONS\n");
+		output.write(String.format(Locale.ROOT, "TITLE=spec%d %s\n", spectrum_number, peptide));
+		output.write(String.format(Locale.ROOT, "PEPMASS=%.6f\n", (precursor_mass + 2 * PROTON) / 2));
+		output.write("CHARGE=2+\n");
+		output.write(String.format(Locale.ROOT, "SCANS=%d\n", 1000 + spectrum_number));
+		for (double[] peak : peaks)
+		{
+			output.write(String.format(Locale.ROOT, "%.5f %d\n", peak[0], (int) peak[1]));
+		}
+		output.write("END IONS\n");
+	}
+}